@@ -0,0 +1,363 @@
+package university;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Benchmarks of the hot paths of UniversityAllocationManager, run over
+ * universities of increasing size, reporting the time and the bytes
+ * allocated per operation.
+ * <p>
+ * Each benchmark has an untimed prepare step, which sets up the operations
+ * to be measured (and undoes the last iteration's), and a timed measure
+ * step. Every benchmark is run for a number of warmup iterations, so the
+ * JIT compiler has settled, and then for the measured iterations, whose
+ * mean and standard deviation are reported. Allocation is read from the
+ * measuring thread's allocated bytes counter, as the JDK reports it.
+ * <p>
+ * Compile and run from the root of the repository with
+ * <pre>
+ * javac -d out src/*.java bench/*.java
+ * java -Xms4g -Xmx4g -cp out university.AllocationManagerBenchmark [options]
+ * </pre>
+ * where the options are
+ * <pre>
+ * -sizes 1000,10000,100000,1000000   numbers of students
+ * -warmup 5                          warmup iterations
+ * -iterations 10                     measured iterations
+ * -only enrol,unEnrol                benchmarks to run, by name
+ * </pre>
+ */
+public class AllocationManagerBenchmark
+{
+    //operations in each iteration of the benchmarks of single entities
+    private static final int BATCH = 10000;
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    /*
+     * A university of a given number of students, with a module for every
+     * 50 students and each student enrolled on two modules.
+     */
+    private static class University
+    {
+        final UniversityAllocationManager manager;
+        final String[] students;
+        final String[] modules;
+        final Staff[] staff;
+        final Random random;
+
+        University( int size ) throws Exception {
+            manager = new UniversityAllocationManager();
+            random = new Random( size );
+            students = new String[size];
+            modules = new String[Math.max( 20, Math.min( size / 50, 50000 ) )];
+            staff = new Staff[modules.length / 2];
+            for( int i = 0; i < staff.length; i++ ) {
+                manager.addStaff( "Staff", "Member" + i );
+            }
+            System.arraycopy( manager.getStaff(), 0, staff, 0, staff.length );
+            int capacity = 4 * size / modules.length + BATCH;
+            for( int i = 0; i < modules.length; i++ ) {
+                modules[i] = manager.addModule( "Module" + i, (byte) 15, (byte) 1, capacity,
+                                                new Staff[] { staff[i % staff.length] } );
+            }
+            for( int i = 0; i < size; i++ ) {
+                students[i] = manager.addStudent( "Student", "Number" + i, (byte) ( 1 + i % 3 ) );
+                manager.enrol( students[i], modules[random.nextInt( modules.length )] );
+                manager.tryEnrol( students[i], modules[random.nextInt( modules.length )] );
+            }
+        }
+
+        String student() {
+            return students[random.nextInt( students.length )];
+        }
+
+        String module() {
+            return modules[random.nextInt( modules.length )];
+        }
+    }
+
+    /*
+     * A benchmark, whose measure step performs the operations prepared for it.
+     */
+    private static abstract class Benchmark
+    {
+        final String name;
+
+        Benchmark( String name ) {
+            this.name = name;
+        }
+
+        abstract void prepare( University university ) throws Exception;
+
+        //returns the number of operations performed
+        abstract int measure( University university ) throws Exception;
+    }
+
+    private static List<Benchmark> benchmarks() {
+        List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+
+        benchmarks.add( new Benchmark( "addStudent" ) {
+            String[] added = new String[0];
+
+            void prepare( University university ) throws Exception {
+                for( String ID : added ) {
+                    university.manager.remove( new UniversityStudent( "Added", "Student", (byte) 1, ID ) );
+                }
+            }
+
+            int measure( University university ) throws Exception {
+                added = new String[BATCH];
+                for( int i = 0; i < BATCH; i++ ) {
+                    added[i] = university.manager.addStudent( "Added", "Student", (byte) 1 );
+                }
+                return BATCH;
+            }
+        } );
+        benchmarks.add( new Benchmark( "addModule" ) {
+            //module codes run out long before students do, so fewer are added
+            void prepare( University university ) {
+            }
+
+            int measure( University university ) throws Exception {
+                for( int i = 0; i < 500; i++ ) {
+                    university.manager.addModule( "Added", (byte) 15, (byte) 1, 100,
+                                                  new Staff[] { university.staff[i % university.staff.length] } );
+                }
+                return 500;
+            }
+        } );
+        benchmarks.add( new Benchmark( "enrol" ) {
+            String[] students = new String[BATCH];
+            String[] modules = new String[BATCH];
+
+            void prepare( University university ) {
+                for( int i = 0; i < BATCH; i++ ) {
+                    if( students[i] != null ) {
+                        university.manager.tryUnEnrol( students[i], modules[i] );
+                    }
+                    students[i] = university.student();
+                    modules[i] = university.module();
+                }
+            }
+
+            int measure( University university ) {
+                for( int i = 0; i < BATCH; i++ ) {
+                    university.manager.tryEnrol( students[i], modules[i] );
+                }
+                return BATCH;
+            }
+        } );
+        //the same rows as enrol, given as one batch, to compare against enrolling them one by one
+        benchmarks.add( new Benchmark( "enrolAll" ) {
+            String[] students = new String[BATCH];
+            String[] modules = new String[BATCH];
+            byte[] statuses = new byte[0];
+
+            void prepare( University university ) {
+                for( int i = 0; i < statuses.length; i++ ) {
+                    if( statuses[i] == EnrolmentStatus.ENROLLED ) {
+                        university.manager.tryUnEnrol( students[i], modules[i] );
+                    }
+                }
+                for( int i = 0; i < BATCH; i++ ) {
+                    students[i] = university.student();
+                    modules[i] = university.module();
+                }
+            }
+
+            int measure( University university ) {
+                statuses = university.manager.enrolAll( students, modules );
+                return BATCH;
+            }
+        } );
+        benchmarks.add( new Benchmark( "unEnrol" ) {
+            String[] students = new String[BATCH];
+            String[] modules = new String[BATCH];
+
+            void prepare( University university ) {
+                for( int i = 0; i < BATCH; i++ ) {
+                    students[i] = university.student();
+                    modules[i] = university.module();
+                    university.manager.tryEnrol( students[i], modules[i] );
+                }
+            }
+
+            int measure( University university ) {
+                for( int i = 0; i < BATCH; i++ ) {
+                    university.manager.tryUnEnrol( students[i], modules[i] );
+                }
+                return BATCH;
+            }
+        } );
+        benchmarks.add( new Benchmark( "getStudents(moduleCode)" ) {
+            String[] modules = new String[BATCH];
+
+            void prepare( University university ) {
+                for( int i = 0; i < BATCH; i++ ) {
+                    modules[i] = university.module();
+                }
+            }
+
+            int measure( University university ) throws Exception {
+                for( int i = 0; i < BATCH; i++ ) {
+                    university.manager.getStudents( modules[i] );
+                }
+                return BATCH;
+            }
+        } );
+        benchmarks.add( new Benchmark( "getAvailableModules" ) {
+            void prepare( University university ) {
+            }
+
+            int measure( University university ) {
+                for( int i = 0; i < 100; i++ ) {
+                    university.manager.getAvailableModules();
+                }
+                return 100;
+            }
+        } );
+        benchmarks.add( new Benchmark( "discontinue" ) {
+            String[] modules = new String[100];
+
+            //discontinues new modules, each with 20 students enrolled
+            void prepare( University university ) throws Exception {
+                for( int i = 0; i < modules.length; i++ ) {
+                    modules[i] = university.manager.addModule( "Discontinued", (byte) 0, (byte) 1, 20,
+                                                               new Staff[] { university.staff[i % university.staff.length] } );
+                    for( int j = 0; j < 20; j++ ) {
+                        university.manager.tryEnrol( university.student(), modules[i] );
+                    }
+                }
+            }
+
+            int measure( University university ) throws Exception {
+                for( String code : modules ) {
+                    university.manager.discontinue( code );
+                }
+                return modules.length;
+            }
+        } );
+        benchmarks.add( new Benchmark( "remove(Student)" ) {
+            Student[] students = new Student[BATCH];
+
+            //removes new students, each enrolled on two modules
+            void prepare( University university ) throws Exception {
+                for( int i = 0; i < BATCH; i++ ) {
+                    String ID = university.manager.addStudent( "Removed", "Student", (byte) 1 );
+                    university.manager.tryEnrol( ID, university.module() );
+                    university.manager.tryEnrol( ID, university.module() );
+                    students[i] = new UniversityStudent( "Removed", "Student", (byte) 1, ID );
+                }
+            }
+
+            int measure( University university ) throws Exception {
+                for( Student student : students ) {
+                    university.manager.remove( student );
+                }
+                return BATCH;
+            }
+        } );
+        benchmarks.add( new Benchmark( "saveAllocationManager" ) {
+            void prepare( University university ) {
+            }
+
+            int measure( University university ) throws Exception {
+                university.manager.saveAllocationManager( snapshot.getPath() );
+                return 1;
+            }
+        } );
+        benchmarks.add( new Benchmark( "loadAllocationManager" ) {
+            void prepare( University university ) throws Exception {
+                if( !snapshot.exists() ) {
+                    university.manager.saveAllocationManager( snapshot.getPath() );
+                }
+            }
+
+            int measure( University university ) throws Exception {
+                university.manager.loadAllocationManager( snapshot.getPath() );
+                return 1;
+            }
+        } );
+        return benchmarks;
+    }
+
+    private static File snapshot;
+
+    /**
+     * Runs the benchmarks.
+     *
+     * @param args options, as described above
+     * @throws Exception if a benchmark fails
+     */
+    public static void main( String[] args ) throws Exception {
+        int[] sizes = { 1000, 10000, 100000, 1000000 };
+        int warmup = 5;
+        int iterations = 10;
+        List<String> only = null;
+
+        for( int i = 0; i + 1 < args.length; i += 2 ) {
+            if( args[i].equals( "-sizes" ) ) {
+                sizes = Arrays.stream( args[i + 1].split( "," ) ).mapToInt( Integer::parseInt ).toArray();
+            }
+            else if( args[i].equals( "-warmup" ) ) {
+                warmup = Integer.parseInt( args[i + 1] );
+            }
+            else if( args[i].equals( "-iterations" ) ) {
+                iterations = Integer.parseInt( args[i + 1] );
+            }
+            else if( args[i].equals( "-only" ) ) {
+                only = Arrays.asList( args[i + 1].split( "," ) );
+            }
+            else {
+                throw new IllegalArgumentException( "Unknown option " + args[i] );
+            }
+        }
+        snapshot = File.createTempFile( "benchmark", ".snapshot" );
+        snapshot.delete();
+        snapshot.deleteOnExit();
+
+        System.out.printf( "%-24s %9s %14s %12s %14s%n", "benchmark", "students", "ns/op", "+-", "bytes/op" );
+        for( int size : sizes ) {
+            University university = new University( size );
+
+            for( Benchmark benchmark : benchmarks() ) {
+                if( only == null || only.contains( benchmark.name ) ) {
+                    run( benchmark, university, size, warmup, iterations );
+                }
+            }
+            snapshot.delete();
+        }
+    }
+
+    private static void run( Benchmark benchmark, University university, int size, int warmup, int iterations )
+    throws Exception {
+        double[] nanos = new double[iterations];
+        double bytes = 0;
+        long thread = Thread.currentThread().getId();
+
+        for( int i = 0; i < warmup + iterations; i++ ) {
+            benchmark.prepare( university );
+            long allocated = THREADS.getThreadAllocatedBytes( thread );
+            long start = System.nanoTime();
+            int operations = benchmark.measure( university );
+            long elapsed = System.nanoTime() - start;
+            allocated = THREADS.getThreadAllocatedBytes( thread ) - allocated;
+
+            if( i >= warmup ) {
+                nanos[i - warmup] = (double) elapsed / operations;
+                bytes += (double) allocated / operations / iterations;
+            }
+        }
+        double mean = Arrays.stream( nanos ).average().orElse( 0 );
+        double variance = Arrays.stream( nanos ).map( n -> ( n - mean ) * ( n - mean ) ).sum() / Math.max( 1, iterations - 1 );
+
+        System.out.printf( "%-24s %9d %14.1f %12.1f %14.1f%n", benchmark.name, size, mean, Math.sqrt( variance ), bytes );
+    }
+}
@@ -0,0 +1,352 @@
+package university;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Simulates registration day against any AllocationManager: a burst of
+ * enrol, unEnrol, getAvailableModules and getModules(studentID) calls from
+ * many threads, with module popularity following a Zipf distribution, so a
+ * few modules take most of the enrolments.
+ * <p>
+ * The workload is open-loop: each thread is given a schedule of arrivals at
+ * its share of the overall rate, and the latency of a call is measured from
+ * when it was due to arrive rather than from when the thread got round to
+ * it. So a manager which stalls is charged for the calls queueing behind the
+ * stall, as it would be by real users, instead of the stall slowing down the
+ * arrivals. Throughput and the 50th, 99th and 99.9th percentile latencies
+ * are reported for each operation.
+ * <p>
+ * Compile and run from the root of the repository with
+ * <pre>
+ * javac -d out src/*.java bench/*.java
+ * java -cp out university.RegistrationLoadSimulator [options]
+ * </pre>
+ * where the options are
+ * <pre>
+ * -manager university.ConcurrentAllocationManager   class with a no-argument constructor
+ * -synchronized                                     hold one lock around every call, for
+ *                                                   managers which are not thread-safe
+ * -students 100000
+ * -modules 2000
+ * -threads 8
+ * -rate 50000                                       arrivals per second, over all threads
+ * -warmup 5                                         seconds before measuring
+ * -duration 30                                      seconds measured
+ * -zipf 1.0                                         exponent of module popularity
+ * -mix enrol=50,unEnrol=20,getAvailableModules=5,getModules=25
+ * </pre>
+ */
+public class RegistrationLoadSimulator
+{
+    private static final String[] OPERATIONS = { "enrol", "unEnrol", "getAvailableModules", "getModules" };
+    private static final int ENROL = 0;
+    private static final int UNENROL = 1;
+    private static final int AVAILABLE = 2;
+    private static final int MODULES = 3;
+
+    private final AllocationManager manager;
+    private final Object lock;
+    private final String[] students;
+    private final String[] modules;
+    private final double[] popularity;
+    private final int[] mix;
+
+    /*
+     * Latencies in nanoseconds, counted in 64 buckets for each power of 2,
+     * which keeps each percentile to within about 1.5%.
+     */
+    private static class Histogram
+    {
+        final long[] counts = new long[64 * 64];
+        long total;
+        long max;
+
+        void record( long nanos ) {
+            long value = Math.max( 1, nanos );
+            int exponent = 63 - Long.numberOfLeadingZeros( value );
+            int bucket = exponent < 6 ? (int) value : 64 * ( exponent - 5 ) + (int) ( ( value >>> ( exponent - 6 ) ) & 63 );
+
+            counts[bucket]++;
+            total++;
+            max = Math.max( max, nanos );
+        }
+
+        void add( Histogram other ) {
+            for( int i = 0; i < counts.length; i++ ) {
+                counts[i] += other.counts[i];
+            }
+            total += other.total;
+            max = Math.max( max, other.max );
+        }
+
+        //upper bound of the bucket holding the given fraction of the latencies
+        long percentile( double fraction ) {
+            long rank = (long) Math.ceil( fraction * total );
+            long seen = 0;
+
+            for( int i = 0; i < counts.length; i++ ) {
+                seen += counts[i];
+                if( seen >= rank && counts[i] > 0 ) {
+                    if( i < 64 ) {
+                        return i;
+                    }
+                    int exponent = i / 64 + 5;
+                    return ( (long) ( 64 + i % 64 ) + 1 << ( exponent - 6 ) ) - 1;
+                }
+            }
+            return max;
+        }
+    }
+
+    /*
+     * One simulated client thread, with its own histograms and the
+     * enrolments it has made, which it later unenrols.
+     */
+    private class Client extends Thread
+    {
+        final Random random;
+        final long interval;
+        final long start;
+        final long measureFrom;
+        final long end;
+        final Histogram[] latencies = new Histogram[OPERATIONS.length];
+        final long[] rejected = new long[OPERATIONS.length];
+        final List<String[]> enrolled = new ArrayList<String[]>();
+
+        Client( int number, long interval, long start, long measureFrom, long end ) {
+            super( "client-" + number );
+            random = new Random( number );
+            this.interval = interval;
+            this.start = start;
+            this.measureFrom = measureFrom;
+            this.end = end;
+            for( int i = 0; i < latencies.length; i++ ) {
+                latencies[i] = new Histogram();
+            }
+        }
+
+        public void run() {
+            long due = start;
+
+            while( due < end ) {
+                long now = System.nanoTime();
+
+                if( now < due ) {
+                    LockSupport.parkNanos( due - now );
+                    continue;
+                }
+                int operation = operation();
+                boolean accepted = call( operation );
+                long latency = System.nanoTime() - due;
+
+                if( due >= measureFrom ) {
+                    latencies[operation].record( latency );
+                    if( !accepted ) {
+                        rejected[operation]++;
+                    }
+                }
+                due += interval;
+            }
+        }
+
+        int operation() {
+            int draw = random.nextInt( 100 );
+            int operation = 0;
+
+            while( draw >= mix[operation] ) {
+                draw -= mix[operation];
+                operation++;
+            }
+            return operation;
+        }
+
+        boolean call( int operation ) {
+            try {
+                if( lock != null ) {
+                    synchronized( lock ) {
+                        return perform( operation );
+                    }
+                }
+                return perform( operation );
+            }
+            catch( Exception e ) {
+                //broken enrolment rules are normal outcomes on registration day
+                return false;
+            }
+        }
+
+        boolean perform( int operation ) throws Exception {
+            switch( operation ) {
+                case ENROL:
+                    String student = students[random.nextInt( students.length )];
+                    String module = modules[popularModule()];
+                    manager.enrol( student, module );
+                    enrolled.add( new String[] { student, module } );
+                    return true;
+                case UNENROL:
+                    if( enrolled.isEmpty() ) {
+                        return false;
+                    }
+                    int index = random.nextInt( enrolled.size() );
+                    String[] enrolment = enrolled.get( index );
+                    enrolled.set( index, enrolled.get( enrolled.size() - 1 ) );
+                    enrolled.remove( enrolled.size() - 1 );
+                    return manager.unEnrol( enrolment[0], enrolment[1] );
+                case AVAILABLE:
+                    manager.getAvailableModules();
+                    return true;
+                case MODULES:
+                    manager.getModules( students[random.nextInt( students.length )] );
+                    return true;
+                default:
+                    throw new IllegalArgumentException( "Unknown operation " + operation );
+            }
+        }
+
+        int popularModule() {
+            int index = Arrays.binarySearch( popularity, random.nextDouble() );
+            return Math.min( index < 0 ? -index - 1 : index, popularity.length - 1 );
+        }
+    }
+
+    private RegistrationLoadSimulator( AllocationManager manager, boolean coarseLock, int students, int modules,
+                                       double zipf, int[] mix ) throws Exception {
+        this.manager = manager;
+        lock = coarseLock ? new Object() : null;
+        this.mix = mix;
+        Random random = new Random( 42 );
+
+        for( int i = 0; i < Math.max( 1, modules / 2 ); i++ ) {
+            manager.addStaff( "Staff", "Member" + i );
+        }
+        Staff[] staff = manager.getStaff();
+        this.modules = new String[modules];
+        for( int i = 0; i < modules; i++ ) {
+            this.modules[i] = manager.addModule( "Module" + i, (byte) 15, (byte) 1, 30 + random.nextInt( 270 ),
+                                                 new Staff[] { staff[i % staff.length] } );
+        }
+        this.students = new String[students];
+        for( int i = 0; i < students; i++ ) {
+            this.students[i] = manager.addStudent( "Student", "Number" + i, (byte) ( 1 + i % 3 ) );
+        }
+        //cumulative Zipf distribution, the first module the most popular
+        popularity = new double[modules];
+        double sum = 0;
+        for( int i = 0; i < modules; i++ ) {
+            sum += 1 / Math.pow( i + 1, zipf );
+            popularity[i] = sum;
+        }
+        for( int i = 0; i < modules; i++ ) {
+            popularity[i] /= sum;
+        }
+    }
+
+    /**
+     * Builds the university, runs the workload and prints the report.
+     *
+     * @param args options, as described above
+     * @throws Exception if the manager cannot be created or populated
+     */
+    public static void main( String[] args ) throws Exception {
+        String managerClass = "university.ConcurrentAllocationManager";
+        boolean coarseLock = false;
+        int students = 100000;
+        int modules = 2000;
+        int threads = 8;
+        long rate = 50000;
+        int warmup = 5;
+        int duration = 30;
+        double zipf = 1.0;
+        int[] mix = { 50, 20, 5, 25 };
+
+        for( int i = 0; i < args.length; i++ ) {
+            String option = args[i];
+
+            if( option.equals( "-synchronized" ) ) {
+                coarseLock = true;
+                continue;
+            }
+            if( i + 1 == args.length ) {
+                throw new IllegalArgumentException( "No value given for " + option );
+            }
+            String value = args[++i];
+            switch( option ) {
+                case "-manager": managerClass = value; break;
+                case "-students": students = Integer.parseInt( value ); break;
+                case "-modules": modules = Integer.parseInt( value ); break;
+                case "-threads": threads = Integer.parseInt( value ); break;
+                case "-rate": rate = Long.parseLong( value ); break;
+                case "-warmup": warmup = Integer.parseInt( value ); break;
+                case "-duration": duration = Integer.parseInt( value ); break;
+                case "-zipf": zipf = Double.parseDouble( value ); break;
+                case "-mix": mix = parseMix( value ); break;
+                default: throw new IllegalArgumentException( "Unknown option " + option );
+            }
+        }
+        AllocationManager manager = (AllocationManager) Class.forName( managerClass ).getDeclaredConstructor().newInstance();
+        System.out.println( "Building " + students + " students and " + modules + " modules in " + managerClass );
+        RegistrationLoadSimulator simulator = new RegistrationLoadSimulator( manager, coarseLock, students, modules, zipf, mix );
+        System.out.println( "Running " + threads + " threads at " + rate + " calls/s for " + warmup + "s warmup and "
+                            + duration + "s measured" );
+        simulator.run( threads, rate, warmup, duration );
+    }
+
+    private static int[] parseMix( String value ) {
+        int[] mix = new int[OPERATIONS.length];
+        int total = 0;
+
+        for( String part : value.split( "," ) ) {
+            String[] pair = part.split( "=" );
+            int operation = Arrays.asList( OPERATIONS ).indexOf( pair[0] );
+            if( operation < 0 || pair.length != 2 ) {
+                throw new IllegalArgumentException( "Unknown operation in mix: " + part );
+            }
+            mix[operation] = Integer.parseInt( pair[1] );
+            total += mix[operation];
+        }
+        if( total != 100 ) {
+            throw new IllegalArgumentException( "The mix must add up to 100, not " + total );
+        }
+        return mix;
+    }
+
+    private void run( int threads, long rate, int warmup, int duration ) throws InterruptedException {
+        long interval = 1000000000L * threads / rate;
+        long start = System.nanoTime() + 10000000L;
+        long measureFrom = start + warmup * 1000000000L;
+        long end = measureFrom + duration * 1000000000L;
+        Client[] clients = new Client[threads];
+
+        //the threads' schedules are staggered, so arrivals are spread evenly
+        for( int i = 0; i < threads; i++ ) {
+            clients[i] = new Client( i, interval, start + interval * i / threads, measureFrom, end );
+            clients[i].start();
+        }
+        Histogram[] latencies = new Histogram[OPERATIONS.length];
+        long[] rejected = new long[OPERATIONS.length];
+        for( int i = 0; i < latencies.length; i++ ) {
+            latencies[i] = new Histogram();
+        }
+        for( Client client : clients ) {
+            client.join();
+            for( int i = 0; i < latencies.length; i++ ) {
+                latencies[i].add( client.latencies[i] );
+                rejected[i] += client.rejected[i];
+            }
+        }
+
+        System.out.printf( "%-20s %10s %10s %10s %10s %10s %10s %10s%n", "operation", "calls", "rejected", "calls/s",
+                           "p50 us", "p99 us", "p999 us", "max us" );
+        for( int i = 0; i < latencies.length; i++ ) {
+            Histogram histogram = latencies[i];
+            System.out.printf( "%-20s %10d %10d %10.0f %10.1f %10.1f %10.1f %10.1f%n", OPERATIONS[i], histogram.total,
+                               rejected[i], (double) histogram.total / duration, histogram.percentile( 0.5 ) / 1000.0,
+                               histogram.percentile( 0.99 ) / 1000.0, histogram.percentile( 0.999 ) / 1000.0,
+                               histogram.max / 1000.0 );
+        }
+    }
+}
@@ -0,0 +1,623 @@
+package university;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An HTTP/JSON service over the operations of an AllocationManager, built on
+ * the JDK's own HTTP server.
+ * <p>
+ * Each request is handled on a virtual thread where the JDK has them, so a
+ * request waiting on the manager or the journal holds no platform thread,
+ * and on a cached pool of platform threads otherwise. Connections are kept
+ * alive between requests, as every response has a fixed length. The number
+ * of requests admitted at once is bounded: a request arriving when the
+ * bound is reached is refused straight away with 429 Too Many Requests and
+ * a Retry-After header, so clients back off rather than queueing without
+ * limit. The manager is called from many threads at once, so it must be
+ * thread-safe, such as a {@link ConcurrentAllocationManager}.
+ * <p>
+ * The resources are
+ * <pre>
+ * GET    /students                        POST /students {"forename","surname","stage"}
+ * GET    /students/{id}/modules           DELETE /students/{id}
+ * GET    /staff                           POST /staff {"forename","surname"}
+ * DELETE /staff/{id}, returning {"unstaffedModules"}
+ * GET    /modules                         POST /modules {"name","credits","stage","capacity","staff":[ids]}
+ * GET    /modules/running                 GET  /modules/available
+ * GET    /modules/{code}/students         GET  /modules/{code}/staff
+ * POST   /modules/{code}/discontinue
+ * POST   /enrolments {"student","module"} DELETE /enrolments?student={id}&amp;module={code}
+ * GET    /stats
+ * </pre>
+ * Errors are returned as {"error","message"}, with 400 for invalid input,
+ * 404 for IDs not on the system, 409 for enrolments breaking a rule and 500,
+ * with a generic message, for anything else.
+ */
+public class AllocationHttpServer implements Closeable
+{
+    private final AllocationManager manager;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Semaphore admitted;
+
+    /*
+     * An error to send as the response, with its HTTP status.
+     */
+    private static class HttpError extends Exception
+    {
+        final int status;
+        final String error;
+
+        HttpError( int status, String error, String message ) {
+            super( message );
+            this.status = status;
+            this.error = error;
+        }
+    }
+
+    /**
+     * Constructor for AllocationHttpServer, binding it to an address. The
+     * server does not accept requests until it is started.
+     *
+     * @param manager thread-safe manager to serve
+     * @param address address to listen on
+     * @param maxRequests number of requests admitted at once, beyond which
+     *        requests are refused with 429
+     * @throws IOException if the address cannot be bound
+     */
+    public AllocationHttpServer( AllocationManager manager, InetSocketAddress address, int maxRequests ) throws IOException {
+        this.manager = manager;
+        admitted = new Semaphore( maxRequests );
+        executor = newExecutor();
+        server = HttpServer.create( address, 4096 );
+        server.setExecutor( executor );
+        server.createContext( "/", new HttpHandler() {
+            public void handle( HttpExchange exchange ) throws IOException {
+                admit( exchange );
+            }
+        } );
+    }
+
+    /*
+     * A virtual thread for each request from JDK 21, found by reflection so
+     * the server still builds and runs on older JDKs with a pool of platform
+     * threads instead.
+     */
+    private static ExecutorService newExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod( "newVirtualThreadPerTaskExecutor" ).invoke( null );
+        }
+        catch( ReflectiveOperationException e ) {
+            return Executors.newCachedThreadPool( task -> {
+                Thread thread = new Thread( task, "http-worker" );
+                thread.setDaemon( true );
+                return thread;
+            } );
+        }
+    }
+
+    /**
+     * Starts accepting requests.
+     */
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Returns the port being listened on, which is chosen by the system if
+     * the server was bound to port 0
+     *
+     * @return the port
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Stops accepting requests, waiting up to a second for those being
+     * handled to finish.
+     */
+    public void close() {
+        server.stop( 1 );
+        executor.shutdown();
+        try {
+            executor.awaitTermination( 1, TimeUnit.SECONDS );
+        }
+        catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void admit( HttpExchange exchange ) throws IOException {
+        try {
+            if( !admitted.tryAcquire() ) {
+                exchange.getResponseHeaders().set( "Retry-After", "1" );
+                send( exchange, 429, error( "TooManyRequests", "The server is handling as many requests as it can." ) );
+                return;
+            }
+            try {
+                //a POST to a collection creates an entry in it
+                boolean creates = exchange.getRequestMethod().equals( "POST" ) 
+                                  && exchange.getRequestURI().getPath().matches( "/*[^/]+/*" );
+                int status = creates ? 201 : 200;
+                String body;
+                try {
+                    body = route( exchange );
+                }
+                catch( HttpError e ) {
+                    status = e.status;
+                    body = error( e.error, e.getMessage() );
+                }
+                catch( IllegalArgumentException e ) {
+                    //the manager refusing an argument it was given
+                    status = 400;
+                    body = error( "BadRequest", e.getMessage() );
+                }
+                catch( RuntimeException e ) {
+                    //the details are logged here rather than given to the client
+                    e.printStackTrace();
+                    status = 500;
+                    body = error( "InternalError", "The server could not handle the request." );
+                }
+                send( exchange, status, body );
+            }
+            finally {
+                admitted.release();
+            }
+        }
+        finally {
+            exchange.close();
+        }
+    }
+
+    private String route( HttpExchange exchange ) throws HttpError, IOException {
+        String method = exchange.getRequestMethod();
+        String[] path = exchange.getRequestURI().getPath().replaceAll( "^/+|/+$", "" ).split( "/+" );
+        Map<String, Object> body = method.equals( "POST" ) ? parse( exchange.getRequestBody() ) : null;
+
+        exchange.getRequestBody().close();
+        try {
+            switch( path[0] ) {
+                case "students":
+                    if( path.length == 1 && method.equals( "GET" ) ) {
+                        return students( manager.getStudents() );
+                    }
+                    if( path.length == 1 && method.equals( "POST" ) ) {
+                        return "{\"id\":" + quote( manager.addStudent( string( body, "forename" ), string( body, "surname" ),
+                                                                       smallNumber( body, "stage" ) ) ) + "}";
+                    }
+                    if( path.length == 3 && path[2].equals( "modules" ) && method.equals( "GET" ) ) {
+                        return modules( manager.getModules( path[1] ) );
+                    }
+                    if( path.length == 2 && method.equals( "DELETE" ) ) {
+                        manager.remove( new UniversityStudent( "", "", (byte) 1, path[1] ) );
+                        return "{\"removed\":true}";
+                    }
+                    break;
+                case "staff":
+                    if( path.length == 1 && method.equals( "GET" ) ) {
+                        return staff( manager.getStaff() );
+                    }
+                    if( path.length == 1 && method.equals( "POST" ) ) {
+                        return "{\"id\":" + quote( manager.addStaff( string( body, "forename" ), string( body, "surname" ) ) ) + "}";
+                    }
+                    if( path.length == 2 && method.equals( "DELETE" ) ) {
+                        return "{\"unstaffedModules\":" + modules( manager.remove( new UniversityStaff( "", "", path[1] ) ) ) + "}";
+                    }
+                    break;
+                case "modules":
+                    return routeModules( method, path, body );
+                case "enrolments":
+                    if( path.length == 1 && method.equals( "POST" ) ) {
+                        manager.enrol( string( body, "student" ), string( body, "module" ) );
+                        return "{\"enrolled\":true}";
+                    }
+                    if( path.length == 1 && method.equals( "DELETE" ) ) {
+                        Map<String, String> query = query( exchange );
+                        return "{\"unenrolled\":" + manager.unEnrol( query.get( "student" ), query.get( "module" ) ) + "}";
+                    }
+                    break;
+                case "stats":
+                    if( path.length == 1 && method.equals( "GET" ) ) {
+                        return "{\"students\":" + manager.getNumberOfStudents() + ",\"staff\":" + manager.getNumberOfStaff()
+                               + ",\"modules\":" + manager.getNumberOfModules() + ",\"fullyAllocatedStudents\":"
+                               + manager.getNumberOfFullyAllocatedStudents() + ",\"modulesAtCapacity\":"
+                               + manager.getNumberOfModulesAtCapacity() + "}";
+                    }
+                    break;
+            }
+        }
+        catch( InvalidIDException | InvalidStageException | InvalidCreditsException | InvalidCapacityException
+               | DuplicateStaffException | StaffNotInSystemException | IDNotSetException e ) {
+            throw new HttpError( 400, e.getClass().getSimpleName(), e.getMessage() );
+        }
+        catch( IDNotRecognisedException e ) {
+            throw new HttpError( 404, e.getClass().getSimpleName(), e.getMessage() );
+        }
+        catch( ModuleAtCapacityException | InsufficientAvailableCreditsException | ModuleDiscontinuedException
+               | ModuleStageTooHighException | EnrollingWouldPreventHonoursException | IDAlreadySetException e ) {
+            throw new HttpError( 409, e.getClass().getSimpleName(), e.getMessage() );
+        }
+        throw new HttpError( 404, "NotFound", "No resource " + method + " " + exchange.getRequestURI().getPath() );
+    }
+
+    private String routeModules( String method, String[] path, Map<String, Object> body ) throws HttpError,
+    InvalidIDException, IDNotRecognisedException, InvalidStageException, InvalidCreditsException,
+    InvalidCapacityException, DuplicateStaffException, StaffNotInSystemException, IDAlreadySetException {
+        if( path.length == 1 && method.equals( "GET" ) ) {
+            return modules( manager.getModules() );
+        }
+        if( path.length == 1 && method.equals( "POST" ) ) {
+            List<String> IDs = strings( body, "staff" );
+            Staff[] staff = new Staff[IDs.size()];
+            for( int i = 0; i < staff.length; i++ ) {
+                staff[i] = new UniversityStaff( "", "", IDs.get( i ) );
+            }
+            return "{\"code\":" + quote( manager.addModule( string( body, "name" ), smallNumber( body, "credits" ),
+                                                             smallNumber( body, "stage" ), number( body, "capacity" ),
+                                                             staff ) ) + "}";
+        }
+        if( path.length == 2 && path[1].equals( "running" ) && method.equals( "GET" ) ) {
+            return modules( manager.getRunningModules() );
+        }
+        if( path.length == 2 && path[1].equals( "available" ) && method.equals( "GET" ) ) {
+            return modules( manager.getAvailableModules() );
+        }
+        if( path.length == 3 && path[2].equals( "students" ) && method.equals( "GET" ) ) {
+            return students( manager.getStudents( path[1] ) );
+        }
+        if( path.length == 3 && path[2].equals( "staff" ) && method.equals( "GET" ) ) {
+            return staff( manager.getStaff( path[1] ) );
+        }
+        if( path.length == 3 && path[2].equals( "discontinue" ) && method.equals( "POST" ) ) {
+            manager.discontinue( path[1] );
+            return "{\"discontinued\":true}";
+        }
+        throw new HttpError( 404, "NotFound", "No resource " + method + " /" + String.join( "/", path ) );
+    }
+
+    private static void send( HttpExchange exchange, int status, String body ) throws IOException {
+        byte[] bytes = body.getBytes( StandardCharsets.UTF_8 );
+
+        exchange.getResponseHeaders().set( "Content-Type", "application/json; charset=utf-8" );
+        exchange.sendResponseHeaders( status, bytes.length );
+        try( OutputStream out = exchange.getResponseBody() ) {
+            out.write( bytes );
+        }
+    }
+
+    private static Map<String, String> query( HttpExchange exchange ) {
+        Map<String, String> query = new HashMap<String, String>();
+        String raw = exchange.getRequestURI().getRawQuery();
+
+        if( raw != null ) {
+            for( String pair : raw.split( "&" ) ) {
+                int equals = pair.indexOf( '=' );
+                if( equals > 0 ) {
+                    query.put( URLDecoder.decode( pair.substring( 0, equals ), StandardCharsets.UTF_8 ),
+                               URLDecoder.decode( pair.substring( equals + 1 ), StandardCharsets.UTF_8 ) );
+                }
+            }
+        }
+        return query;
+    }
+
+    private static String students( Student[] students ) {
+        StringBuilder json = new StringBuilder( "[" );
+
+        for( Student student : students ) {
+            if( json.length() > 1 ) {
+                json.append( ',' );
+            }
+            json.append( "{\"id\":" ).append( quote( student.getID() ) )
+                .append( ",\"forename\":" ).append( quote( student.getForename() ) )
+                .append( ",\"surname\":" ).append( quote( student.getSurname() ) )
+                .append( ",\"stage\":" ).append( student.getStage() ).append( '}' );
+        }
+        return json.append( ']' ).toString();
+    }
+
+    private static String staff( Staff[] staff ) {
+        StringBuilder json = new StringBuilder( "[" );
+
+        for( Staff member : staff ) {
+            if( json.length() > 1 ) {
+                json.append( ',' );
+            }
+            json.append( "{\"id\":" ).append( quote( member.getID() ) )
+                .append( ",\"forename\":" ).append( quote( member.getForename() ) )
+                .append( ",\"surname\":" ).append( quote( member.getSurname() ) ).append( '}' );
+        }
+        return json.append( ']' ).toString();
+    }
+
+    private static String modules( Module[] modules ) {
+        StringBuilder json = new StringBuilder( "[" );
+
+        for( Module module : modules ) {
+            if( json.length() > 1 ) {
+                json.append( ',' );
+            }
+            json.append( "{\"code\":" ).append( quote( module.getCode() ) )
+                .append( ",\"name\":" ).append( quote( module.getName() ) )
+                .append( ",\"credits\":" ).append( module.getCredits() )
+                .append( ",\"stage\":" ).append( module.getStage() )
+                .append( ",\"capacity\":" ).append( module.getCapacity() )
+                .append( ",\"discontinued\":" ).append( module.isDiscontinued() ).append( '}' );
+        }
+        return json.append( ']' ).toString();
+    }
+
+    private static String error( String error, String message ) {
+        return "{\"error\":" + quote( error ) + ",\"message\":" + quote( message ) + "}";
+    }
+
+    private static String quote( String value ) {
+        if( value == null ) {
+            return "null";
+        }
+        StringBuilder json = new StringBuilder( value.length() + 2 ).append( '"' );
+
+        for( int i = 0; i < value.length(); i++ ) {
+            char c = value.charAt( i );
+            if( c == '"' || c == '\\' ) {
+                json.append( '\\' ).append( c );
+            }
+            else if( c < 0x20 ) {
+                json.append( String.format( "\\u%04x", (int) c ) );
+            }
+            else {
+                json.append( c );
+            }
+        }
+        return json.append( '"' ).toString();
+    }
+
+    private static String string( Map<String, Object> body, String name ) throws HttpError {
+        Object value = body.get( name );
+
+        if( !( value instanceof String ) ) {
+            throw new HttpError( 400, "BadRequest", "Expected a string \"" + name + "\" in the request body." );
+        }
+        return (String) value;
+    }
+
+    private static int number( Map<String, Object> body, String name ) throws HttpError {
+        Object value = body.get( name );
+
+        if( !( value instanceof Long ) || (Long) value != ( (Long) value ).intValue() ) {
+            throw new HttpError( 400, "BadRequest", "Expected an integer \"" + name + "\" in the request body." );
+        }
+        return ( (Long) value ).intValue();
+    }
+
+    /*
+     * Reads a number held by the manager as a byte, such as a stage, which
+     * is checked against the range of a byte before it is narrowed, so a
+     * value out of range is refused rather than wrapped into range.
+     */
+    private static byte smallNumber( Map<String, Object> body, String name ) throws HttpError {
+        int value = number( body, name );
+
+        if( value < Byte.MIN_VALUE || value > Byte.MAX_VALUE ) {
+            throw new HttpError( 400, "BadRequest", "The \"" + name + "\" " + value + " is out of range." );
+        }
+        return (byte) value;
+    }
+
+    @SuppressWarnings( "unchecked" )
+    private static List<String> strings( Map<String, Object> body, String name ) throws HttpError {
+        Object value = body.get( name );
+
+        if( value == null ) {
+            return new ArrayList<String>();
+        }
+        if( value instanceof List ) {
+            for( Object element : (List<Object>) value ) {
+                if( !( element instanceof String ) ) {
+                    value = null;
+                }
+            }
+        }
+        if( !( value instanceof List ) ) {
+            throw new HttpError( 400, "BadRequest", "Expected an array of strings \"" + name + "\" in the request body." );
+        }
+        return (List<String>) value;
+    }
+
+    /*
+     * Parses a request body holding a flat JSON object, whose values are
+     * strings, integers, booleans, null or arrays of those.
+     */
+    private static Map<String, Object> parse( InputStream in ) throws IOException, HttpError {
+        String json = new String( in.readAllBytes(), StandardCharsets.UTF_8 );
+        int[] at = { skip( json, 0 ) };
+        Map<String, Object> object = new HashMap<String, Object>();
+
+        //actions such as discontinue need no body
+        if( at[0] == json.length() ) {
+            return object;
+        }
+        expect( json, at, '{' );
+        if( peek( json, at ) != '}' ) {
+            do {
+                Object key = value( json, at );
+                expect( json, at, ':' );
+                if( !( key instanceof String ) ) {
+                    throw malformed( at[0] );
+                }
+                object.put( (String) key, value( json, at ) );
+            }
+            while( next( json, at, ',' ) );
+        }
+        expect( json, at, '}' );
+        if( at[0] != json.length() ) {
+            throw malformed( at[0] );
+        }
+        return object;
+    }
+
+    private static Object value( String json, int[] at ) throws HttpError {
+        char c = peek( json, at );
+
+        if( c == '"' ) {
+            StringBuilder value = new StringBuilder();
+            int i = at[0] + 1;
+            while( i < json.length() && json.charAt( i ) != '"' ) {
+                c = json.charAt( i++ );
+                if( c == '\\' && i < json.length() ) {
+                    c = json.charAt( i++ );
+                    if( c == 'u' && i + 4 <= json.length() ) {
+                        try {
+                            c = (char) Integer.parseInt( json.substring( i, i + 4 ), 16 );
+                        }
+                        catch( NumberFormatException e ) {
+                            throw malformed( i );
+                        }
+                        i += 4;
+                    }
+                    else {
+                        int escape = "\"\\/bfnrt".indexOf( c );
+                        if( escape < 0 ) {
+                            throw malformed( i );
+                        }
+                        c = "\"\\/\b\f\n\r\t".charAt( escape );
+                    }
+                }
+                value.append( c );
+            }
+            if( i == json.length() ) {
+                throw malformed( i );
+            }
+            at[0] = skip( json, i + 1 );
+            return value.toString();
+        }
+        if( c == '[' ) {
+            List<Object> values = new ArrayList<Object>();
+            at[0] = skip( json, at[0] + 1 );
+            if( peek( json, at ) != ']' ) {
+                do {
+                    values.add( value( json, at ) );
+                }
+                while( next( json, at, ',' ) );
+            }
+            expect( json, at, ']' );
+            return values;
+        }
+        int end = at[0];
+        while( end < json.length() && "{}[],: \t\r\n".indexOf( json.charAt( end ) ) < 0 ) {
+            end++;
+        }
+        String literal = json.substring( at[0], end );
+        Object value;
+        switch( literal ) {
+            case "true": value = Boolean.TRUE; break;
+            case "false": value = Boolean.FALSE; break;
+            case "null": value = null; break;
+            default:
+                try {
+                    value = Long.parseLong( literal );
+                }
+                catch( NumberFormatException e ) {
+                    throw malformed( at[0] );
+                }
+        }
+        at[0] = skip( json, end );
+        return value;
+    }
+
+    private static char peek( String json, int[] at ) throws HttpError {
+        if( at[0] >= json.length() ) {
+            throw malformed( at[0] );
+        }
+        return json.charAt( at[0] );
+    }
+
+    private static void expect( String json, int[] at, char c ) throws HttpError {
+        if( peek( json, at ) != c ) {
+            throw malformed( at[0] );
+        }
+        at[0] = skip( json, at[0] + 1 );
+    }
+
+    private static boolean next( String json, int[] at, char c ) throws HttpError {
+        if( peek( json, at ) != c ) {
+            return false;
+        }
+        at[0] = skip( json, at[0] + 1 );
+        return true;
+    }
+
+    private static int skip( String json, int at ) {
+        while( at < json.length() && Character.isWhitespace( json.charAt( at ) ) ) {
+            at++;
+        }
+        return at;
+    }
+
+    private static HttpError malformed( int at ) {
+        return new HttpError( 400, "BadRequest", "The request body is not a valid JSON object, at character " + at + "." );
+    }
+
+    /**
+     * Runs the server on localhost over a new ConcurrentAllocationManager, or
+     * one recovered from a snapshot and journal, until the process is stopped.
+     * <pre>
+     * java -cp out university.AllocationHttpServer [-port 8080] [-max-requests 10000]
+     *                                             [-snapshot file -journal file]
+     * </pre>
+     *
+     * @param args options, as above
+     * @throws IOException if the port cannot be bound, or the snapshot or journal read
+     */
+    public static void main( String[] args ) throws IOException {
+        int port = 8080;
+        int maxRequests = 10000;
+        String snapshot = null;
+        String journal = null;
+
+        for( int i = 0; i + 1 < args.length; i += 2 ) {
+            switch( args[i] ) {
+                case "-port": port = Integer.parseInt( args[i + 1] ); break;
+                case "-max-requests": maxRequests = Integer.parseInt( args[i + 1] ); break;
+                case "-snapshot": snapshot = args[i + 1]; break;
+                case "-journal": journal = args[i + 1]; break;
+                default: throw new IllegalArgumentException( "Unknown option " + args[i] );
+            }
+        }
+        //keep many registration sessions' connections open between requests
+        if( System.getProperty( "sun.net.httpserver.maxIdleConnections" ) == null ) {
+            System.setProperty( "sun.net.httpserver.maxIdleConnections", "65536" );
+        }
+        ConcurrentAllocationManager manager;
+        if( journal != null ) {
+            manager = new ConcurrentAllocationManager( UniversityAllocationManager.recover(
+                snapshot != null ? snapshot : journal + ".snapshot", journal, 5, 1024 ) );
+        }
+        else {
+            manager = new ConcurrentAllocationManager();
+        }
+        AllocationHttpServer server = new AllocationHttpServer( manager, new InetSocketAddress( InetAddress.getLoopbackAddress(), port ),
+                                                                maxRequests );
+        server.start();
+        System.out.println( "Serving on http://localhost:" + server.getPort() + "/" );
+    }
+}
@@ -0,0 +1,95 @@
+package university;
+
+import java.io.Serializable;
+
+/**
+ * Outcome of allocating students to modules from their ranked preferences
+ * with {@link UniversityAllocationManager#allocate}. Each row pairs a
+ * student with a module they were allocated, in the order the students
+ * were given and then in order of preference, with the
+ * {@link EnrolmentStatus} code the enrolment was committed with.
+ */
+public class AllocationReport implements Serializable
+{
+    private final String[] studentIDs;
+    private final String[] moduleCodes;
+    private final byte[] statuses;
+    private final int rounds;
+    private int enrolled;
+
+    /**
+     * Constructor for AllocationReport
+     *
+     * @param studentIDs student of each row allocated
+     * @param moduleCodes module of each row allocated
+     * @param statuses EnrolmentStatus code each row was committed with
+     * @param rounds number of rounds of proposals made
+     */
+    AllocationReport( String[] studentIDs, String[] moduleCodes, byte[] statuses, int rounds ) {
+        this.studentIDs = studentIDs;
+        this.moduleCodes = moduleCodes;
+        this.statuses = statuses;
+        this.rounds = rounds;
+        for( byte status : statuses ) {
+            if( status == EnrolmentStatus.ENROLLED ) {
+                enrolled++;
+            }
+        }
+    }
+
+    /**
+     * Returns the student of each row allocated
+     *
+     * @return IDs of the students, one per row
+     */
+    public String[] getStudentIDs() {
+        return studentIDs.clone();
+    }
+
+    /**
+     * Returns the module of each row allocated
+     *
+     * @return codes of the modules, one per row
+     */
+    public String[] getModuleCodes() {
+        return moduleCodes.clone();
+    }
+
+    /**
+     * Returns the EnrolmentStatus code each row was committed with, which
+     * is ENROLLED unless the manager changed while the allocation was made
+     *
+     * @return status codes, one per row
+     */
+    public byte[] getStatuses() {
+        return statuses.clone();
+    }
+
+    /**
+     * Returns the number of enrolments made
+     *
+     * @return number of rows committed as ENROLLED
+     */
+    public int getEnrolled() {
+        return enrolled;
+    }
+
+    /**
+     * Returns the number of rounds of proposals made before no module had
+     * more students wanting it than seats
+     *
+     * @return number of rounds
+     */
+    public int getRounds() {
+        return rounds;
+    }
+
+    /**
+     * Returns a one line summary of the allocation
+     *
+     * @return summary of the counts
+     */
+    public String toString() {
+        return enrolled + " of " + statuses.length + " allocated enrolments made in " + rounds + " rounds";
+    }
+}
@@ -0,0 +1,162 @@
+package university;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Allocates IDs from a small, dense space, keeping one bit per ID to mark 
+ * whether it is in use. Each allocation starts at a random position and 
+ * takes the next free ID after it, so IDs still look random but are found 
+ * in a bounded number of steps however full the space becomes.
+ * <p>
+ * IDs which were in use are retired rather than released, so they are
+ * never handed out again, and a stale reference to a removed entity cannot
+ * find a new one. Only IDs which were handed out but never used, such as
+ * the spare IDs of a block, are released for reuse. The retired IDs are
+ * kept in the order they were retired, so a snapshot can save them.
+ */
+public class BitmapIDAllocator implements IDAllocator, Serializable
+{
+    private final long[] used;
+    private final int size;
+    private final Random random;
+    private int free;
+    private int[] retired;
+    private int retiredCount;
+    
+    /**
+     * Constructor for BitmapIDAllocator handing out IDs first to last
+     * inclusive
+     * 
+     * @param first lowest ID to hand out
+     * @param last highest ID to hand out
+     */
+    public BitmapIDAllocator( int first, int last ) {
+        size = last + 1;
+        used = new long[( size + 63 ) >>> 6];
+        random = new Random();
+        free = size - first;
+        retired = new int[16];
+        
+        //mark the bits outside the space as used so they are never found
+        for( int i = 0; i < first >>> 6; i++ ) {
+            used[i] = -1L;
+        }
+        used[first >>> 6] |= ~( -1L << first );
+        if( ( size & 63 ) != 0 ) {
+            used[used.length - 1] |= -1L << size;
+        }
+    }
+    
+    /**
+     * @inheritDoc
+     */
+    public long allocate() {
+        if( free == 0 ) {
+            throw new IllegalStateException( "All " + size + " IDs are in use." );
+        }
+        int id = nextFree( random.nextInt( size ) );
+        
+        mark( id );
+        return id;
+    }
+    
+    /**
+     * @inheritDoc
+     */
+    public long[] allocate( int count ) {
+        if( count > free ) {
+            throw new IllegalStateException( "Only " + free + " of " + size + " IDs are free, " + count + " requested." );
+        }
+        long[] ids = new long[count];
+        int id = random.nextInt( size );
+        
+        //take a run of free IDs from one random position
+        for( int i = 0; i < count; i++ ) {
+            id = nextFree( id );
+            mark( id );
+            ids[i] = id;
+        }
+        return ids;
+    }
+    
+    /**
+     * @inheritDoc
+     */
+    public boolean reserve( long id ) {
+        if( id < 0 || id >= size || isUsed( (int)id ) ) {
+            return false;
+        }
+        mark( (int)id );
+        return true;
+    }
+    
+    /**
+     * @inheritDoc
+     */
+    public void release( long id ) {
+        if( isUsed( (int)id ) ) {
+            used[(int)id >>> 6] &= ~( 1L << id );
+            free++;
+        }
+    }
+    
+    /**
+     * @inheritDoc
+     */
+    public void retire( long id ) {
+        if( !isUsed( (int)id ) ) {
+            mark( (int)id );
+        }
+        //a snapshot may hold on to the array, so it is only ever appended to or replaced
+        if( retiredCount == retired.length ) {
+            retired = Arrays.copyOf( retired, retiredCount * 2 );
+        }
+        retired[retiredCount++] = (int)id;
+    }
+    
+    /**
+     * Returns the array the retired IDs are kept in, which is only ever
+     * appended to, so its first getRetiredCount entries stay as they are.
+     * 
+     * @return retired IDs, in the order they were retired, followed by
+     *         unused entries
+     */
+    int[] getRetired() {
+        return retired;
+    }
+    
+    /**
+     * Returns the number of IDs retired
+     * 
+     * @return number of entries of getRetired in use
+     */
+    int getRetiredCount() {
+        return retiredCount;
+    }
+    
+    /*
+     * Finds the first free ID at or after start, wrapping round to 0. There 
+     * must be at least one free ID.
+     */
+    private int nextFree( int start ) {
+        int word = start >>> 6;
+        long bits = ~used[word] & ( -1L << start );
+        
+        while( bits == 0 ) {
+            word = ( word + 1 ) % used.length;
+            bits = ~used[word];
+        }
+        return ( word << 6 ) + Long.numberOfTrailingZeros( bits );
+    }
+    
+    private boolean isUsed( int id ) {
+        return ( used[id >>> 6] & ( 1L << id ) ) != 0;
+    }
+    
+    private void mark( int id ) {
+        used[id >>> 6] |= 1L << id;
+        free--;
+    }
+}
@@ -0,0 +1,354 @@
+package university;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Streams students, staff and modules from a CSV file into a 
+ * UniversityAllocationManager. Each row starts with its type:
+ * <pre>
+ * student,forename,surname,stage
+ * staff,forename,surname
+ * module,name,credits,stage,capacity,staff
+ * </pre>
+ * where the staff of a module are separated by semicolons, and are either 
+ * the ID of staff already in the system or <tt>@line</tt> referring to the 
+ * staff row on that line of the same file. Fields may be quoted, with 
+ * <tt>""</tt> standing for a quote inside them, and spaces around a field 
+ * are dropped unless they are inside the quotes. Blank lines, lines 
+ * starting with <tt>#</tt> and a header row whose first field is 
+ * <tt>type</tt> are skipped. The file is read as UTF-8, with or without a 
+ * byte order mark.
+ * <p>
+ * Rows are read one at a time, so memory use grows with the entities 
+ * added rather than the size of the file. Each entity is made findable by 
+ * ID as soon as its row is read, and the ordered indexes are built once 
+ * when the file is finished.
+ */
+class CSVImporter
+{
+    private static final int STUDENT_BLOCK = 1024;
+    private static final int STAFF_BLOCK = 64;
+    private static final int MODULE_BLOCK = 64;
+
+    private final UniversityAllocationManager manager;
+    private final ImportReport report;
+    private final ObjectArrayList students;
+    private final ObjectArrayList staff;
+    private final ObjectArrayList modules;
+    private final IntObjectHashMap staffByLine;
+
+    private String[] studentIDs;
+    private String[] staffIDs;
+    private String[] moduleCodes;
+    private int nextStudentID;
+    private int nextStaffID;
+    private int nextModuleCode;
+
+    /**
+     * Constructor for CSVImporter adding to the given manager
+     *
+     * @param manager manager to add the imported entities to
+     */
+    CSVImporter( UniversityAllocationManager manager ) {
+        this.manager = manager;
+        report = new ImportReport();
+        students = new ObjectArrayList();
+        staff = new ObjectArrayList();
+        modules = new ObjectArrayList();
+        staffByLine = new IntObjectHashMap();
+        studentIDs = new String[0];
+        staffIDs = new String[0];
+        moduleCodes = new String[0];
+    }
+
+    /**
+     * Imports every row of the file. If reading fails part way, the rows 
+     * read so far are still added before the exception is thrown.
+     *
+     * @param filename name (including location) of the CSV file
+     * @return report of the import
+     * @throws IOException if there is a problem experienced when reading the file
+     */
+    ImportReport importFile( String filename ) throws IOException {
+        BufferedReader reader = Files.newBufferedReader( Paths.get( filename ), StandardCharsets.UTF_8 );
+        try {
+            String line;
+            int lineNumber = 0;
+            while( ( line = reader.readLine() ) != null ) {
+                lineNumber++;
+                if( lineNumber == 1 && line.startsWith( "\uFEFF" ) ) {
+                    line = line.substring( 1 );
+                }
+                if( line.trim().isEmpty() || line.startsWith( "#" ) ) {
+                    continue;
+                }
+                String[] fields = split( line );
+                if( lineNumber == 1 && fields[0].trim().equalsIgnoreCase( "type" ) ) {
+                    continue;
+                }
+                importRow( fields, lineNumber );
+            }
+        }
+        finally {
+            reader.close();
+            finish();
+        }
+        return report;
+    }
+
+    /*
+     * Adds the entity described by one row, recording an error against the
+     * line if it cannot be added.
+     */
+    private void importRow( String[] fields, int line ) {
+        String type = fields[0].trim().toLowerCase();
+        try {
+            if( type.equals( "student" ) ) {
+                if( fields.length != 4 ) {
+                    report.error( line, "student rows need forename, surname and stage" );
+                    return;
+                }
+                UniversityStudent student = new UniversityStudent( fields[1], fields[2], parseByte( fields[3], "stage" ) );
+                student.setID( nextStudentID() );
+                manager.stageStudent( student );
+                students.add( student );
+                report.studentAdded();
+            }
+            else if( type.equals( "staff" ) ) {
+                if( fields.length != 3 ) {
+                    report.error( line, "staff rows need forename and surname" );
+                    return;
+                }
+                UniversityStaff member = new UniversityStaff( fields[1], fields[2] );
+                member.setID( nextStaffID() );
+                manager.stageStaff( member );
+                staff.add( member );
+                staffByLine.put( line, member );
+                report.staffAdded();
+            }
+            else if( type.equals( "module" ) ) {
+                if( fields.length != 6 ) {
+                    report.error( line, "module rows need name, credits, stage, capacity and staff" );
+                    return;
+                }
+                Staff[] teaching = resolveStaff( fields[5], line );
+                if( teaching == null ) {
+                    return;
+                }
+                byte credits = parseByte( fields[2], "credits" );
+                byte stage = parseByte( fields[3], "stage" );
+                int capacity = parseInt( fields[4], "capacity" );
+                UniversityModule module = manager.createModule( fields[1], credits, stage, capacity, teaching, nextModuleCode() );
+                nextModuleCode++;
+                manager.stageModule( module );
+                modules.add( module );
+                report.moduleAdded();
+            }
+            else {
+                report.error( line, "unknown row type '" + fields[0] + "'" );
+            }
+        }
+        catch( NumberFormatException | IllegalStateException e ) {
+            report.error( line, e.getMessage() );
+        }
+        catch( InvalidStageException | InvalidCreditsException | InvalidCapacityException 
+               | DuplicateStaffException | StaffNotInSystemException e ) {
+            report.error( line, e.getMessage() );
+        }
+        catch( IDAlreadySetException | InvalidIDException e ) {
+            //freshly built entities with generated IDs
+            e.printStackTrace();
+        }
+    }
+
+    /*
+     * Looks up the semicolon separated staff of a module row, returning null
+     * after recording an error if any cannot be found.
+     */
+    private Staff[] resolveStaff( String field, int line ) {
+        if( field.trim().isEmpty() ) {
+            return new Staff[0];
+        }
+        String[] references = field.split( ";" );
+        Staff[] teaching = new Staff[references.length];
+
+        for( int i = 0; i < references.length; i++ ) {
+            String reference = references[i].trim();
+            if( reference.startsWith( "@" ) ) {
+                try {
+                    teaching[i] = (Staff) staffByLine.get( Integer.parseInt( reference.substring( 1 ) ) );
+                }
+                catch( NumberFormatException e ) {
+                    teaching[i] = null;
+                }
+            }
+            else {
+                teaching[i] = manager.findStaff( reference );
+            }
+            if( teaching[i] == null ) {
+                report.error( line, "staff '" + reference + "' is not in the system" );
+                return null;
+            }
+        }
+        return teaching;
+    }
+
+    /*
+     * Returns the next student ID, taking a new block when the last is used up.
+     */
+    private String nextStudentID() {
+        if( nextStudentID == studentIDs.length ) {
+            studentIDs = takeBlock( STUDENT_BLOCK, 0 );
+            nextStudentID = 0;
+        }
+        return studentIDs[nextStudentID++];
+    }
+
+    /*
+     * Returns the next staff ID, taking a new block when the last is used up.
+     */
+    private String nextStaffID() {
+        if( nextStaffID == staffIDs.length ) {
+            staffIDs = takeBlock( STAFF_BLOCK, 1 );
+            nextStaffID = 0;
+        }
+        return staffIDs[nextStaffID++];
+    }
+
+    /*
+     * Returns the next module code without using it up, as the module may
+     * still be rejected, taking a new block when the last is used up.
+     */
+    private String nextModuleCode() {
+        if( nextModuleCode == moduleCodes.length ) {
+            moduleCodes = takeBlock( MODULE_BLOCK, 2 );
+            nextModuleCode = 0;
+        }
+        return moduleCodes[nextModuleCode];
+    }
+
+    /*
+     * Takes a block of IDs of the given kind (0 students, 1 staff, 2 modules),
+     * falling back to a single ID when too few are left for a whole block.
+     */
+    private String[] takeBlock( int size, int kind ) {
+        try {
+            return generate( size, kind );
+        }
+        catch( IllegalStateException e ) {
+            return generate( 1, kind );
+        }
+    }
+
+    /*
+     * Takes exactly count IDs of the given kind.
+     */
+    private String[] generate( int count, int kind ) {
+        switch( kind ) {
+            case 0:
+                return manager.generateStudentIDs( count );
+            case 1:
+                return manager.generateStaffIDs( count );
+            default:
+                return manager.generateModuleCodes( count );
+        }
+    }
+
+    /*
+     * Returns the unused end of each ID block and builds the ordered indexes
+     * over everything staged.
+     */
+    private void finish() {
+        for( int i = nextStudentID; i < studentIDs.length; i++ ) {
+            manager.releaseStudentID( studentIDs[i] );
+        }
+        for( int i = nextStaffID; i < staffIDs.length; i++ ) {
+            manager.releaseStaffID( staffIDs[i] );
+        }
+        for( int i = nextModuleCode; i < moduleCodes.length; i++ ) {
+            manager.releaseModuleCode( moduleCodes[i] );
+        }
+        studentIDs = staffIDs = moduleCodes = new String[0];
+        nextStudentID = nextStaffID = nextModuleCode = 0;
+        manager.indexStaged( students, staff, modules );
+    }
+
+    private static byte parseByte( String field, String name ) {
+        try {
+            return Byte.parseByte( field.trim() );
+        }
+        catch( NumberFormatException e ) {
+            throw new NumberFormatException( name + " '" + field + "' is not a number from -128 to 127" );
+        }
+    }
+
+    private static int parseInt( String field, String name ) {
+        try {
+            return Integer.parseInt( field.trim() );
+        }
+        catch( NumberFormatException e ) {
+            throw new NumberFormatException( name + " '" + field + "' is not a whole number" );
+        }
+    }
+
+    /*
+     * Splits a line into its fields, removing the quotes around quoted fields
+     * and turning "" inside them into a single quote. Spaces outside the
+     * quotes at either end of a field are dropped.
+     */
+    static String[] split( String line ) {
+        ObjectArrayList fields = new ObjectArrayList();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        //length of the field up to the end of its last quoted part, which is never trimmed
+        int kept = 0;
+
+        for( int i = 0; i < line.length(); i++ ) {
+            char c = line.charAt( i );
+            if( quoted ) {
+                if( c == '"' && i + 1 < line.length() && line.charAt( i + 1 ) == '"' ) {
+                    field.append( '"' );
+                    i++;
+                }
+                else if( c == '"' ) {
+                    quoted = false;
+                    kept = field.length();
+                }
+                else {
+                    field.append( c );
+                }
+            }
+            else if( c == '"' ) {
+                quoted = true;
+            }
+            else if( c == ',' ) {
+                fields.add( trimEnd( field, kept ) );
+                field.setLength( 0 );
+                kept = 0;
+            }
+            else if( field.length() > 0 || !Character.isWhitespace( c ) ) {
+                field.append( c );
+            }
+        }
+        fields.add( trimEnd( field, kept ) );
+
+        Object[] contents = fields.contents();
+        String[] split = new String[contents.length];
+        for( int i = 0; i < contents.length; i++ ) {
+            split[i] = (String) contents[i];
+        }
+        return split;
+    }
+
+    private static String trimEnd( StringBuilder field, int kept ) {
+        int end = field.length();
+        while( end > kept && Character.isWhitespace( field.charAt( end - 1 ) ) ) {
+            end--;
+        }
+        return field.substring( 0, end );
+    }
+}
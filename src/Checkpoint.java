@@ -0,0 +1,150 @@
+package university;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A version of a UniversityAllocationManager being written to a snapshot
+ * file in the background, while the manager carries on changing.
+ * <p>
+ * The view is taken in O(1) time, and kept consistent while the manager
+ * changes, as described by {@link ManagerVersion}. The writer reads the
+ * view, and the version is retired once the file is written, so the
+ * manager stops preserving links for it.
+ */
+public class Checkpoint extends ManagerVersion
+{
+    private final long capturedAt;
+    private final boolean feistelStudentIDs;
+    private final long feistelKey;
+    private final long feistelCounter;
+    private final int[] retiredStaff;
+    private final int retiredStaffCount;
+    private final int[] retiredModules;
+    private final int retiredModuleCount;
+
+    private volatile boolean done;
+    private IOException failure;
+
+    /**
+     * Constructor for Checkpoint, taking the view of the manager's contents.
+     * Only the manager should call it, between its mutations.
+     *
+     * @param students index of students to freeze
+     * @param staff index of staff to freeze
+     * @param modules index of modules to freeze
+     * @param runningModules index of running modules to freeze
+     * @param availableModules index of available modules to freeze
+     * @param sequence journal sequence number of the contents
+     * @param fullyAllocatedStudents number of students with 120 credits
+     * @param modulesAtCapacity number of modules at capacity
+     * @param studentIDs allocator of student IDs
+     * @param staffIDs allocator of staff IDs
+     * @param moduleCodes allocator of module codes
+     */
+    Checkpoint( OrderedIndex students, OrderedIndex staff, OrderedIndex modules, OrderedIndex runningModules,
+                OrderedIndex availableModules, long sequence, int fullyAllocatedStudents, int modulesAtCapacity,
+                IDAllocator studentIDs, IDAllocator staffIDs, IDAllocator moduleCodes ) {
+        super( students, staff, modules, runningModules, availableModules, sequence, fullyAllocatedStudents, modulesAtCapacity );
+        feistelStudentIDs = studentIDs instanceof FeistelIDAllocator;
+        if( feistelStudentIDs ) {
+            feistelKey = ( (FeistelIDAllocator) studentIDs ).getKey();
+            feistelCounter = ( (FeistelIDAllocator) studentIDs ).getCounter();
+        }
+        else {
+            feistelKey = 0;
+            feistelCounter = 0;
+        }
+        //the arrays are only appended to, so holding them with their counts keeps the view in O(1)
+        if( staffIDs instanceof BitmapIDAllocator ) {
+            retiredStaff = ( (BitmapIDAllocator) staffIDs ).getRetired();
+            retiredStaffCount = ( (BitmapIDAllocator) staffIDs ).getRetiredCount();
+        }
+        else {
+            retiredStaff = new int[0];
+            retiredStaffCount = 0;
+        }
+        if( moduleCodes instanceof BitmapIDAllocator ) {
+            retiredModules = ( (BitmapIDAllocator) moduleCodes ).getRetired();
+            retiredModuleCount = ( (BitmapIDAllocator) moduleCodes ).getRetiredCount();
+        }
+        else {
+            retiredModules = new int[0];
+            retiredModuleCount = 0;
+        }
+        capturedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * Returns the time the view was taken
+     *
+     * @return time of the view in milliseconds since the epoch
+     */
+    public long getCapturedAt() {
+        return capturedAt;
+    }
+
+    /**
+     * Returns whether the snapshot has finished being written
+     *
+     * @return true once the write has succeeded or failed
+     */
+    public boolean isDone() {
+        return done;
+    }
+
+    /**
+     * Waits for the snapshot to finish being written.
+     *
+     * @throws IOException if the snapshot could not be written
+     */
+    public synchronized void await() throws IOException {
+        boolean interrupted = false;
+
+        while( !done ) {
+            try {
+                wait();
+            }
+            catch( InterruptedException e ) {
+                interrupted = true;
+            }
+        }
+        if( interrupted ) {
+            Thread.currentThread().interrupt();
+        }
+        if( failure != null ) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Records the outcome of writing the snapshot.
+     *
+     * @param failure exception the write failed with, or null
+     */
+    synchronized void finish( IOException failure ) {
+        this.failure = failure;
+        done = true;
+        notifyAll();
+    }
+
+    boolean hasFeistelStudentIDs() {
+        return feistelStudentIDs;
+    }
+
+    long getFeistelKey() {
+        return feistelKey;
+    }
+
+    long getFeistelCounter() {
+        return feistelCounter;
+    }
+
+    int[] getRetiredStaffIDs() {
+        return Arrays.copyOf( retiredStaff, retiredStaffCount );
+    }
+
+    int[] getRetiredModuleCodes() {
+        return Arrays.copyOf( retiredModules, retiredModuleCount );
+    }
+}
@@ -0,0 +1,758 @@
+package university;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A thread-safe AllocationManager, wrapping a UniversityAllocationManager so
+ * that enrolments on different modules by different students run in parallel.
+ * <p>
+ * Two levels of lock are used. A read-write lock guards the set of entities:
+ * adding, removing or discontinuing, loading, importing and starting a
+ * checkpoint take it exclusively, while enrolling, unenrolling and reading
+ * share it. Under the shared lock, students are guarded by a fixed array of
+ * striped locks, chosen by hashing the student ID, which serialises the
+ * credit and stage checks of an enrolment against other enrolments of the
+ * same student. Modules are not locked: a seat is claimed with a
+ * compare-and-set on the module's count of students enrolled, after the
+ * student's checks have passed, and the student is then added to the roster
+ * under the module's monitor only for the time it takes to append. So
+ * enrolments on a popular module scale with the number of cores rather than
+ * queueing behind each other. Seats freed on a module with a waitlist are
+ * offered to the students waiting in the same way, under the shared lock,
+ * locking each promoted student's stripe in turn.
+ * <p>
+ * The counts of fully allocated students and modules at capacity are atomic
+ * in the wrapped manager, and its running and available module indexes are
+ * kept under a mutex of their own, as enrolments on different modules may
+ * change them at once. If the wrapped manager is journalled, each call waits
+ * for its journal record to reach disk only after releasing its locks, so
+ * concurrent callers share the journal's group commits.
+ */
+public class ConcurrentAllocationManager implements AllocationManager
+{
+    private static final int STRIPES = 1024;
+
+    private final UniversityAllocationManager manager;
+    private final ReentrantReadWriteLock lock;
+    private final ReentrantLock[] stripes;
+
+    /**
+     * Constructor for ConcurrentAllocationManager, wrapping a new, empty
+     * manager.
+     */
+    public ConcurrentAllocationManager() {
+        this( new UniversityAllocationManager() );
+    }
+
+    /**
+     * Constructor for ConcurrentAllocationManager, wrapping an existing
+     * manager, such as one returned by {@link UniversityAllocationManager#recover}.
+     * The manager must not be used directly from then on.
+     *
+     * @param manager manager to wrap
+     */
+    public ConcurrentAllocationManager( UniversityAllocationManager manager ) {
+        this.manager = manager;
+        lock = new ReentrantReadWriteLock();
+        stripes = new ReentrantLock[STRIPES];
+        for( int i = 0; i < STRIPES; i++ ) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    /*
+     * Spreads student IDs over the stripes.
+     */
+    private ReentrantLock stripe( long studentKey ) {
+        return stripes[stripeIndex( studentKey )];
+    }
+
+    private static int stripeIndex( long studentKey ) {
+        return (int) ( ( studentKey * 0x9E3779B97F4A7C15L ) >>> 54 );
+    }
+
+    /**
+     * Returns the number of the last journalled mutation, 0 if the wrapped
+     * manager is not journalled
+     *
+     * @return journal sequence number of the contents
+     */
+    public long getSequence() {
+        lock.readLock().lock();
+        try {
+            return manager.getSequence();
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the journal mutations are recorded in, so it can be closed
+     *
+     * @return the journal, or null if mutations are not being journalled
+     */
+    public MutationJournal getJournal() {
+        return manager.getJournal();
+    }
+
+    public String addStudent( String forename, String surname, byte stage ) throws InvalidStageException {
+        lock.writeLock().lock();
+        try {
+            return manager.addStudent( forename, surname, stage );
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void addStudent( Student student ) throws IDAlreadySetException {
+        lock.writeLock().lock();
+        try {
+            manager.addStudent( student );
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public String addModule( String name, byte credits, byte stage, int capacity, Staff[] staff )
+    throws InvalidStageException, InvalidCreditsException, InvalidCapacityException,
+    DuplicateStaffException, StaffNotInSystemException {
+        lock.writeLock().lock();
+        try {
+            return manager.addModule( name, credits, stage, capacity, staff );
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void addModule( Module module ) throws IDAlreadySetException {
+        lock.writeLock().lock();
+        try {
+            manager.addModule( module );
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public String addStaff( String forename, String surname ) {
+        lock.writeLock().lock();
+        try {
+            return manager.addStaff( forename, surname );
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void addStaff( Staff staff ) throws IDAlreadySetException {
+        lock.writeLock().lock();
+        try {
+            manager.addStaff( staff );
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void discontinue( String moduleCode ) throws InvalidIDException, IDNotRecognisedException {
+        lock.writeLock().lock();
+        try {
+            manager.discontinue( moduleCode );
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Discontinues a module and moves its students onto alternatives as
+     * {@link UniversityAllocationManager#discontinueAndReplace} does,
+     * holding up every other caller until the moves are committed.
+     *
+     * @param moduleCode module code of the module to discontinue
+     * @return report of the module each displaced student was moved to
+     * @throws InvalidIDException if the module code is not valid
+     * @throws IDNotRecognisedException if the module is not on the system
+     */
+    public ReplacementReport discontinueAndReplace( String moduleCode ) throws InvalidIDException, IDNotRecognisedException {
+        lock.writeLock().lock();
+        try {
+            return manager.discontinueAndReplace( moduleCode );
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void enrol( String studentID, String moduleCode ) throws InvalidIDException,
+    IDNotRecognisedException, ModuleAtCapacityException,
+    InsufficientAvailableCreditsException, ModuleDiscontinuedException,
+    ModuleStageTooHighException, EnrollingWouldPreventHonoursException {
+        UniversityAllocationManager.throwFor( tryEnrol( studentID, moduleCode ), studentID, moduleCode );
+    }
+
+    /**
+     * Enrols a student on a module as {@link UniversityAllocationManager#tryEnrol}
+     * does, locking only the student.
+     *
+     * @param studentID ID of student to be enrolled
+     * @param moduleCode module code of module the student is to be enrolled on
+     * @return the EnrolmentStatus code of the outcome
+     */
+    public byte tryEnrol( String studentID, String moduleCode ) {
+        byte status = enrolRow( studentID, moduleCode );
+        manager.commit();
+        return status;
+    }
+
+    /**
+     * Enrols a batch of students on modules as
+     * {@link UniversityAllocationManager#enrolAll} does. The rows for each
+     * module are enrolled together, under the stripes of all their students,
+     * locked in order of stripe so two batches cannot deadlock. Rows of
+     * other callers may be applied between modules, and the journal is
+     * committed once for the whole batch.
+     *
+     * @param studentIDs IDs of students to be enrolled
+     * @param moduleCodes codes of the modules to enrol each student on
+     * @return the EnrolmentStatus code of each row
+     */
+    public byte[] enrolAll( String[] studentIDs, String[] moduleCodes ) {
+        byte[] results = new byte[studentIDs.length];
+        long[] studentKeys = new long[studentIDs.length];
+        long[] rows = UniversityAllocationManager.groupByModule( studentIDs, moduleCodes, studentKeys, results );
+        boolean[] held = new boolean[STRIPES];
+        int[] order = new int[STRIPES];
+
+        for( int from = 0, to; from < rows.length; from = to ) {
+            to = UniversityAllocationManager.endOfGroup( rows, from );
+            int count = 0;
+            for( int i = from; i < to; i++ ) {
+                int index = stripeIndex( studentKeys[(int) rows[i]] );
+                if( !held[index] ) {
+                    held[index] = true;
+                    order[count++] = index;
+                }
+            }
+            Arrays.sort( order, 0, count );
+
+            lock.readLock().lock();
+            try {
+                int locked = 0;
+                try {
+                    for( ; locked < count; locked++ ) {
+                        stripes[order[locked]].lock();
+                    }
+                    manager.enrolGroup( rows, from, to, studentKeys, results );
+                }
+                finally {
+                    while( locked > 0 ) {
+                        stripes[order[--locked]].unlock();
+                    }
+                }
+            }
+            finally {
+                lock.readLock().unlock();
+            }
+            for( int i = 0; i < count; i++ ) {
+                held[order[i]] = false;
+            }
+        }
+        manager.commit();
+        return results;
+    }
+
+    private byte enrolRow( String studentID, String moduleCode ) {
+        long studentKey = UniversityStudent.parseID( studentID );
+        int moduleKey = UniversityModule.parseCode( moduleCode );
+
+        if( studentKey < 0 || moduleKey < 0 ) {
+            return EnrolmentStatus.INVALID_ID;
+        }
+        ReentrantLock stripe = stripe( studentKey );
+
+        lock.readLock().lock();
+        try {
+            stripe.lock();
+            try {
+                return manager.enrolRow( studentID, moduleCode );
+            }
+            finally {
+                stripe.unlock();
+            }
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public boolean unEnrol( String studentID, String moduleCode ) throws InvalidIDException, IDNotRecognisedException {
+        return UniversityAllocationManager.unEnrolled( tryUnEnrol( studentID, moduleCode ), studentID, moduleCode );
+    }
+
+    /**
+     * Unenrols a student from a module as
+     * {@link UniversityAllocationManager#tryUnEnrol} does, locking only the
+     * student.
+     *
+     * @param studentID ID of student to be unenrolled
+     * @param moduleCode module code of module the student is to be unenrolled from
+     * @return the EnrolmentStatus code of the outcome
+     */
+    public byte tryUnEnrol( String studentID, String moduleCode ) {
+        long studentKey = UniversityStudent.parseID( studentID );
+        int moduleKey = UniversityModule.parseCode( moduleCode );
+
+        if( studentKey < 0 || moduleKey < 0 ) {
+            return EnrolmentStatus.INVALID_ID;
+        }
+        ReentrantLock stripe = stripe( studentKey );
+        byte status;
+
+        lock.readLock().lock();
+        try {
+            stripe.lock();
+            try {
+                status = manager.unEnrolRow( studentID, moduleCode );
+            }
+            finally {
+                stripe.unlock();
+            }
+            if( status == EnrolmentStatus.UNENROLLED ) {
+                promote( moduleCode );
+            }
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+        manager.commit();
+        return status;
+    }
+
+    /**
+     * Enrols a student on a module, or puts them on its waitlist if it is at
+     * capacity, as {@link UniversityAllocationManager#enrolOrWaitlist} does,
+     * locking only the student.
+     *
+     * @param studentID ID of student to be enrolled
+     * @param moduleCode module code of module the student is to be enrolled on
+     * @return true if the student was enrolled, false if they were put on the waitlist
+     */
+    public boolean enrolOrWaitlist( String studentID, String moduleCode ) throws InvalidIDException,
+    IDNotRecognisedException, InsufficientAvailableCreditsException, ModuleDiscontinuedException,
+    ModuleStageTooHighException, EnrollingWouldPreventHonoursException {
+        long studentKey = UniversityStudent.parseID( studentID );
+        byte status = EnrolmentStatus.INVALID_ID;
+
+        if( studentKey >= 0 && UniversityModule.parseCode( moduleCode ) >= 0 ) {
+            ReentrantLock stripe = stripe( studentKey );
+
+            lock.readLock().lock();
+            try {
+                stripe.lock();
+                try {
+                    status = manager.enrolOrWaitlistRow( studentID, moduleCode );
+                }
+                finally {
+                    stripe.unlock();
+                }
+                if( status == EnrolmentStatus.WAITLISTED ) {
+                    //a seat may have been freed after the claim failed but before the student joined
+                    promote( moduleCode );
+                }
+            }
+            finally {
+                lock.readLock().unlock();
+            }
+        }
+        manager.commit();
+        return UniversityAllocationManager.waitlisted( status, studentID, moduleCode );
+    }
+
+    /**
+     * Returns the students waiting for a seat on a module, as
+     * {@link UniversityAllocationManager#getWaitlist} does.
+     *
+     * @param moduleCode module code of module
+     * @return students on the module's waitlist
+     * @throws InvalidIDException if the module code is not valid
+     * @throws IDNotRecognisedException if the module is not on the system
+     */
+    public Student[] getWaitlist( String moduleCode ) throws InvalidIDException, IDNotRecognisedException {
+        lock.readLock().lock();
+        try {
+            return manager.getWaitlist( moduleCode );
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /*
+     * Offers free seats on a module to its waitlist, under the shared lock
+     * and holding no stripe. Promoting changes a student other than the
+     * caller's, so each student at the front is locked by their own stripe
+     * while they are offered a seat. Returns at once unless the module has
+     * both a free seat and students waiting.
+     */
+    private void promote( String moduleCode ) {
+        UniversityModule module = manager.findModule( moduleCode );
+        UniversityStudent student;
+
+        while( module != null && !module.isAtCapacity() && ( student = module.peekWaitlist() ) != null ) {
+            ReentrantLock stripe = stripe( UniversityStudent.parseID( student.getID() ) );
+
+            stripe.lock();
+            try {
+                manager.promote( module, student );
+            }
+            finally {
+                stripe.unlock();
+            }
+        }
+    }
+
+    /**
+     * Adds the entries of a CSV file as
+     * {@link UniversityAllocationManager#importCSV} does, holding up every
+     * other caller until the import is done.
+     *
+     * @param filename name (including location) of the CSV file
+     * @return report of how many entries were added and of each row which failed
+     * @throws IOException if there is a problem experienced when reading the file
+     */
+    public ImportReport importCSV( String filename ) throws IOException {
+        lock.writeLock().lock();
+        try {
+            return manager.importCSV( filename );
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Allocates students to modules from their ranked preferences as
+     * {@link UniversityAllocationManager#allocate} does, holding up every
+     * other caller until the allocation is committed.
+     *
+     * @param studentIDs IDs of the students to allocate, each given once
+     * @param preferences codes of the modules each student wants, most wanted first
+     * @param threads number of threads to make the allocation with
+     * @param seed seed of the lottery
+     * @return report of the enrolments made
+     * @throws InvalidIDException if a student ID or module code is not valid
+     * @throws IDNotRecognisedException if a student or module is not on the system
+     */
+    public AllocationReport allocate( String[] studentIDs, String[][] preferences, int threads, long seed ) throws
+    InvalidIDException, IDNotRecognisedException {
+        lock.writeLock().lock();
+        try {
+            return manager.allocate( studentIDs, preferences, threads, seed );
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void loadAllocationManager( String filename ) throws IOException, ClassNotFoundException {
+        lock.writeLock().lock();
+        try {
+            manager.loadAllocationManager( filename );
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Writes a snapshot as {@link UniversityAllocationManager#saveAllocationManager}
+     * does. The view is taken under the exclusive lock, and the file is
+     * written while other callers carry on.
+     *
+     * @param filename name (including location) of the file to save to
+     * @throws IOException if the snapshot could not be written
+     */
+    public void saveAllocationManager( String filename ) throws IOException {
+        checkpoint( filename ).await();
+    }
+
+    /**
+     * Starts writing a snapshot in the background as
+     * {@link UniversityAllocationManager#checkpoint} does.
+     *
+     * @param filename name (including location) of the file to save to
+     * @return the checkpoint being written
+     */
+    public Checkpoint checkpoint( String filename ) {
+        lock.writeLock().lock();
+        try {
+            return manager.checkpoint( filename );
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Takes a read-only view of the contents as
+     * {@link UniversityAllocationManager#snapshot} does. Taking the view
+     * waits for the calls in progress, and takes O(1) time; reading it never
+     * holds up the manager, and needs no locks.
+     *
+     * @return the read-only view, to be closed once it has been read
+     */
+    public SnapshotAllocationManager snapshot() {
+        lock.writeLock().lock();
+        try {
+            return manager.snapshot();
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int getNumberOfStaff() {
+        lock.readLock().lock();
+        try {
+            return manager.getNumberOfStaff();
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int getNumberOfStudents() {
+        lock.readLock().lock();
+        try {
+            return manager.getNumberOfStudents();
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int getNumberOfModules() {
+        lock.readLock().lock();
+        try {
+            return manager.getNumberOfModules();
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public Staff[] getStaff() {
+        lock.readLock().lock();
+        try {
+            return manager.getStaff();
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public Staff[] getStaff( String moduleCode ) throws InvalidIDException, IDNotRecognisedException {
+        lock.readLock().lock();
+        try {
+            return manager.getStaff( moduleCode );
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public Student[] getStudents() {
+        lock.readLock().lock();
+        try {
+            return manager.getStudents();
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public Student[] getStudents( String moduleCode ) throws InvalidIDException, IDNotRecognisedException {
+        lock.readLock().lock();
+        try {
+            return manager.getStudents( moduleCode );
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns a page of the students on the system, as
+     * {@link UniversityAllocationManager#getStudents(String, int)} does.
+     * The lock is held only while the page is read, so students added or
+     * removed between pages do not hold up the listing.
+     *
+     * @param after ID of the last student of the previous page, or null for the first page
+     * @param pageSize the most students to return
+     * @return up to pageSize students with IDs after the cursor
+     */
+    public Student[] getStudents( String after, int pageSize ) {
+        lock.readLock().lock();
+        try {
+            return manager.getStudents( after, pageSize );
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns a page of the students enrolled on a module, as
+     * {@link UniversityAllocationManager#getStudents(String, String, int)} does.
+     *
+     * @param moduleCode code of the module
+     * @param after ID of the last student of the previous page, or null for the first page
+     * @param pageSize the most students to return
+     * @return up to pageSize students on the module with IDs after the cursor
+     * @throws InvalidIDException if the module code is not valid
+     * @throws IDNotRecognisedException if the module is not on the system
+     */
+    public Student[] getStudents( String moduleCode, String after, int pageSize ) throws InvalidIDException, IDNotRecognisedException {
+        lock.readLock().lock();
+        try {
+            return manager.getStudents( moduleCode, after, pageSize );
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public Module[] getModules() {
+        lock.readLock().lock();
+        try {
+            return manager.getModules();
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public Module[] getRunningModules() {
+        lock.readLock().lock();
+        try {
+            return manager.getRunningModules();
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public Module[] getAvailableModules() {
+        lock.readLock().lock();
+        try {
+            return manager.getAvailableModules();
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public Module[] getModules( String studentID ) throws InvalidIDException, IDNotRecognisedException {
+        long studentKey = UniversityStudent.parseID( studentID );
+
+        if( studentKey < 0 ) {
+            return manager.getModules( studentID );
+        }
+        ReentrantLock stripe = stripe( studentKey );
+
+        lock.readLock().lock();
+        try {
+            stripe.lock();
+            try {
+                return manager.getModules( studentID );
+            }
+            finally {
+                stripe.unlock();
+            }
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the modules a student could enrol on, as
+     * {@link UniversityAllocationManager#getEligibleModules} does. Other
+     * enrolments may fill or free a module as soon as the call returns.
+     *
+     * @param studentID ID of the student
+     * @return modules the student is eligible for
+     * @throws InvalidIDException if the student ID is not valid
+     * @throws IDNotRecognisedException if the student is not on the system
+     */
+    public Module[] getEligibleModules( String studentID ) throws InvalidIDException, IDNotRecognisedException {
+        long studentKey = UniversityStudent.parseID( studentID );
+
+        if( studentKey < 0 ) {
+            return manager.getEligibleModules( studentID );
+        }
+        ReentrantLock stripe = stripe( studentKey );
+
+        lock.readLock().lock();
+        try {
+            stripe.lock();
+            try {
+                return manager.getEligibleModules( studentID );
+            }
+            finally {
+                stripe.unlock();
+            }
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int getNumberOfFullyAllocatedStudents() {
+        lock.readLock().lock();
+        try {
+            return manager.getNumberOfFullyAllocatedStudents();
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int getNumberOfModulesAtCapacity() {
+        lock.readLock().lock();
+        try {
+            return manager.getNumberOfModulesAtCapacity();
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public Module[] remove( Staff staff ) throws InvalidIDException, IDNotRecognisedException, IDNotSetException {
+        lock.writeLock().lock();
+        try {
+            return manager.remove( staff );
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove( Student student ) throws InvalidIDException, IDNotRecognisedException, IDNotSetException {
+        lock.writeLock().lock();
+        try {
+            manager.remove( student );
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package university;
+
+
+/**
+ * Status codes reported in place of exceptions by the batch and result 
+ * code enrolment methods of {@link UniversityAllocationManager}. Each 
+ * failure code matches the exception the equivalent call to 
+ * {@link AllocationManager#enrol} or {@link AllocationManager#unEnrol} 
+ * would throw.
+ */
+public final class EnrolmentStatus
+{
+    /** The student was enrolled on the module */
+    public static final byte ENROLLED = 0;
+    
+    /** See {@link InvalidIDException} */
+    public static final byte INVALID_ID = 1;
+    
+    /** See {@link IDNotRecognisedException} */
+    public static final byte ID_NOT_RECOGNISED = 2;
+    
+    /** See {@link ModuleAtCapacityException} */
+    public static final byte MODULE_AT_CAPACITY = 3;
+    
+    /** See {@link InsufficientAvailableCreditsException} */
+    public static final byte INSUFFICIENT_AVAILABLE_CREDITS = 4;
+    
+    /** See {@link ModuleDiscontinuedException} */
+    public static final byte MODULE_DISCONTINUED = 5;
+    
+    /** See {@link ModuleStageTooHighException} */
+    public static final byte MODULE_STAGE_TOO_HIGH = 6;
+    
+    /** See {@link EnrollingWouldPreventHonoursException} */
+    public static final byte ENROLLING_WOULD_PREVENT_HONOURS = 7;
+    
+    /** The student was unenrolled from the module */
+    public static final byte UNENROLLED = 8;
+    
+    /** The student was not enrolled on the module, so could not be unenrolled */
+    public static final byte NOT_ENROLLED = 9;
+    
+    /** The module was at capacity, so the student was put on its waitlist */
+    public static final byte WAITLISTED = 10;
+    
+    private EnrolmentStatus() {
+    }
+}
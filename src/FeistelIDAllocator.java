@@ -0,0 +1,170 @@
+package university;
+
+import java.io.Serializable;
+import java.util.Random;
+
+/**
+ * Allocates IDs from a large square space (such as the 10^10 10-digit
+ * student IDs) by running a counter through a keyed Feistel permutation of
+ * the space. Consecutive counter values give unrelated looking IDs, but no
+ * ID can come up twice, so no collision checking or retrying is needed.
+ * Released IDs are not handed out again.
+ */
+public class FeistelIDAllocator implements IDAllocator, Serializable
+{
+    private static final int ROUNDS = 4;
+
+    private final long half;
+    private final long key;
+    private final long[] keys;
+    private long counter;
+
+    /**
+     * Constructor for FeistelIDAllocator handing out IDs 0 to
+     * half * half - 1 with a random key
+     *
+     * @param half square root of the number of IDs in the space
+     */
+    public FeistelIDAllocator( long half ) {
+        this( half, new Random().nextLong(), 0 );
+    }
+
+    /**
+     * Constructor for FeistelIDAllocator carrying on from a previous
+     * allocator with the same key
+     *
+     * @param half square root of the number of IDs in the space
+     * @param key key choosing the permutation of the space
+     * @param counter number of IDs already handed out under the key
+     */
+    public FeistelIDAllocator( long half, long key, long counter ) {
+        this.half = half;
+        this.counter = counter;
+        keys = new long[ROUNDS];
+
+        Random rounds = new Random( key );
+        for( int i = 0; i < ROUNDS; i++ ) {
+            keys[i] = rounds.nextLong();
+        }
+        this.key = key;
+    }
+
+    /**
+     * Returns the key choosing the permutation of the space
+     *
+     * @return key of this allocator
+     */
+    public long getKey() {
+        return key;
+    }
+
+    /**
+     * Returns the number of IDs handed out so far
+     *
+     * @return position of the counter
+     */
+    public long getCounter() {
+        return counter;
+    }
+
+    /**
+     * @inheritDoc
+     */
+    public long allocate() {
+        if( counter == half * half ) {
+            throw new IllegalStateException( "All " + half * half + " IDs have been handed out." );
+        }
+        return permute( counter++ );
+    }
+
+    /**
+     * @inheritDoc
+     */
+    public long[] allocate( int count ) {
+        if( count > half * half - counter ) {
+            throw new IllegalStateException( "Only " + ( half * half - counter ) + " IDs are left, " + count + " requested." );
+        }
+        long[] ids = new long[count];
+
+        for( int i = 0; i < count; i++ ) {
+            ids[i] = permute( counter++ );
+        }
+        return ids;
+    }
+
+    /**
+     * Marks the argument as in use. If it is the next ID this allocator
+     * would hand out the counter moves past it, so replaying IDs in the
+     * order they were handed out leaves the allocator as it was. Other IDs
+     * are not tracked, and must be checked for by the caller.
+     *
+     * @inheritDoc
+     */
+    public boolean reserve( long id ) {
+        long position = unpermute( id );
+
+        if( position < counter ) {
+            return false;
+        }
+        if( position == counter ) {
+            counter++;
+        }
+        return true;
+    }
+
+    /**
+     * @inheritDoc
+     */
+    public void release( long id ) {
+        //IDs are never handed out twice, so there is nothing to return
+    }
+
+    /**
+     * @inheritDoc
+     */
+    public void retire( long id ) {
+        //IDs are never handed out twice, so there is nothing to mark
+    }
+
+    /*
+     * Maps a counter value to its ID, splitting it into two halves and
+     * mixing each into the other in turn.
+     */
+    private long permute( long value ) {
+        long left = value / half;
+        long right = value % half;
+
+        for( int i = 0; i < ROUNDS; i++ ) {
+            long mixed = ( left + round( right, i ) ) % half;
+            left = right;
+            right = mixed;
+        }
+        return left * half + right;
+    }
+
+    /*
+     * Maps an ID back to the counter value it was handed out for.
+     */
+    private long unpermute( long id ) {
+        long left = id / half;
+        long right = id % half;
+
+        for( int i = ROUNDS - 1; i >= 0; i-- ) {
+            long mixed = Math.floorMod( right - round( left, i ), half );
+            right = left;
+            left = mixed;
+        }
+        return left * half + right;
+    }
+
+    /*
+     * Keyed round function, mixing the bits of value with the round key.
+     */
+    private long round( long value, int i ) {
+        long hash = ( value ^ keys[i] ) * 0x9E3779B97F4A7C15L;
+        hash ^= hash >>> 29;
+        hash *= 0xBF58476D1CE4E5B9L;
+        hash ^= hash >>> 32;
+        return Math.floorMod( hash, half );
+    }
+}
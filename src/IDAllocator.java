@@ -0,0 +1,54 @@
+package university;
+
+
+/**
+ * Hands out unique numeric IDs from a fixed space for an AllocationManager 
+ * to assign to students, staff or modules. An ID is not handed out again 
+ * unless it was released back to the allocator without being used.
+ */
+public interface IDAllocator
+{
+    /**
+     * Method takes a free ID out of the space and returns it
+     * 
+     * @return an ID which is not currently in use
+     * @throws IllegalStateException if every ID in the space is in use
+     */
+    long allocate();
+    
+    /**
+     * Method takes a block of free IDs out of the space at once, such as 
+     * for a bulk import
+     * 
+     * @param count number of IDs to take
+     * @return array of <tt>count</tt> IDs which are not currently in use
+     * @throws IllegalStateException if fewer than <tt>count</tt> IDs are free
+     */
+    long[] allocate(int count);
+    
+    /**
+     * Method marks the argument as in use, such as when an ID chosen 
+     * elsewhere is loaded into the AllocationManager
+     * 
+     * @param id ID to mark as in use
+     * @return <tt>true</tt> if the ID was free, <tt>false</tt> if this 
+     *         allocator had already handed it out
+     */
+    boolean reserve(long id);
+    
+    /**
+     * Method returns the argument to the space, so it may be handed out 
+     * again, for an ID which was handed out but never used
+     * 
+     * @param id ID handed out and not used
+     */
+    void release(long id);
+    
+    /**
+     * Method marks the argument as no longer in use, such as when the 
+     * entity holding it is removed, without handing it out again
+     * 
+     * @param id ID no longer in use
+     */
+    void retire(long id);
+}
@@ -0,0 +1,122 @@
+package university;
+
+import java.io.Serializable;
+
+/**
+ * Summary of a bulk import into an AllocationManager, counting the 
+ * students, staff and modules added and recording why each rejected 
+ * row could not be added. Only the first MAX_ERRORS messages are kept, 
+ * so a badly formed file cannot use up memory, but every error is counted.
+ */
+public class ImportReport implements Serializable
+{
+    public static final int MAX_ERRORS = 1000;
+
+    private int studentsAdded;
+    private int staffAdded;
+    private int modulesAdded;
+    private int errorCount;
+    private ObjectArrayList errors;
+
+    /**
+     * Constructor for ImportReport with nothing yet imported
+     */
+    public ImportReport() {
+        errors = new ObjectArrayList();
+    }
+
+    /**
+     * Records a student being added
+     */
+    void studentAdded() {
+        studentsAdded++;
+    }
+
+    /**
+     * Records a staff member being added
+     */
+    void staffAdded() {
+        staffAdded++;
+    }
+
+    /**
+     * Records a module being added
+     */
+    void moduleAdded() {
+        modulesAdded++;
+    }
+
+    /**
+     * Records a row which could not be added
+     *
+     * @param line line number of the row in the file, counting from 1
+     * @param message reason the row was rejected
+     */
+    void error( int line, String message ) {
+        if( errorCount < MAX_ERRORS ) {
+            errors.add( "line " + line + ": " + message );
+        }
+        errorCount++;
+    }
+
+    /**
+     * Returns the number of students added by the import
+     *
+     * @return number of students added
+     */
+    public int getStudentsAdded() {
+        return studentsAdded;
+    }
+
+    /**
+     * Returns the number of staff added by the import
+     *
+     * @return number of staff added
+     */
+    public int getStaffAdded() {
+        return staffAdded;
+    }
+
+    /**
+     * Returns the number of modules added by the import
+     *
+     * @return number of modules added
+     */
+    public int getModulesAdded() {
+        return modulesAdded;
+    }
+
+    /**
+     * Returns the number of rows which could not be added
+     *
+     * @return number of rejected rows
+     */
+    public int getErrorCount() {
+        return errorCount;
+    }
+
+    /**
+     * Returns the messages for the rejected rows, in file order, up to 
+     * MAX_ERRORS of them
+     *
+     * @return array of messages, each starting with the line number
+     */
+    public String[] getErrors() {
+        Object[] contents = errors.contents();
+        String[] messages = new String[contents.length];
+        for( int i = 0; i < contents.length; i++ ) {
+            messages[i] = (String) contents[i];
+        }
+        return messages;
+    }
+
+    /**
+     * Returns a one line summary of the import
+     *
+     * @return summary of the counts
+     */
+    public String toString() {
+        return studentsAdded + " students, " + staffAdded + " staff and " + modulesAdded 
+               + " modules added, " + errorCount + " rows rejected";
+    }
+}
@@ -0,0 +1,169 @@
+package university;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Stores {@link Object} items against non-negative <code>int</code> keys in
+ * an open addressing hash table, so items can be looked up in O(1) time
+ * without boxing the key. The table doubles in size when it becomes three
+ * quarters full. It should not be used to store null values.
+ */
+public class IntObjectHashMap implements Serializable
+{
+    private static final int EMPTY = -1;
+
+    private int[] keys;
+    private Object[] values;
+    private int mask;
+    private int size;
+
+    /**
+     * Creates initial instance of a IntObjectHashMap with no contents
+     */
+    public IntObjectHashMap() {
+        allocate( 16 );
+    }
+
+    /**
+     * Method returns the total number of items in the map
+     *
+     * @return number of items in the map
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Method returns the item stored against the key, or <code>null</code>
+     * if there is no such item or the key is negative
+     *
+     * @param key key of the item to be returned
+     * @return Object stored against the key
+     */
+    public Object get( int key ) {
+        if( key < 0 ) {
+            return null;
+        }
+        int slot = slot( key );
+
+        while( keys[slot] != EMPTY ) {
+            if( keys[slot] == key ) {
+                return values[slot];
+            }
+            slot = ( slot + 1 ) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * Method stores the item against the key, replacing and returning any
+     * item previously stored against it
+     *
+     * @param key non-negative key to store the item against
+     * @param value Object instance to be stored
+     * @return Object previously stored against the key, otherwise null
+     */
+    public Object put( int key, Object value ) {
+        int slot = slot( key );
+
+        while( keys[slot] != EMPTY ) {
+            if( keys[slot] == key ) {
+                Object previous = values[slot];
+                values[slot] = value;
+                return previous;
+            }
+            slot = ( slot + 1 ) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        size++;
+
+        if( size > ( keys.length >> 2 ) * 3 ) {
+            resize();
+        }
+        return null;
+    }
+
+    /**
+     * Method removes the item stored against the key and returns it. It will
+     * return <code>null</code> if no item is stored against the key
+     *
+     * @param key key of the item to be removed
+     * @return Object removed from the map
+     */
+    public Object remove( int key ) {
+        if( key < 0 ) {
+            return null;
+        }
+        int slot = slot( key );
+
+        while( keys[slot] != key ) {
+            if( keys[slot] == EMPTY ) {
+                return null;
+            }
+            slot = ( slot + 1 ) & mask;
+        }
+        Object removed = values[slot];
+        size--;
+
+        //shift later entries of the probe run back so none are cut off by the gap
+        int gap = slot;
+        slot = ( slot + 1 ) & mask;
+        while( keys[slot] != EMPTY ) {
+            int home = slot( keys[slot] );
+            if( ( ( slot - home ) & mask ) >= ( ( slot - gap ) & mask ) ) {
+                keys[gap] = keys[slot];
+                values[gap] = values[slot];
+                gap = slot;
+            }
+            slot = ( slot + 1 ) & mask;
+        }
+        keys[gap] = EMPTY;
+        values[gap] = null;
+        return removed;
+    }
+
+    /**
+     * Method removes all items from the map
+     */
+    public void clear() {
+        allocate( 16 );
+        size = 0;
+    }
+
+    /*
+     * Method doubles the capacity of the table, re-placing every entry
+     */
+    private void resize() {
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate( oldKeys.length * 2 );
+
+        for( int i = 0; i < oldKeys.length; i++ ) {
+            if( oldKeys[i] != EMPTY ) {
+                int slot = slot( oldKeys[i] );
+                while( keys[slot] != EMPTY ) {
+                    slot = ( slot + 1 ) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private void allocate( int capacity ) {
+        keys = new int[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+        Arrays.fill( keys, EMPTY );
+    }
+
+    /*
+     * Home slot of a key, mixing the bits so sequential keys spread out
+     */
+    private int slot( int key ) {
+        int hash = key * 0x9E3779B9;
+        return ( hash ^ ( hash >>> 16 ) ) & mask;
+    }
+}
@@ -0,0 +1,30 @@
+package university;
+
+/**
+ * A read-only view of a list held by the allocation manager or one of its
+ * entities, read in place rather than copied into a new array. Reading by
+ * position allocates nothing.
+ * <p>
+ * The view is live: it shows changes made to the list after it was taken,
+ * so the list must not be changed while the view is being read, by the
+ * reader or by another thread. Where the list may change, use the method
+ * returning an array, or read a {@link SnapshotAllocationManager}.
+ */
+public interface ListView<T> extends Iterable<T>
+{
+    /**
+     * Returns the number of items in the list
+     *
+     * @return number of items
+     */
+    int size();
+
+    /**
+     * Returns the item at a position in the list
+     *
+     * @param index position of the item, from 0
+     * @return the item at the position
+     * @throws IndexOutOfBoundsException if there is no item at the position
+     */
+    T get( int index );
+}
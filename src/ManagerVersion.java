@@ -0,0 +1,199 @@
+package university;
+
+import java.util.IdentityHashMap;
+
+/**
+ * The contents of a UniversityAllocationManager frozen at one point in time,
+ * readable while the manager carries on changing.
+ * <p>
+ * The version is taken in O(1) time: the student, staff and module indexes,
+ * and the indexes of running and available modules, are frozen with
+ * {@link OrderedIndex#snapshot}, and the links of each entity are preserved
+ * copy-on-write. Before the manager changes the links of an entity while a
+ * version is open, it passes the entity to preserve, which keeps the links
+ * as they were when the version was taken. Readers get the preserved links
+ * where there are any, and the live links otherwise. Links are copied
+ * outside the version's lock, which is only held to look up or publish a
+ * copy in O(1) time, so writers never wait for a reader copying a large
+ * roster. A reader's copy of live links is only used if no writer has
+ * preserved the entity by the time the copy is done, since a writer
+ * preserves an entity before changing it.
+ */
+class ManagerVersion
+{
+    private final OrderedIndex students;
+    private final OrderedIndex staff;
+    private final OrderedIndex modules;
+    private final OrderedIndex runningModules;
+    private final OrderedIndex availableModules;
+    private final long sequence;
+    private final int fullyAllocatedStudents;
+    private final int modulesAtCapacity;
+    private final IdentityHashMap<Object, Links> preserved;
+
+    private volatile boolean retired;
+
+    /*
+     * Links of an entity, as they were when the version was taken.
+     */
+    static class Links
+    {
+        final Student[] students;
+        final Module[] modules;
+        final Staff[] staff;
+        final boolean discontinued;
+
+        private Links( Student[] students, Module[] modules, Staff[] staff, boolean discontinued ) {
+            this.students = students;
+            this.modules = modules;
+            this.staff = staff;
+            this.discontinued = discontinued;
+        }
+    }
+
+    /**
+     * Constructor for ManagerVersion, taking the version of the manager's
+     * contents. Only the manager should call it, between its mutations.
+     *
+     * @param students index of students to freeze
+     * @param staff index of staff to freeze
+     * @param modules index of modules to freeze
+     * @param runningModules index of running modules to freeze
+     * @param availableModules index of available modules to freeze
+     * @param sequence journal sequence number of the contents
+     * @param fullyAllocatedStudents number of students with 120 credits
+     * @param modulesAtCapacity number of modules at capacity
+     */
+    ManagerVersion( OrderedIndex students, OrderedIndex staff, OrderedIndex modules, OrderedIndex runningModules,
+                    OrderedIndex availableModules, long sequence, int fullyAllocatedStudents, int modulesAtCapacity ) {
+        this.students = students.snapshot();
+        this.staff = staff.snapshot();
+        this.modules = modules.snapshot();
+        this.runningModules = runningModules.snapshot();
+        this.availableModules = availableModules.snapshot();
+        this.sequence = sequence;
+        this.fullyAllocatedStudents = fullyAllocatedStudents;
+        this.modulesAtCapacity = modulesAtCapacity;
+        preserved = new IdentityHashMap<Object, Links>();
+    }
+
+    /**
+     * Returns the sequence number of the last journalled mutation included
+     * in the version, 0 if the manager is not journalled
+     *
+     * @return journal sequence number of the version
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Stops preserving links for the version, once it is no longer read.
+     * The manager no longer passes it changes from then on.
+     */
+    void retire() {
+        retired = true;
+        synchronized( this ) {
+            preserved.clear();
+        }
+    }
+
+    /**
+     * Keeps the current links of an entity which is about to change, if
+     * they have not already been kept.
+     *
+     * @param entity student, staff or module about to change
+     */
+    void preserve( Object entity ) {
+        if( retired ) {
+            return;
+        }
+        synchronized( this ) {
+            if( preserved.containsKey( entity ) ) {
+                return;
+            }
+        }
+        //taken before this writer changes the entity; if another writer got in first, theirs
+        //was published before any change was made, so it is the one kept
+        Links links = capture( entity );
+        synchronized( this ) {
+            preserved.putIfAbsent( entity, links );
+        }
+    }
+
+    /**
+     * Returns the links of an entity as they were when the version was taken.
+     *
+     * @param entity student, staff or module in the version
+     * @return links of the entity in the version
+     */
+    Links links( Object entity ) {
+        synchronized( this ) {
+            Links links = preserved.get( entity );
+            if( links != null ) {
+                return links;
+            }
+        }
+        Links live = null;
+        RuntimeException failure = null;
+        try {
+            live = capture( entity );
+        }
+        catch( RuntimeException e ) {
+            //only a writer changing the entity mid-copy can break it, and that writer preserved it first
+            failure = e;
+        }
+        synchronized( this ) {
+            Links links = preserved.get( entity );
+            if( links != null ) {
+                return links;
+            }
+        }
+        if( failure != null ) {
+            throw failure;
+        }
+        return live;
+    }
+
+    /*
+     * Reads the live links of an entity.
+     */
+    private static Links capture( Object entity ) {
+        if( entity instanceof UniversityStudent ) {
+            return new Links( null, ( (UniversityStudent) entity ).getEnrolledModules(), null, false );
+        }
+        if( entity instanceof UniversityStaff ) {
+            return new Links( null, ( (UniversityStaff) entity ).getTeachingModules(), null, false );
+        }
+        UniversityModule module = (UniversityModule) entity;
+        return new Links( module.getStudents(), null, module.getTeachingStaff(), module.isDiscontinued() );
+    }
+
+    OrderedIndex getStudents() {
+        return students;
+    }
+
+    OrderedIndex getStaff() {
+        return staff;
+    }
+
+    OrderedIndex getModules() {
+        return modules;
+    }
+
+    OrderedIndex getRunningModules() {
+        return runningModules;
+    }
+
+    OrderedIndex getAvailableModules() {
+        return availableModules;
+    }
+
+    int getFullyAllocatedStudents() {
+        return fullyAllocatedStudents;
+    }
+
+    int getModulesAtCapacity() {
+        return modulesAtCapacity;
+    }
+}
@@ -0,0 +1,442 @@
+package university;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * AllocationManager which starts from a memory-mapped snapshot file rather
+ * than decoding it. Opening a snapshot only checks its header, so takes the
+ * same time whatever its size. The counts, and the students of a module,
+ * staff of a module and modules of a student, are then answered by binary
+ * search of the mapped records, decoding only the entries asked for.
+ * <p>
+ * Entities returned by these lookups are copies of the stored details, and
+ * do not carry their links. The first mutation, or the first read which
+ * lists every entry anyway, decodes the whole snapshot into a
+ * UniversityAllocationManager which serves every call from then on. The
+ * snapshot is decoded as a whole rather than one entity at a time because
+ * enrolments link students, modules and staff together, so a single change
+ * reaches entities across the whole graph.
+ */
+public class MappedAllocationManager implements AllocationManager
+{
+    private ByteBuffer snapshot;
+    private UniversityAllocationManager manager;
+    private int modulesAtCapacity;
+
+    /**
+     * Constructor for MappedAllocationManager with no students, staff or
+     * modules
+     */
+    public MappedAllocationManager() {
+        manager = new UniversityAllocationManager();
+    }
+
+    /**
+     * Constructor for MappedAllocationManager serving the snapshot file
+     * saved by an AllocationManager
+     *
+     * @param filename name (including location) of the snapshot
+     * @throws IOException if the file cannot be mapped or is not a snapshot
+     */
+    public MappedAllocationManager( String filename ) throws IOException {
+        map( filename );
+    }
+
+    /*
+     * Maps the snapshot, dropping any contents held before.
+     */
+    private void map( String filename ) throws IOException {
+        FileChannel channel = FileChannel.open( Paths.get( filename ), StandardOpenOption.READ );
+        MappedByteBuffer buffer;
+        try {
+            if( channel.size() > Integer.MAX_VALUE ) {
+                throw new IOException( "Snapshot " + filename + " is too large to map." );
+            }
+            buffer = channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size() );
+        }
+        finally {
+            channel.close();
+        }
+        SnapshotFile.checkHeader( buffer, filename );
+        snapshot = buffer;
+        manager = null;
+        modulesAtCapacity = -1;
+    }
+
+    /**
+     * Returns whether calls are still being answered from the mapped
+     * snapshot, rather than from a decoded manager
+     *
+     * @return true if nothing has required the snapshot to be decoded
+     */
+    public boolean isMapped() {
+        return manager == null;
+    }
+
+    /*
+     * Returns the manager serving every call, decoding the snapshot into it
+     * on first use.
+     */
+    private UniversityAllocationManager promote() {
+        if( manager == null ) {
+            try {
+                manager = SnapshotFile.decode( snapshot );
+            }
+            catch( IOException e ) {
+                throw new IllegalStateException( "Mapped snapshot could not be decoded.", e );
+            }
+            snapshot = null;
+        }
+        return manager;
+    }
+
+    /*
+     * Finds the record of the student, or -1.
+     */
+    private int findStudent( String studentID ) {
+        return SnapshotFile.findStudent( snapshot, UniversityStudent.parseID( studentID ) );
+    }
+
+    /*
+     * Finds the record of the staff member, or -1.
+     */
+    private int findStaff( int staffID ) {
+        return SnapshotFile.findRecord( snapshot, (int) SnapshotFile.staffStart( snapshot ), SnapshotFile.STAFF_RECORD,
+                                        snapshot.getInt( SnapshotFile.STAFF_COUNT ), staffID );
+    }
+
+    /*
+     * Finds the record of the module, or -1.
+     */
+    private int findModule( int moduleCode ) {
+        return SnapshotFile.findRecord( snapshot, (int) SnapshotFile.modulesStart( snapshot ), SnapshotFile.MODULE_RECORD,
+                                        snapshot.getInt( SnapshotFile.MODULE_COUNT ), moduleCode );
+    }
+
+    /*
+     * Finds the record of the module, throwing if the code is invalid or not held.
+     */
+    private int moduleRecord( String moduleCode ) throws InvalidIDException, IDNotRecognisedException {
+        UniversityModule.checkValidCode( moduleCode );
+        int record = findModule( UniversityModule.parseCode( moduleCode ) );
+
+        if( record < 0 ) {
+            throw new IDNotRecognisedException( "Module code: " + moduleCode + " not found in the system." );
+        }
+        return record;
+    }
+
+    private String string( int offset ) {
+        return SnapshotFile.getString( snapshot, (int) SnapshotFile.stringsStart( snapshot ), offset );
+    }
+
+    /*
+     * Decodes a copy of the student held in the record.
+     */
+    private Student readStudent( int record ) {
+        try {
+            return new UniversityStudent( string( snapshot.getInt( record + 8 ) ), string( snapshot.getInt( record + 12 ) ),
+                                          SnapshotFile.studentStage( snapshot, record ),
+                                          UniversityStudent.formatID( snapshot.getLong( record ) ) );
+        }
+        catch( InvalidStageException | InvalidIDException | IDAlreadySetException e ) {
+            throw new IllegalStateException( "Mapped snapshot holds an invalid student.", e );
+        }
+    }
+
+    /*
+     * Decodes a copy of the staff member held in the record.
+     */
+    private Staff readStaff( int record ) {
+        try {
+            return new UniversityStaff( string( snapshot.getInt( record + 4 ) ), string( snapshot.getInt( record + 8 ) ),
+                                        UniversityStaff.formatID( snapshot.getInt( record ) ) );
+        }
+        catch( InvalidIDException | IDAlreadySetException e ) {
+            throw new IllegalStateException( "Mapped snapshot holds an invalid staff member.", e );
+        }
+    }
+
+    /*
+     * Decodes a copy of the module held in the record.
+     */
+    private Module readModule( int record ) {
+        try {
+            UniversityModule module = new UniversityModule( string( snapshot.getInt( record + 4 ) ),
+                                                            SnapshotFile.moduleCredits( snapshot, record ),
+                                                            SnapshotFile.moduleStage( snapshot, record ), snapshot.getInt( record + 8 ),
+                                                            UniversityModule.formatCode( snapshot.getInt( record ) ) );
+            if( SnapshotFile.moduleDiscontinued( snapshot, record ) ) {
+                module.discontinue();
+            }
+            return module;
+        }
+        catch( InvalidStageException | InvalidCreditsException | InvalidIDException | IDAlreadySetException e ) {
+            throw new IllegalStateException( "Mapped snapshot holds an invalid module.", e );
+        }
+    }
+
+    /**
+     * @inheritDoc
+     */
+    public String addStudent(String forename, String surname, byte stage) throws InvalidStageException {
+        return promote().addStudent( forename, surname, stage );
+    }
+
+    /**
+     * @inheritDoc
+     */
+    public void addStudent(Student student) throws IDAlreadySetException {
+        promote().addStudent( student );
+    }
+
+    /**
+     * @inheritDoc
+     */
+    public String addModule(String name, byte credits, byte stage, int capacity, Staff[] staff)
+    throws InvalidStageException, InvalidCreditsException, InvalidCapacityException,
+    DuplicateStaffException, StaffNotInSystemException {
+        return promote().addModule( name, credits, stage, capacity, staff );
+    }
+
+    /**
+     * @inheritDoc
+     */
+    public void addModule(Module module) throws IDAlreadySetException {
+        promote().addModule( module );
+    }
+
+    /**
+     * @inheritDoc
+     */
+    public String addStaff(String forename, String surname) {
+        return promote().addStaff( forename, surname );
+    }
+
+    /**
+     * @inheritDoc
+     */
+    public void addStaff(Staff staff) throws IDAlreadySetException {
+        promote().addStaff( staff );
+    }
+
+    /**
+     * @inheritDoc
+     */
+    public void discontinue(String moduleCode) throws InvalidIDException, IDNotRecognisedException {
+        promote().discontinue( moduleCode );
+    }
+
+    /**
+     * @inheritDoc
+     */
+    public void enrol(String studentID, String moduleCode) throws InvalidIDException,
+    IDNotRecognisedException, ModuleAtCapacityException,
+    InsufficientAvailableCreditsException, ModuleDiscontinuedException,
+    ModuleStageTooHighException, EnrollingWouldPreventHonoursException {
+        promote().enrol( studentID, moduleCode );
+    }
+
+    /**
+     * Maps the snapshot in place of the current contents, so it is served
+     * without being decoded.
+     *
+     * @inheritDoc
+     */
+    public void loadAllocationManager(String filename) throws IOException, ClassNotFoundException {
+        map( filename );
+    }
+
+    /**
+     * @inheritDoc
+     */
+    public int getNumberOfStaff() {
+        if( manager != null ) {
+            return manager.getNumberOfStaff();
+        }
+        return snapshot.getInt( SnapshotFile.STAFF_COUNT );
+    }
+
+    /**
+     * @inheritDoc
+     */
+    public int getNumberOfStudents() {
+        if( manager != null ) {
+            return manager.getNumberOfStudents();
+        }
+        return snapshot.getInt( SnapshotFile.STUDENT_COUNT );
+    }
+
+    /**
+     * @inheritDoc
+     */
+    public int getNumberOfModules() {
+        if( manager != null ) {
+            return manager.getNumberOfModules();
+        }
+        return snapshot.getInt( SnapshotFile.MODULE_COUNT );
+    }
+
+    /**
+     * @inheritDoc
+     */
+    public Staff[] getStaff() {
+        return promote().getStaff();
+    }
+
+    /**
+     * @inheritDoc
+     */
+    public Staff[] getStaff(String moduleCode) throws InvalidIDException, IDNotRecognisedException {
+        if( manager != null ) {
+            return manager.getStaff( moduleCode );
+        }
+        int record = moduleRecord( moduleCode );
+        int links = (int) SnapshotFile.linksStart( snapshot ) + snapshot.getInt( record + 20 );
+        Staff[] staff = new Staff[SnapshotFile.moduleStaffCount( snapshot, record )];
+
+        for( int i = 0; i < staff.length; i++ ) {
+            staff[i] = readStaff( findStaff( snapshot.getInt( links + 4 * i ) ) );
+        }
+        return staff;
+    }
+
+    /**
+     * @inheritDoc
+     */
+    public Student[] getStudents() {
+        return promote().getStudents();
+    }
+
+    /**
+     * @inheritDoc
+     */
+    public Student[] getStudents(String moduleCode) throws InvalidIDException, IDNotRecognisedException {
+        if( manager != null ) {
+            return manager.getStudents( moduleCode );
+        }
+        int record = moduleRecord( moduleCode );
+        int links = (int) SnapshotFile.linksStart( snapshot ) + snapshot.getInt( record + 12 );
+        Student[] students = new Student[snapshot.getInt( record + 16 )];
+
+        for( int i = 0; i < students.length; i++ ) {
+            students[i] = readStudent( SnapshotFile.findStudent( snapshot, snapshot.getLong( links + 8 * i ) ) );
+        }
+        return students;
+    }
+
+    /**
+     * @inheritDoc
+     */
+    public Module[] getModules() {
+        return promote().getModules();
+    }
+
+    /**
+     * @inheritDoc
+     */
+    public Module[] getRunningModules() {
+        return promote().getRunningModules();
+    }
+
+    /**
+     * @inheritDoc
+     */
+    public Module[] getAvailableModules() {
+        return promote().getAvailableModules();
+    }
+
+    /**
+     * @inheritDoc
+     */
+    public Module[] getModules(String studentID) throws InvalidIDException, IDNotRecognisedException {
+        if( manager != null ) {
+            return manager.getModules( studentID );
+        }
+        UniversityStudent.checkValidID( studentID );
+        int record = findStudent( studentID );
+
+        if( record < 0 ) {
+            throw new IDNotRecognisedException( "Student ID: " + studentID + " not found in the system." );
+        }
+        int links = (int) SnapshotFile.linksStart( snapshot ) + snapshot.getInt( record + 16 );
+        Module[] modules = new Module[SnapshotFile.studentModuleCount( snapshot, record )];
+
+        for( int i = 0; i < modules.length; i++ ) {
+            modules[i] = readModule( findModule( snapshot.getInt( links + 4 * i ) ) );
+        }
+        return modules;
+    }
+
+    /**
+     * @inheritDoc
+     */
+    public int getNumberOfFullyAllocatedStudents() {
+        if( manager != null || snapshot.getShort( 4 ) < 2 ) {
+            //version 1 snapshots do not hold the count
+            return promote().getNumberOfFullyAllocatedStudents();
+        }
+        return snapshot.getInt( SnapshotFile.FULLY_ALLOCATED );
+    }
+
+    /**
+     * Read from the header while mapped. Snapshots before version 4 do not
+     * hold the count, so it is counted from the module records on the first
+     * call instead.
+     *
+     * @inheritDoc
+     */
+    public int getNumberOfModulesAtCapacity() {
+        if( manager != null ) {
+            return manager.getNumberOfModulesAtCapacity();
+        }
+        if( snapshot.getShort( 4 ) >= 4 ) {
+            return snapshot.getInt( SnapshotFile.MODULES_AT_CAPACITY );
+        }
+        if( modulesAtCapacity < 0 ) {
+            int start = (int) SnapshotFile.modulesStart( snapshot );
+            int count = 0;
+            for( int i = 0; i < snapshot.getInt( SnapshotFile.MODULE_COUNT ); i++ ) {
+                int record = start + i * SnapshotFile.MODULE_RECORD;
+                if( snapshot.getInt( record + 16 ) == snapshot.getInt( record + 8 ) ) {
+                    count++;
+                }
+            }
+            modulesAtCapacity = count;
+        }
+        return modulesAtCapacity;
+    }
+
+    /**
+     * @inheritDoc
+     */
+    public Module[] remove(Staff staff) throws InvalidIDException, IDNotRecognisedException, IDNotSetException {
+        return promote().remove( staff );
+    }
+
+    /**
+     * @inheritDoc
+     */
+    public void remove(Student student) throws InvalidIDException, IDNotRecognisedException, IDNotSetException {
+        promote().remove( student );
+    }
+
+    /**
+     * @inheritDoc
+     */
+    public void saveAllocationManager(String filename) throws IOException {
+        promote().saveAllocationManager( filename );
+    }
+
+    /**
+     * @inheritDoc
+     */
+    public boolean unEnrol(String studentID, String moduleCode) throws InvalidIDException, IDNotRecognisedException {
+        return promote().unEnrol( studentID, moduleCode );
+    }
+}
@@ -0,0 +1,635 @@
+package university;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of the mutations made to a UniversityAllocationManager,
+ * so the changes since the last snapshot can be replayed after a crash.
+ * <p>
+ * Each record is
+ * <pre>
+ * length | sequence | type | fields | CRC-32
+ * </pre>
+ * where length counts the sequence, type and fields, and the CRC covers
+ * them. A record cut short by a crash fails its length or CRC check, so
+ * reading stops at the last whole record and the file is cut back to it.
+ * <p>
+ * Records are added to a buffer in memory, and a flusher thread writes and
+ * forces the buffer to disk as one batch (group commit). A batch is written
+ * once it holds batchSize records, or once its oldest record has waited
+ * commitInterval milliseconds, so concurrent callers share the cost of each
+ * force. Callers wait in commit until their record is on disk. If a write
+ * fails, the journal stops, and every commit from then on throws.
+ * <p>
+ * Once a snapshot holding the records up to some sequence number is on
+ * disk, truncateThrough drops those records, so the journal only holds the
+ * mutations made since the last snapshot. The journal is read back in
+ * fixed-size chunks, so replay needs memory for one record at a time
+ * however long the journal has grown.
+ */
+public class MutationJournal implements Closeable
+{
+    static final byte ADD_STUDENT = 1;
+    static final byte ADD_STAFF = 2;
+    static final byte ADD_MODULE = 3;
+    static final byte ENROL = 4;
+    static final byte UNENROL = 5;
+    static final byte DISCONTINUE = 6;
+    static final byte REMOVE_STUDENT = 7;
+    static final byte REMOVE_STAFF = 8;
+    static final byte ENROL_ALL = 9;
+
+    //records are read back a chunk at a time, and no record may be larger than MAX_RECORD
+    private static final int CHUNK_SIZE = 1 << 16;
+    private static final int MAX_RECORD = 1 << 24;
+    //a batch of enrolments larger than this is split across records
+    private static final int MAX_BATCH_ROWS = 1 << 16;
+
+    private final Path path;
+    private final Object fileLock = new Object();
+    private FileChannel channel;
+    private final long commitInterval;
+    private final int batchSize;
+    private final Thread flusher;
+
+    private ByteBuffer pending;
+    private int pendingRecords;
+    private long firstPending;
+    private long sequence;
+    private long durable;
+    private IOException failure;
+    private boolean closed;
+
+    /**
+     * Constructor for MutationJournal appending to the given file, which is
+     * created if it does not exist. Any partly written record left at the
+     * end of the file by a crash is removed.
+     *
+     * @param filename name (including location) of the journal file
+     * @param commitInterval longest time in milliseconds a record waits for
+     *        others to join its batch
+     * @param batchSize number of records which are written as soon as they
+     *        are waiting
+     * @throws IOException if the file cannot be opened
+     */
+    public MutationJournal( String filename, long commitInterval, int batchSize ) throws IOException {
+        if( commitInterval < 0 || batchSize < 1 ) {
+            throw new IllegalArgumentException( "Commit interval must be at least 0 and batch size at least 1." );
+        }
+        this.commitInterval = commitInterval * 1000000;
+        this.batchSize = batchSize;
+        pending = ByteBuffer.allocate( 1 << 16 );
+
+        path = Paths.get( filename );
+        channel = FileChannel.open( path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE );
+        try {
+            long[] end = scan( channel, null, Long.MAX_VALUE );
+            channel.truncate( end[0] );
+            channel.position( end[0] );
+            sequence = end[1];
+            durable = end[1];
+        }
+        catch( IOException e ) {
+            channel.close();
+            throw e;
+        }
+
+        flusher = new Thread( this::flush, "journal-flusher" );
+        flusher.setDaemon( true );
+        flusher.start();
+    }
+
+    /**
+     * Returns the sequence number of the last record added
+     *
+     * @return last sequence number handed out
+     */
+    public synchronized long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Returns the sequence number of the last record forced to disk
+     *
+     * @return last durable sequence number
+     */
+    public synchronized long getDurableSequence() {
+        return durable;
+    }
+
+    /**
+     * Moves the sequence on, so numbering carries on from a snapshot which
+     * is ahead of this journal.
+     *
+     * @param sequence sequence number the next record must come after
+     */
+    synchronized void advanceTo( long sequence ) {
+        if( sequence > this.sequence ) {
+            this.sequence = sequence;
+            if( pendingRecords == 0 ) {
+                durable = sequence;
+            }
+        }
+    }
+
+    long addStudent( long id, byte stage, String forename, String surname ) {
+        synchronized( this ) {
+            int start = begin( ADD_STUDENT );
+            pending.putLong( id );
+            pending.put( stage );
+            putString( forename );
+            putString( surname );
+            return end( start );
+        }
+    }
+
+    long addStaff( int id, String forename, String surname ) {
+        synchronized( this ) {
+            int start = begin( ADD_STAFF );
+            pending.putInt( id );
+            putString( forename );
+            putString( surname );
+            return end( start );
+        }
+    }
+
+    long addModule( int code, String name, byte credits, byte stage, int capacity, ListView<Staff> staff ) {
+        synchronized( this ) {
+            int start = begin( ADD_MODULE );
+            pending.putInt( code );
+            pending.put( credits );
+            pending.put( stage );
+            pending.putInt( capacity );
+            putString( name );
+            room( 4 + 4 * staff.size() );
+            pending.putInt( staff.size() );
+            for( Staff member : staff ) {
+                pending.putInt( UniversityStaff.parseID( member.getID() ) );
+            }
+            return end( start );
+        }
+    }
+
+    long enrol( long student, int module ) {
+        return link( ENROL, student, module );
+    }
+
+    /*
+     * Records the enrolment of each of the first count students on the
+     * module, in order, returning the sequence number of the last record.
+     */
+    long enrolAll( int module, long[] students, int count ) {
+        synchronized( this ) {
+            long last = sequence;
+            for( int from = 0; from < count; from += MAX_BATCH_ROWS ) {
+                int rows = Math.min( MAX_BATCH_ROWS, count - from );
+                int start = begin( ENROL_ALL );
+                room( 8 + 8 * rows );
+                pending.putInt( module );
+                pending.putInt( rows );
+                for( int i = from; i < from + rows; i++ ) {
+                    pending.putLong( students[i] );
+                }
+                last = end( start );
+            }
+            return last;
+        }
+    }
+
+    long unEnrol( long student, int module ) {
+        return link( UNENROL, student, module );
+    }
+
+    long discontinue( int module ) {
+        synchronized( this ) {
+            int start = begin( DISCONTINUE );
+            pending.putInt( module );
+            return end( start );
+        }
+    }
+
+    long removeStudent( long id ) {
+        synchronized( this ) {
+            int start = begin( REMOVE_STUDENT );
+            pending.putLong( id );
+            return end( start );
+        }
+    }
+
+    long removeStaff( int id ) {
+        synchronized( this ) {
+            int start = begin( REMOVE_STAFF );
+            pending.putInt( id );
+            return end( start );
+        }
+    }
+
+    private synchronized long link( byte type, long student, int module ) {
+        int start = begin( type );
+        pending.putLong( student );
+        pending.putInt( module );
+        return end( start );
+    }
+
+    /*
+     * Starts a record, leaving room for its length to be filled in by end.
+     */
+    private int begin( byte type ) {
+        if( failure != null || closed ) {
+            throw new IllegalStateException( "The journal is " + ( closed ? "closed." : "stopped after a failed write." ), failure );
+        }
+        room( 64 );
+        int start = pending.position();
+        pending.putInt( 0 );
+        pending.putLong( sequence + 1 );
+        pending.put( type );
+        return start;
+    }
+
+    /*
+     * Fills in the length and CRC of the record begun at start, and wakes the
+     * flusher if it has a batch to time or to write.
+     */
+    private long end( int start ) {
+        room( 4 );
+        int length = pending.position() - start - 4;
+        if( length > MAX_RECORD ) {
+            pending.position( start );
+            throw new IllegalArgumentException( "Journal record of " + length + " bytes is too large to write." );
+        }
+        CRC32 crc = new CRC32();
+        crc.update( pending.array(), start + 4, length );
+        pending.putInt( start, length );
+        pending.putInt( (int) crc.getValue() );
+
+        sequence++;
+        pendingRecords++;
+        if( pendingRecords == 1 ) {
+            firstPending = System.nanoTime();
+            notifyAll();
+        }
+        else if( pendingRecords >= batchSize ) {
+            notifyAll();
+        }
+        return sequence;
+    }
+
+    private void putString( String value ) {
+        byte[] bytes = value.getBytes( StandardCharsets.UTF_8 );
+        room( 4 + bytes.length );
+        pending.putInt( bytes.length );
+        pending.put( bytes );
+    }
+
+    /*
+     * Grows the pending buffer if it has less than the given room left.
+     */
+    private void room( int bytes ) {
+        if( pending.remaining() < bytes ) {
+            ByteBuffer larger = ByteBuffer.allocate( Math.max( pending.capacity() * 2, pending.position() + bytes ) );
+            pending.flip();
+            larger.put( pending );
+            pending = larger;
+        }
+    }
+
+    /**
+     * Waits until the record with the given sequence number, and every
+     * record before it, is on disk.
+     *
+     * @param sequence sequence number returned when the record was added
+     * @throws IllegalStateException if the journal failed to write the record
+     */
+    public synchronized void commit( long sequence ) {
+        boolean interrupted = false;
+
+        while( durable < sequence ) {
+            if( failure != null || ( closed && !flusher.isAlive() ) ) {
+                throw new IllegalStateException( "Journal record " + sequence + " could not be written.", failure );
+            }
+            try {
+                wait();
+            }
+            catch( InterruptedException e ) {
+                interrupted = true;
+            }
+        }
+        if( interrupted ) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /*
+     * Body of the flusher thread, writing out each batch once it is full or
+     * has waited long enough.
+     */
+    private void flush() {
+        ByteBuffer spare = ByteBuffer.allocate( pending.capacity() );
+
+        while( true ) {
+            ByteBuffer batch;
+            long upTo;
+            synchronized( this ) {
+                try {
+                    while( true ) {
+                        if( pendingRecords == 0 ) {
+                            if( closed ) {
+                                return;
+                            }
+                            wait();
+                            continue;
+                        }
+                        long waited = System.nanoTime() - firstPending;
+                        if( closed || pendingRecords >= batchSize || waited >= commitInterval ) {
+                            break;
+                        }
+                        long remaining = commitInterval - waited;
+                        wait( remaining / 1000000, (int) ( remaining % 1000000 ) );
+                    }
+                }
+                catch( InterruptedException e ) {
+                    return;
+                }
+                batch = pending;
+                pending = spare;
+                pendingRecords = 0;
+                upTo = sequence;
+            }
+
+            try {
+                batch.flip();
+                synchronized( fileLock ) {
+                    while( batch.hasRemaining() ) {
+                        channel.write( batch );
+                    }
+                    channel.force( false );
+                }
+            }
+            catch( IOException e ) {
+                synchronized( this ) {
+                    failure = e;
+                    notifyAll();
+                }
+                return;
+            }
+            batch.clear();
+            spare = batch;
+
+            synchronized( this ) {
+                durable = upTo;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Writes out any records still waiting and closes the file.
+     *
+     * @throws IOException if the file cannot be closed
+     */
+    public void close() throws IOException {
+        synchronized( this ) {
+            closed = true;
+            notifyAll();
+        }
+        try {
+            flusher.join();
+        }
+        catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized( fileLock ) {
+            channel.close();
+        }
+    }
+
+    /**
+     * Drops every record up to and including the given sequence number, once
+     * a snapshot holding them is on disk. The records after it are copied
+     * to a file beside the journal, which is then moved over it, so a crash
+     * part way through leaves the old journal whole. Batches wait to be
+     * written only while the records kept are copied.
+     *
+     * @param sequence sequence number of the last record the snapshot holds
+     * @throws IOException if the journal cannot be rewritten
+     */
+    public void truncateThrough( long sequence ) throws IOException {
+        Path temporary = Paths.get( path + ".tmp" );
+
+        synchronized( fileLock ) {
+            if( !channel.isOpen() ) {
+                throw new IOException( "The journal is closed." );
+            }
+            //the flusher only writes whole batches under the lock, so the file ends on a record
+            long[] end = scan( channel, null, sequence );
+            if( end[3] == 0 ) {
+                return;
+            }
+            FileChannel kept = FileChannel.open( temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                 StandardOpenOption.TRUNCATE_EXISTING );
+            try {
+                for( long from = end[3]; from < end[0]; ) {
+                    from += channel.transferTo( from, end[0] - from, kept );
+                }
+                kept.force( true );
+            }
+            finally {
+                kept.close();
+            }
+            Files.move( temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+            channel.close();
+            channel = FileChannel.open( path, StandardOpenOption.READ, StandardOpenOption.WRITE );
+            channel.position( channel.size() );
+        }
+    }
+
+    /**
+     * Applies every record of a journal file after the manager's sequence
+     * number to the manager, in order, stopping at the last whole record.
+     *
+     * @param filename name (including location) of the journal file
+     * @param manager manager to apply the records to
+     * @return number of records applied
+     * @throws IOException if the file cannot be read, or a record cannot be
+     *         applied to the manager
+     */
+    static long replay( String filename, UniversityAllocationManager manager ) throws IOException {
+        if( !Files.exists( Paths.get( filename ) ) ) {
+            return 0;
+        }
+        FileChannel channel = FileChannel.open( Paths.get( filename ), StandardOpenOption.READ );
+        try {
+            return scan( channel, manager, manager.getSequence() )[2];
+        }
+        finally {
+            channel.close();
+        }
+    }
+
+    /*
+     * Walks the whole records of the journal a chunk at a time, applying
+     * those after the given sequence number to the manager if there is one.
+     * Returns the end of the last whole record, its sequence number, the
+     * number applied, and where the first record after the given sequence
+     * number starts (the end if there is none).
+     */
+    private static long[] scan( FileChannel channel, UniversityAllocationManager manager, long after ) throws IOException {
+        ByteBuffer chunk = ByteBuffer.allocate( CHUNK_SIZE );
+        long size = channel.size();
+        long position = 0;
+        long last = 0;
+        long applied = 0;
+        long firstAfter = -1;
+        CRC32 crc = new CRC32();
+
+        chunk.limit( 0 );
+        while( fill( channel, chunk, position, 4 ) ) {
+            int length = chunk.getInt( chunk.position() );
+            if( length < 9 || length > MAX_RECORD || length > size - position - 8 ) {
+                break;
+            }
+            if( chunk.capacity() < length + 8 ) {
+                ByteBuffer larger = ByteBuffer.allocate( length + 8 );
+                larger.put( chunk );
+                larger.flip();
+                chunk = larger;
+            }
+            if( !fill( channel, chunk, position, length + 8 ) ) {
+                break;
+            }
+            int start = chunk.position();
+            crc.reset();
+            crc.update( chunk.array(), start + 4, length );
+            if( (int) crc.getValue() != chunk.getInt( start + 4 + length ) ) {
+                break;
+            }
+            long sequence = chunk.getLong( start + 4 );
+            if( sequence > after && firstAfter < 0 ) {
+                firstAfter = position;
+            }
+            if( manager != null && sequence > after ) {
+                chunk.position( start + 13 );
+                apply( manager, chunk.get( start + 12 ), chunk, sequence );
+                applied++;
+            }
+            last = sequence;
+            chunk.position( start + length + 8 );
+            position += length + 8;
+        }
+        return new long[] { position, last, applied, firstAfter < 0 ? position : firstAfter };
+    }
+
+    /*
+     * Makes sure the chunk holds at least the given number of bytes from its
+     * position, which is at the given offset in the file, reading on from
+     * the file. Returns false if the file ends first.
+     */
+    private static boolean fill( FileChannel channel, ByteBuffer chunk, long position, int bytes ) throws IOException {
+        if( chunk.remaining() >= bytes ) {
+            return true;
+        }
+        chunk.compact();
+        long from = position + chunk.position();
+        boolean whole = true;
+
+        while( chunk.position() < bytes ) {
+            int read = channel.read( chunk, from );
+            if( read < 0 ) {
+                whole = false;
+                break;
+            }
+            from += read;
+        }
+        chunk.flip();
+        return whole;
+    }
+
+    /*
+     * Applies one record to the manager, reading its fields from the buffer.
+     */
+    private static void apply( UniversityAllocationManager manager, byte type, ByteBuffer record, long sequence )
+    throws IOException {
+        try {
+            switch( type ) {
+                case ADD_STUDENT: {
+                    long id = record.getLong();
+                    byte stage = record.get();
+                    manager.restoreStudent( id, getString( record ), getString( record ), stage );
+                    break;
+                }
+                case ADD_STAFF: {
+                    int id = record.getInt();
+                    manager.restoreStaff( id, getString( record ), getString( record ) );
+                    break;
+                }
+                case ADD_MODULE: {
+                    int code = record.getInt();
+                    byte credits = record.get();
+                    byte stage = record.get();
+                    int capacity = record.getInt();
+                    String name = getString( record );
+                    int[] staff = new int[record.getInt()];
+                    for( int i = 0; i < staff.length; i++ ) {
+                        staff[i] = record.getInt();
+                    }
+                    manager.restoreModule( code, name, credits, stage, capacity, staff );
+                    break;
+                }
+                case ENROL:
+                    if( manager.tryEnrol( UniversityStudent.formatID( record.getLong() ),
+                                          UniversityModule.formatCode( record.getInt() ) ) != EnrolmentStatus.ENROLLED ) {
+                        throw new IOException( "Journal record " + sequence + " could not be enrolled again." );
+                    }
+                    break;
+                case ENROL_ALL: {
+                    String code = UniversityModule.formatCode( record.getInt() );
+                    for( int rows = record.getInt(); rows > 0; rows-- ) {
+                        if( manager.tryEnrol( UniversityStudent.formatID( record.getLong() ), code ) != EnrolmentStatus.ENROLLED ) {
+                            throw new IOException( "Journal record " + sequence + " could not be enrolled again." );
+                        }
+                    }
+                    break;
+                }
+                case UNENROL:
+                    if( manager.tryUnEnrol( UniversityStudent.formatID( record.getLong() ),
+                                            UniversityModule.formatCode( record.getInt() ) ) != EnrolmentStatus.UNENROLLED ) {
+                        throw new IOException( "Journal record " + sequence + " could not be unenrolled again." );
+                    }
+                    break;
+                case DISCONTINUE:
+                    manager.discontinue( UniversityModule.formatCode( record.getInt() ) );
+                    break;
+                case REMOVE_STUDENT:
+                    manager.remove( new UniversityStudent( "", "", (byte) 1, UniversityStudent.formatID( record.getLong() ) ) );
+                    break;
+                case REMOVE_STAFF:
+                    manager.remove( new UniversityStaff( "", "", UniversityStaff.formatID( record.getInt() ) ) );
+                    break;
+                default:
+                    throw new IOException( "Journal record " + sequence + " has unknown type " + type + "." );
+            }
+        }
+        catch( InvalidIDException | IDNotRecognisedException | IDNotSetException | IDAlreadySetException
+               | InvalidStageException | InvalidCreditsException | InvalidCapacityException
+               | DuplicateStaffException | StaffNotInSystemException e ) {
+            throw new IOException( "Journal record " + sequence + " could not be applied.", e );
+        }
+        manager.setSequence( sequence );
+    }
+
+    private static String getString( ByteBuffer record ) {
+        byte[] bytes = new byte[record.getInt()];
+        record.get( bytes );
+        return new String( bytes, StandardCharsets.UTF_8 );
+    }
+}
@@ -1,6 +1,8 @@
 package university;
 
 import java.io.Serializable;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 /**
  * Stores {@link Object} items in an array list which is more efficent in 
@@ -15,6 +17,7 @@ public class ObjectArrayList implements Serializable
 {
     private Object[] array;
     private int elementsUsed;
+    private transient View view;
 
     /**
      * Creates initial instance of an ObjectArrayList with no contents
@@ -139,6 +142,52 @@ public class ObjectArrayList implements Serializable
         return this.elementsUsed;
     }
     
+    /**
+     * Method returns a read-only view of this ObjectArrayList, which reads the
+     * contents in place rather than copying them. The same view is returned
+     * each time, so taking it allocates nothing after the first call.
+     * 
+     * @return read-only view of the list
+     */
+    @SuppressWarnings( "unchecked" )
+    public <T> ListView<T> view() {
+        if (this.view == null)
+            this.view = new View();
+        return (ListView<T>)this.view;
+    }
+
+    /*
+     * Read-only view of the list, reading the current contents in place
+     */
+    private class View implements ListView<Object>
+    {
+        public int size() {
+            return elementsUsed;
+        }
+
+        public Object get(int index) {
+            if (isInvalid(index))
+                throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + elementsUsed);
+            return array[index];
+        }
+
+        public Iterator<Object> iterator() {
+            return new Iterator<Object>() {
+                private int next = 0;
+
+                public boolean hasNext() {
+                    return next < elementsUsed;
+                }
+
+                public Object next() {
+                    if (!hasNext())
+                        throw new NoSuchElementException();
+                    return array[next++];
+                }
+            };
+        }
+    }
+
     /**
      * Method returns the contents of this ObjectArrayList as an array
      * 
@@ -0,0 +1,91 @@
+package university;
+
+import java.io.Serializable;
+
+/**
+ * Stores {@link Object} items in first in, first out order in a circular
+ * array. Adding to the back and taking from the front take O(1) time, the
+ * array doubling in size when it is full. It should not be used to store
+ * null references.
+ */
+public class ObjectQueue implements Serializable
+{
+    private Object[] array;
+    private int head;
+    private int elementsUsed;
+
+    /**
+     * Creates initial instance of an ObjectQueue with no contents
+     */
+    public ObjectQueue() {
+        this.array = new Object[8];
+    }
+
+    /**
+     * Method adds the argument to the back of the queue
+     *
+     * @param o Object instance to be added
+     */
+    public void add( Object o ) {
+        if( elementsUsed == array.length ) {
+            resizeArray();
+        }
+        array[( head + elementsUsed ) % array.length] = o;
+        elementsUsed++;
+    }
+
+    /**
+     * Method removes and returns the item at the front of the queue, will
+     * return <code>null</code> if the queue is empty
+     *
+     * @return the item at the front of the queue
+     */
+    public Object poll() {
+        if( elementsUsed == 0 ) {
+            return null;
+        }
+        Object o = array[head];
+        array[head] = null;
+        head = ( head + 1 ) % array.length;
+        elementsUsed--;
+        return o;
+    }
+
+    /**
+     * Method returns the item at the index provided, counting from the
+     * front of the queue, will return <code>null</code> if the index is
+     * invalid
+     *
+     * @param index position of the item from the front of the queue
+     * @return the item at the position
+     */
+    public Object get( int index ) {
+        if( index < 0 || index >= elementsUsed ) {
+            return null;
+        }
+        return array[( head + index ) % array.length];
+    }
+
+    /**
+     * Method returns the number of items in the queue
+     *
+     * @return number of items in the queue
+     */
+    public int size() {
+        return elementsUsed;
+    }
+
+    /*
+     * Method doubles the capacity of the array, moving the items so the
+     * front of the queue is at the start
+     */
+    private void resizeArray() {
+        Object[] tempArray = new Object[array.length * 2];
+        int firstPart = array.length - head;
+
+        System.arraycopy( array, head, tempArray, 0, firstPart );
+        System.arraycopy( array, 0, tempArray, firstPart, head );
+        array = tempArray;
+        head = 0;
+    }
+}
@@ -0,0 +1,834 @@
+package university;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stores {@link Object} items against unique {@link String} keys in a B+ tree,
+ * keeping them in lexographical order of their keys. Inserting, removing and
+ * looking up an item by key, or by its position in the ordering, all take
+ * O(log n) time, and the whole contents can be read out or iterated over in
+ * key order in O(n). It should not be used to store null keys or values.
+ * <p>
+ * A frozen copy of the index can be taken in O(1) time with snapshot. The
+ * copy shares its nodes with the index, and each node carries the version
+ * of the index which may change it, so whichever side next changes a
+ * shared node copies it first (along with the path down to it) and leaves
+ * the other side's view untouched.
+ */
+public class OrderedIndex implements Serializable, Iterable<Object>
+{
+    private static final int MAX_ENTRIES = 32;
+    private static final int MIN_ENTRIES = MAX_ENTRIES / 2;
+
+    private static final AtomicInteger VERSIONS = new AtomicInteger();
+
+    private Node root;
+    private int version;
+    private transient ListView<Object> view;
+
+    /*
+     * A node of the tree. Leaves hold the values against their keys, branches
+     * hold their children against the smallest key stored beneath each child.
+     * Arrays have one spare slot so a node can overflow before it is split.
+     */
+    private static class Node implements Serializable
+    {
+        private final boolean leaf;
+        private final String[] keys;
+        private final Object[] values;
+        private final Node[] children;
+        private final int version;
+        private int entries;
+        private int total;
+
+        private Node( boolean leaf, int version ) {
+            this.leaf = leaf;
+            this.version = version;
+            keys = new String[MAX_ENTRIES + 1];
+            values = leaf ? new Object[MAX_ENTRIES + 1] : null;
+            children = leaf ? null : new Node[MAX_ENTRIES + 1];
+        }
+
+        /*
+         * Copies the node for the index of the given version to change.
+         */
+        private Node copy( int version ) {
+            Node copy = new Node( leaf, version );
+            System.arraycopy( keys, 0, copy.keys, 0, entries );
+            if( leaf ) {
+                System.arraycopy( values, 0, copy.values, 0, entries );
+            }
+            else {
+                System.arraycopy( children, 0, copy.children, 0, entries );
+            }
+            copy.entries = entries;
+            copy.total = total;
+            return copy;
+        }
+    }
+
+    /**
+     * Creates initial instance of an OrderedIndex with no contents
+     */
+    public OrderedIndex() {
+        version = VERSIONS.incrementAndGet();
+        root = new Node( true, version );
+    }
+
+    /*
+     * Creates an index sharing the nodes beneath root.
+     */
+    private OrderedIndex( Node root ) {
+        version = VERSIONS.incrementAndGet();
+        this.root = root;
+    }
+
+    /**
+     * Method returns a copy of the index as it is now, in O(1) time. Later
+     * changes to either the index or the copy are not seen by the other.
+     * The copy may be read by another thread while this index is changed,
+     * as changes never write to nodes the copy can reach.
+     *
+     * @return copy of the index
+     */
+    public OrderedIndex snapshot() {
+        OrderedIndex copy = new OrderedIndex( root );
+        version = VERSIONS.incrementAndGet();
+        return copy;
+    }
+
+    /*
+     * Returns the node if this index may change it, otherwise a copy of it
+     * which this index may change. The caller must put the copy in place of
+     * the node in its parent.
+     */
+    private Node writable( Node node ) {
+        return node.version == version ? node : node.copy( version );
+    }
+
+    /*
+     * Makes the child of node at index writable, returning it.
+     */
+    private Node writableChild( Node node, int index ) {
+        Node child = writable( node.children[index] );
+        node.children[index] = child;
+        return child;
+    }
+
+    /**
+     * Method returns the total number of items in the index
+     *
+     * @return number of items in the index
+     */
+    public int size() {
+        return root.total;
+    }
+
+    /**
+     * Method returns the item stored against the key, or <code>null</code>
+     * if there is no such item
+     *
+     * @param key key of the item to be returned
+     * @return Object stored against the key
+     */
+    public Object get( String key ) {
+        Node node = root;
+
+        while( !node.leaf ) {
+            node = node.children[childIndex( node, key )];
+        }
+        int index = keyIndex( node, key );
+
+        if( index < node.entries && node.keys[index].equals( key ) ) {
+            return node.values[index];
+        }
+        return null;
+    }
+
+    /**
+     * Method returns the item at the index provided in key order, will
+     * return <code>null</code> if the index is invalid
+     *
+     * @param index position of the item in key order
+     * @return Object at corresponding position
+     */
+    public Object get( int index ) {
+        if( index < 0 || index >= root.total ) {
+            return null;
+        }
+        Node node = root;
+
+        while( !node.leaf ) {
+            int i = 0;
+            while( index >= node.children[i].total ) {
+                index -= node.children[i].total;
+                i++;
+            }
+            node = node.children[i];
+        }
+        return node.values[index];
+    }
+
+    /**
+     * Method adds the item against the key, keeping key order. Returns
+     * <code>false</code> and leaves the index unchanged if an item is
+     * already stored against the key.
+     *
+     * @param key key to store the item against
+     * @param value Object instance to be added
+     * @return true if the item was added, false if the key was already used
+     */
+    public boolean insert( String key, Object value ) {
+        if( get( key ) != null ) {
+            return false;
+        }
+        root = writable( root );
+        Node split = insert( root, key, value );
+
+        if( split != null ) {
+            Node newRoot = new Node( false, version );
+            newRoot.keys[0] = root.keys[0];
+            newRoot.children[0] = root;
+            newRoot.keys[1] = split.keys[0];
+            newRoot.children[1] = split;
+            newRoot.entries = 2;
+            newRoot.total = root.total + split.total;
+            root = newRoot;
+        }
+        return true;
+    }
+
+    /**
+     * Method adds a batch of items against their keys, which must be in key
+     * order and not already used in the index. A large batch is merged with
+     * the current contents and the tree rebuilt once in O(n) time, rather
+     * than paying O(log n) for each item.
+     *
+     * @param keys keys to store the items against, in key order
+     * @param values Object instances to be added, matching keys
+     */
+    public void insertAll( String[] keys, Object[] values ) {
+        if( keys.length < root.total / 16 ) {
+            for( int i = 0; i < keys.length; i++ ) {
+                insert( keys[i], values[i] );
+            }
+            return;
+        }
+        int total = root.total + keys.length;
+        String[] oldKeys = new String[root.total];
+        Object[] oldValues = new Object[root.total];
+        String[] allKeys = new String[total];
+        Object[] allValues = new Object[total];
+        fill( root, oldKeys, oldValues, 0 );
+
+        //merge the current contents with the batch
+        int i = 0;
+        int j = 0;
+        for( int k = 0; k < total; k++ ) {
+            if( j == keys.length || ( i < oldKeys.length && oldKeys[i].compareTo( keys[j] ) < 0 ) ) {
+                allKeys[k] = oldKeys[i];
+                allValues[k] = oldValues[i++];
+            }
+            else {
+                allKeys[k] = keys[j];
+                allValues[k] = values[j++];
+            }
+        }
+        root = build( allKeys, allValues, version );
+    }
+
+    /*
+     * Builds a tree holding the sorted arrays from the leaves up, filling
+     * each node at most three quarters full with the entries spread evenly
+     * between the nodes of each level, so later inserts rarely split.
+     */
+    private static Node build( String[] keys, Object[] values, int version ) {
+        int fill = MAX_ENTRIES * 3 / 4;
+        int count = Math.max( 1, ( keys.length + fill - 1 ) / fill );
+        Node[] level = new Node[count];
+
+        for( int n = 0, start = 0; n < count; n++ ) {
+            int end = (int)( (long)keys.length * ( n + 1 ) / count );
+            Node leaf = new Node( true, version );
+            leaf.entries = end - start;
+            leaf.total = end - start;
+            System.arraycopy( keys, start, leaf.keys, 0, leaf.entries );
+            System.arraycopy( values, start, leaf.values, 0, leaf.entries );
+            level[n] = leaf;
+            start = end;
+        }
+        while( level.length > 1 ) {
+            count = ( level.length + fill - 1 ) / fill;
+            Node[] parents = new Node[count];
+
+            for( int n = 0, start = 0; n < count; n++ ) {
+                int end = (int)( (long)level.length * ( n + 1 ) / count );
+                Node branch = new Node( false, version );
+                for( int c = start; c < end; c++ ) {
+                    branch.keys[branch.entries] = level[c].keys[0];
+                    branch.children[branch.entries] = level[c];
+                    branch.entries++;
+                    branch.total += level[c].total;
+                }
+                parents[n] = branch;
+                start = end;
+            }
+            level = parents;
+        }
+        return level[0];
+    }
+
+    /*
+     * Inserts beneath node, returning the new right hand sibling if node had
+     * to be split to make room, otherwise null.
+     */
+    private Node insert( Node node, String key, Object value ) {
+        node.total++;
+
+        if( node.leaf ) {
+            int index = keyIndex( node, key );
+            shiftRight( node, index );
+            node.keys[index] = key;
+            node.values[index] = value;
+        }
+        else {
+            int index = childIndex( node, key );
+            Node split = insert( writableChild( node, index ), key, value );
+            node.keys[index] = node.children[index].keys[0];
+
+            if( split != null ) {
+                shiftRight( node, index + 1 );
+                node.keys[index + 1] = split.keys[0];
+                node.children[index + 1] = split;
+            }
+        }
+
+        if( node.entries > MAX_ENTRIES ) {
+            return split( node );
+        }
+        return null;
+    }
+
+    /*
+     * Moves the upper half of an overflowing node into a new right hand sibling.
+     */
+    private Node split( Node node ) {
+        Node right = new Node( node.leaf, version );
+        int keep = node.entries / 2;
+        int move = node.entries - keep;
+
+        System.arraycopy( node.keys, keep, right.keys, 0, move );
+        if( node.leaf ) {
+            System.arraycopy( node.values, keep, right.values, 0, move );
+            right.total = move;
+        }
+        else {
+            System.arraycopy( node.children, keep, right.children, 0, move );
+            for( int i = 0; i < move; i++ ) {
+                right.total += right.children[i].total;
+            }
+        }
+        clear( node, keep, node.entries );
+        node.entries = keep;
+        right.entries = move;
+        node.total -= right.total;
+        return right;
+    }
+
+    /**
+     * Method removes the item stored against the key and returns it. It will
+     * return <code>null</code> if no item is stored against the key
+     *
+     * @param key key of the item to be removed
+     * @return Object removed from the index
+     */
+    public Object remove( String key ) {
+        if( get( key ) == null ) {
+            return null;
+        }
+        root = writable( root );
+        Object removed = remove( root, key );
+
+        if( !root.leaf && root.entries == 1 ) {
+            root = root.children[0];
+        }
+        return removed;
+    }
+
+    /*
+     * Removes beneath node, leaving any child which underflows rebalanced
+     * against a sibling. Node itself may be left underflowing.
+     */
+    private Object remove( Node node, String key ) {
+        Object removed;
+
+        if( node.leaf ) {
+            int index = keyIndex( node, key );
+            if( index == node.entries || !node.keys[index].equals( key ) ) {
+                return null;
+            }
+            removed = node.values[index];
+            shiftLeft( node, index );
+        }
+        else {
+            int index = childIndex( node, key );
+            Node child = writableChild( node, index );
+            removed = remove( child, key );
+            if( removed == null ) {
+                return null;
+            }
+
+            if( child.entries > 0 ) {
+                node.keys[index] = child.keys[0];
+            }
+            if( child.entries < MIN_ENTRIES ) {
+                rebalance( node, index );
+            }
+        }
+        node.total--;
+        return removed;
+    }
+
+    /*
+     * Refills the underflowing child at index by borrowing an entry from a
+     * sibling, or merges it with that sibling if the sibling has none to spare.
+     */
+    private void rebalance( Node parent, int index ) {
+        int leftIndex = index > 0 ? index - 1 : index;
+        Node left = writableChild( parent, leftIndex );
+        Node right = writableChild( parent, leftIndex + 1 );
+
+        if( left.entries + right.entries <= MAX_ENTRIES ) {
+            //merge right into left and drop right from the parent
+            System.arraycopy( right.keys, 0, left.keys, left.entries, right.entries );
+            if( left.leaf ) {
+                System.arraycopy( right.values, 0, left.values, left.entries, right.entries );
+            }
+            else {
+                System.arraycopy( right.children, 0, left.children, left.entries, right.entries );
+            }
+            left.entries += right.entries;
+            left.total += right.total;
+            shiftLeft( parent, leftIndex + 1 );
+        }
+        else if( left.entries < right.entries ) {
+            //borrow the first entry of right
+            int moved = weight( right, 0 );
+            left.keys[left.entries] = right.keys[0];
+            if( left.leaf ) {
+                left.values[left.entries] = right.values[0];
+            }
+            else {
+                left.children[left.entries] = right.children[0];
+            }
+            left.entries++;
+            left.total += moved;
+            shiftLeft( right, 0 );
+            right.total -= moved;
+            parent.keys[leftIndex + 1] = right.keys[0];
+        }
+        else {
+            //borrow the last entry of left
+            int last = left.entries - 1;
+            int moved = weight( left, last );
+            shiftRight( right, 0 );
+            right.keys[0] = left.keys[last];
+            if( right.leaf ) {
+                right.values[0] = left.values[last];
+            }
+            else {
+                right.children[0] = left.children[last];
+            }
+            right.total += moved;
+            clear( left, last, left.entries );
+            left.entries--;
+            left.total -= moved;
+            parent.keys[leftIndex + 1] = right.keys[0];
+        }
+        parent.keys[leftIndex] = left.keys[0];
+    }
+
+    /**
+     * Method returns the contents of this OrderedIndex in key order, filling
+     * the argument if it is large enough, otherwise a new Object array
+     *
+     * @param into array to be filled, typically of the size of the index
+     * @return shallow copy of contents of the index as an array
+     */
+    public Object[] contents( Object[] into ) {
+        if( into.length < root.total ) {
+            into = new Object[root.total];
+        }
+        fill( root, into, 0 );
+        return into;
+    }
+
+    /**
+     * Method returns the items with keys after the key provided in key order,
+     * as many as fit in the argument. The first item is found in O(log n)
+     * time and only the items returned are read. The key need not be in the
+     * index, so pages of items can be read on from the key of the last item
+     * of the previous page however the index changes between pages.
+     *
+     * @param key key to read on from, or null to read from the start
+     * @param into array to be filled, of the most items to return
+     * @return the argument if filled, otherwise a copy of it cut down to the
+     *         items left after the key
+     */
+    public Object[] contentsAfter( String key, Object[] into ) {
+        int from = key == null ? 0 : rankAfter( key );
+        int count = Math.min( into.length, root.total - from );
+
+        if( count < into.length ) {
+            into = Arrays.copyOf( into, count );
+        }
+        if( count > 0 ) {
+            Cursor cursor = new Cursor( root, from );
+            for( int i = 0; i < count; i++ ) {
+                into[i] = cursor.next();
+            }
+        }
+        return into;
+    }
+
+    /*
+     * Number of items with keys not greater than key.
+     */
+    private int rankAfter( String key ) {
+        Node node = root;
+        int rank = 0;
+
+        while( !node.leaf ) {
+            int index = childIndex( node, key );
+            for( int i = 0; i < index; i++ ) {
+                rank += node.children[i].total;
+            }
+            node = node.children[index];
+        }
+        int index = keyIndex( node, key );
+
+        if( index < node.entries && node.keys[index].equals( key ) ) {
+            index++;
+        }
+        return rank + index;
+    }
+
+    /*
+     * Copies the values beneath node into the array from position start,
+     * returning the position after the last value copied.
+     */
+    private int fill( Node node, Object[] into, int start ) {
+        if( node.leaf ) {
+            System.arraycopy( node.values, 0, into, start, node.entries );
+            return start + node.entries;
+        }
+        for( int i = 0; i < node.entries; i++ ) {
+            start = fill( node.children[i], into, start );
+        }
+        return start;
+    }
+
+    /**
+     * Method returns a read-only view of the items in key order, which reads
+     * the index in place rather than copying it. Reading an item by position
+     * takes O(log n) time, and iterating over the view O(1) per item. The
+     * same view is returned each time.
+     *
+     * @return read-only view of the index
+     */
+    @SuppressWarnings( "unchecked" )
+    public <T> ListView<T> view() {
+        if( view == null ) {
+            view = new ListView<Object>() {
+                public int size() {
+                    return OrderedIndex.this.size();
+                }
+
+                public Object get( int index ) {
+                    if( index < 0 || index >= size() ) {
+                        throw new IndexOutOfBoundsException( "Index " + index + " out of bounds for length " + size() );
+                    }
+                    return OrderedIndex.this.get( index );
+                }
+
+                public Iterator<Object> iterator() {
+                    return OrderedIndex.this.iterator();
+                }
+            };
+        }
+        return (ListView<T>) view;
+    }
+
+    /**
+     * Method returns an iterator over the items in key order, without copying
+     * them. The index must not be changed while the iterator is in use, and
+     * items cannot be removed through the iterator.
+     *
+     * @return iterator over the contents of the index
+     */
+    public Iterator<Object> iterator() {
+        return new Cursor( root );
+    }
+
+    /**
+     * Method returns a spliterator over the items in key order, without
+     * copying them, for use in parallel streams. It splits by position into
+     * halves of exactly known size, so is SIZED and SUBSIZED as well as
+     * ORDERED. The index must not be changed while the spliterator or any
+     * part split from it is in use; a spliterator over a snapshot of the
+     * index may be used while the index changes.
+     *
+     * @return spliterator over the contents of the index
+     */
+    public Spliterator<Object> spliterator() {
+        return new Range( root, 0, root.total );
+    }
+
+    /*
+     * Covers the items at positions from up to to. Splitting hands the first
+     * half of the positions to a new range, and traversal walks the leaves
+     * with a cursor started at the first position, so each item costs O(1)
+     * after the O(log n) start.
+     */
+    private static class Range implements Spliterator<Object>
+    {
+        private static final int MIN_SPLIT = MAX_ENTRIES * 4;
+
+        private final Node root;
+        private final int to;
+        private int from;
+        private Cursor cursor;
+
+        private Range( Node root, int from, int to ) {
+            this.root = root;
+            this.from = from;
+            this.to = to;
+        }
+
+        public boolean tryAdvance( Consumer<? super Object> action ) {
+            if( from >= to ) {
+                return false;
+            }
+            if( cursor == null ) {
+                cursor = new Cursor( root, from );
+            }
+            from++;
+            action.accept( cursor.next() );
+            return true;
+        }
+
+        public void forEachRemaining( Consumer<? super Object> action ) {
+            if( from >= to ) {
+                return;
+            }
+            if( cursor == null ) {
+                cursor = new Cursor( root, from );
+            }
+            while( from < to ) {
+                from++;
+                action.accept( cursor.next() );
+            }
+        }
+
+        public Spliterator<Object> trySplit() {
+            if( to - from < MIN_SPLIT ) {
+                return null;
+            }
+            int middle = ( from + to ) >>> 1;
+            Range prefix = new Range( root, from, middle );
+            from = middle;
+            cursor = null;
+            return prefix;
+        }
+
+        public long estimateSize() {
+            return to - from;
+        }
+
+        public int characteristics() {
+            return ORDERED | SIZED | SUBSIZED | NONNULL;
+        }
+    }
+
+    /*
+     * Walks the leaves from left to right, holding the path from the root to
+     * the current leaf along with the position reached in each node.
+     */
+    private static class Cursor implements Iterator<Object>
+    {
+        private final Node[] path = new Node[16];
+        private final int[] positions = new int[16];
+        private int depth;
+
+        private Cursor( Node root ) {
+            path[0] = root;
+            descend();
+        }
+
+        /*
+         * Starts the walk at the item at a position in the ordering, which
+         * must be less than the number of items beneath root.
+         */
+        private Cursor( Node root, int index ) {
+            path[0] = root;
+            while( !path[depth].leaf ) {
+                Node node = path[depth];
+                int i = 0;
+                while( index >= node.children[i].total ) {
+                    index -= node.children[i].total;
+                    i++;
+                }
+                positions[depth] = i;
+                depth++;
+                path[depth] = node.children[i];
+            }
+            positions[depth] = index;
+        }
+
+        /*
+         * Extends the path from the node at depth down to the leftmost leaf
+         * beneath its current position.
+         */
+        private void descend() {
+            while( !path[depth].leaf ) {
+                Node child = path[depth].children[positions[depth]];
+                depth++;
+                path[depth] = child;
+                positions[depth] = 0;
+            }
+        }
+
+        public boolean hasNext() {
+            return positions[depth] < path[depth].entries;
+        }
+
+        public Object next() {
+            if( !hasNext() ) {
+                throw new NoSuchElementException();
+            }
+            Object value = path[depth].values[positions[depth]++];
+
+            if( positions[depth] == path[depth].entries ) {
+                //leaf used up, move across to the next leaf if there is one
+                int level = depth - 1;
+                while( level >= 0 && positions[level] + 1 == path[level].entries ) {
+                    level--;
+                }
+                if( level >= 0 ) {
+                    positions[level]++;
+                    depth = level;
+                    descend();
+                }
+            }
+            return value;
+        }
+    }
+
+    /*
+     * Copies the keys and values beneath node into the arrays from position
+     * start, returning the position after the last entry copied.
+     */
+    private int fill( Node node, String[] keys, Object[] values, int start ) {
+        if( node.leaf ) {
+            System.arraycopy( node.keys, 0, keys, start, node.entries );
+            System.arraycopy( node.values, 0, values, start, node.entries );
+            return start + node.entries;
+        }
+        for( int i = 0; i < node.entries; i++ ) {
+            start = fill( node.children[i], keys, values, start );
+        }
+        return start;
+    }
+
+    /*
+     * Position of the first key in a leaf which is not less than key.
+     */
+    private static int keyIndex( Node node, String key ) {
+        int lowerBound = 0;
+        int upperBound = node.entries;
+
+        while( lowerBound < upperBound ) {
+            int currentIndex = ( lowerBound + upperBound ) >>> 1;
+            if( node.keys[currentIndex].compareTo( key ) < 0 ) {
+                lowerBound = currentIndex + 1;
+            }
+            else {
+                upperBound = currentIndex;
+            }
+        }
+        return lowerBound;
+    }
+
+    /*
+     * Position of the child of a branch whose keys would include key.
+     */
+    private static int childIndex( Node node, String key ) {
+        int index = keyIndex( node, key );
+
+        if( index < node.entries && node.keys[index].equals( key ) ) {
+            return index;
+        }
+        return index > 0 ? index - 1 : 0;
+    }
+
+    /*
+     * Number of items held by the entry of node at index.
+     */
+    private static int weight( Node node, int index ) {
+        return node.leaf ? 1 : node.children[index].total;
+    }
+
+    /*
+     * Opens a gap at index by moving the later entries of node up one place.
+     */
+    private static void shiftRight( Node node, int index ) {
+        int move = node.entries - index;
+
+        System.arraycopy( node.keys, index, node.keys, index + 1, move );
+        if( node.leaf ) {
+            System.arraycopy( node.values, index, node.values, index + 1, move );
+        }
+        else {
+            System.arraycopy( node.children, index, node.children, index + 1, move );
+        }
+        node.entries++;
+    }
+
+    /*
+     * Closes the entry at index by moving the later entries of node down one place.
+     */
+    private static void shiftLeft( Node node, int index ) {
+        int move = node.entries - index - 1;
+
+        System.arraycopy( node.keys, index + 1, node.keys, index, move );
+        if( node.leaf ) {
+            System.arraycopy( node.values, index + 1, node.values, index, move );
+        }
+        else {
+            System.arraycopy( node.children, index + 1, node.children, index, move );
+        }
+        node.entries--;
+        clear( node, node.entries, node.entries + 1 );
+    }
+
+    /*
+     * Drops references held by the entries of node from start up to end.
+     */
+    private static void clear( Node node, int start, int end ) {
+        for( int i = start; i < end; i++ ) {
+            node.keys[i] = null;
+            if( node.leaf ) {
+                node.values[i] = null;
+            }
+            else {
+                node.children[i] = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,398 @@
+package university;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * Allocates students to modules from ranked preferences given all at once,
+ * rather than in the order the preferences arrived.
+ * <p>
+ * The allocation is made by student-proposing deferred acceptance. Every
+ * student is given a place in a random lottery, drawn from the seed and
+ * their ID rather than their position in the input, which modules use to
+ * choose between students when more want them than there are seats. In
+ * each round every student asks for the modules they rank highest which
+ * the modules have not yet turned them away from, taking them in order of
+ * preference and skipping any which would break the 120 credit limit or
+ * the lower stage honours rule. Each module with more students asking for
+ * it than seats then keeps the students earliest in the lottery and turns
+ * the rest away for good. Rounds repeat until no module is asked for by
+ * more students than it has seats. Where two students want the last seat
+ * on a module, the one earlier in the lottery gets it, so for a given
+ * seed the outcome does not depend on the order the preferences were
+ * collected in.
+ * <p>
+ * A min-cost flow cannot be used here: each student's modules must fit in
+ * 120 credits, of which at most 30 may be at a lower stage, and with
+ * modules of different credits those limits make the problem a knapsack
+ * for each student rather than a flow. Deferred acceptance keeps to the
+ * limits exactly, and each round is split across threads, over students
+ * and then over the modules asked for by too many.
+ * <p>
+ * A student who loses one module may drop another they were holding in
+ * favour of a larger one, leaving seats which a module turned students
+ * away from. Once the rounds end, these seats are offered to the students
+ * in lottery order. The allocation is then committed through
+ * {@link UniversityAllocationManager#enrolAll} in one step.
+ */
+class PreferenceAllocator
+{
+    private final UniversityAllocationManager manager;
+    private final int threads;
+    private final long seed;
+    private final int limit;
+
+    private ForkJoinPool pool;
+
+    private UniversityStudent[] students;
+    private int[] limits;
+    private int[] priority;
+    private int[] stage;
+    private int[] credits;
+    private int[] lowerStageCredits;
+    private int[][] choices;
+    private boolean[][] held;
+
+    private UniversityModule[] modules;
+    private int[] moduleCredits;
+    private int[] moduleStage;
+    private int[] seats;
+    private int[] cutoff;
+    private AtomicIntegerArray asked;
+
+    /**
+     * Constructor for PreferenceAllocator allocating on the given manager
+     *
+     * @param manager manager to allocate students to modules on
+     * @param threads number of threads to spread each round across
+     * @param seed seed of the lottery deciding between students
+     * @param limit most modules to allocate to each student, unless
+     *        limits are given to allocate
+     */
+    PreferenceAllocator( UniversityAllocationManager manager, int threads, long seed, int limit ) {
+        this.manager = manager;
+        this.threads = threads;
+        this.seed = seed;
+        this.limit = limit;
+    }
+
+    /**
+     * Allocates the students to modules and commits the enrolments. The
+     * manager must not change until the allocation is committed.
+     *
+     * @param studentIDs IDs of the students to allocate
+     * @param preferences codes of the modules each student wants, most
+     *        wanted first
+     * @return report of the enrolments made
+     * @throws InvalidIDException if a student ID or module code is not valid
+     * @throws IDNotRecognisedException if a student or module is not on the system
+     */
+    AllocationReport allocate( String[] studentIDs, String[][] preferences ) throws InvalidIDException,
+    IDNotRecognisedException {
+        return allocate( studentIDs, preferences, null );
+    }
+
+    /**
+     * Allocates the students to modules as allocate does, allocating each
+     * student at most their own number of modules.
+     *
+     * @param studentIDs IDs of the students to allocate
+     * @param preferences codes of the modules each student wants, most
+     *        wanted first
+     * @param limits most modules to allocate to each student, or null to
+     *        allocate each at most the limit given to the constructor
+     * @return report of the enrolments made
+     * @throws InvalidIDException if a student ID or module code is not valid
+     * @throws IDNotRecognisedException if a student or module is not on the system
+     */
+    AllocationReport allocate( String[] studentIDs, String[][] preferences, int[] limits ) throws InvalidIDException,
+    IDNotRecognisedException {
+        if( studentIDs.length != preferences.length ) {
+            throw new IllegalArgumentException( studentIDs.length + " student IDs given for " + preferences.length + " preference lists." );
+        }
+        if( limits != null && limits.length != studentIDs.length ) {
+            throw new IllegalArgumentException( studentIDs.length + " student IDs given for " + limits.length + " limits." );
+        }
+        this.limits = new int[studentIDs.length];
+        for( int s = 0; s < studentIDs.length; s++ ) {
+            this.limits[s] = limits == null ? limit : limits[s];
+        }
+        resolve( studentIDs, preferences );
+
+        pool = new ForkJoinPool( threads );
+        int rounds = 0;
+        try {
+            do {
+                rounds++;
+                ask();
+            }
+            while( turnAway() );
+        }
+        finally {
+            pool.shutdown();
+        }
+        fillSpareSeats();
+        return commit( studentIDs, rounds );
+    }
+
+    /*
+     * Looks up the students and modules, dropping preferences a student
+     * could never be allocated and giving each module a dense index.
+     */
+    private void resolve( String[] studentIDs, String[][] preferences ) throws InvalidIDException, IDNotRecognisedException {
+        int count = studentIDs.length;
+        IntObjectHashMap moduleIndexes = new IntObjectHashMap();
+        ObjectArrayList moduleList = new ObjectArrayList();
+        LongObjectHashMap seen = new LongObjectHashMap();
+
+        students = new UniversityStudent[count];
+        stage = new int[count];
+        credits = new int[count];
+        lowerStageCredits = new int[count];
+        choices = new int[count][];
+        held = new boolean[count][];
+
+        for( int s = 0; s < count; s++ ) {
+            UniversityStudent.checkValidID( studentIDs[s] );
+            UniversityStudent student = manager.findStudent( studentIDs[s] );
+            if( student == null ) {
+                throw new IDNotRecognisedException( "The student ID " + studentIDs[s] + " does not exist on the system." );
+            }
+            if( seen.put( UniversityStudent.parseID( studentIDs[s] ), student ) != null ) {
+                throw new IllegalArgumentException( "The student ID " + studentIDs[s] + " is given more than once." );
+            }
+            students[s] = student;
+            stage[s] = student.getStage();
+            credits[s] = student.getTotalCredits();
+            lowerStageCredits[s] = student.getLowerStageCredits();
+
+            int[] wanted = new int[preferences[s].length];
+            int kept = 0;
+            for( String code : preferences[s] ) {
+                UniversityModule.checkValidCode( code );
+                UniversityModule module = manager.findModule( code );
+                if( module == null ) {
+                    throw new IDNotRecognisedException( "The module code " + code + " does not exist on the system." );
+                }
+                Integer index = (Integer) moduleIndexes.get( UniversityModule.parseCode( code ) );
+                if( index == null ) {
+                    index = moduleList.size();
+                    moduleIndexes.put( UniversityModule.parseCode( code ), index );
+                    moduleList.add( module );
+                }
+                if( module.isDiscontinued() || module.getStage() > stage[s] || student.isEnrolledOn( module )
+                    || contains( wanted, kept, index ) ) {
+                    continue;
+                }
+                wanted[kept++] = index;
+            }
+            choices[s] = Arrays.copyOf( wanted, kept );
+            held[s] = new boolean[kept];
+        }
+
+        int moduleCount = moduleList.size();
+        modules = new UniversityModule[moduleCount];
+        moduleCredits = new int[moduleCount];
+        moduleStage = new int[moduleCount];
+        seats = new int[moduleCount];
+        cutoff = new int[moduleCount];
+        for( int m = 0; m < moduleCount; m++ ) {
+            modules[m] = (UniversityModule) moduleList.get( m );
+            moduleCredits[m] = modules[m].getCredits();
+            moduleStage[m] = modules[m].getStage();
+            seats[m] = modules[m].isDiscontinued() ? 0 : Math.max( 0, modules[m].getCapacity() - modules[m].studentsView().size() );
+            //students later in the lottery than the cutoff have been turned away
+            cutoff[m] = seats[m] > 0 ? Integer.MAX_VALUE : -1;
+        }
+
+        //the lottery orders the students by a draw made from the seed and their ID, earlier places
+        //winning, so a student's place does not depend on where they are in the input
+        long[] draws = new long[count];
+        long salt = new SplittableRandom( seed ).nextLong();
+        for( int s = 0; s < count; s++ ) {
+            draws[s] = draw( UniversityStudent.parseID( students[s].getID() ) ^ salt );
+        }
+        long[] sorted = draws.clone();
+        Arrays.sort( sorted );
+        priority = new int[count];
+        for( int s = 0; s < count; s++ ) {
+            priority[s] = Arrays.binarySearch( sorted, draws[s] );
+        }
+    }
+
+    /*
+     * Scrambles the bits of a value one to one, so distinct students never
+     * draw the same place.
+     */
+    private static long draw( long value ) {
+        value = ( value ^ ( value >>> 30 ) ) * 0xBF58476D1CE4E5B9L;
+        value = ( value ^ ( value >>> 27 ) ) * 0x94D049BB133111EBL;
+        return value ^ ( value >>> 31 );
+    }
+
+    private static boolean contains( int[] values, int count, int value ) {
+        for( int i = 0; i < count; i++ ) {
+            if( values[i] == value ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+     * Has every student ask for the modules they rank highest which have
+     * not turned them away and fit within their credit limits, up to the
+     * limit of modules for each student.
+     */
+    private void ask() {
+        asked = new AtomicIntegerArray( modules.length );
+        parallelFor( students.length, s -> {
+            int total = credits[s];
+            int lower = lowerStageCredits[s];
+            int taken = 0;
+
+            for( int k = 0; k < choices[s].length; k++ ) {
+                int m = choices[s][k];
+                held[s][k] = taken < limits[s] && priority[s] <= cutoff[m] && fits( s, m, total, lower );
+                if( held[s][k] ) {
+                    taken++;
+                    total += moduleCredits[m];
+                    lower += moduleStage[m] != stage[s] ? moduleCredits[m] : 0;
+                    asked.incrementAndGet( m );
+                }
+            }
+        } );
+    }
+
+    private boolean fits( int s, int m, int total, int lower ) {
+        return total + moduleCredits[m] <= 120 && ( moduleStage[m] == stage[s] || lower + moduleCredits[m] <= 30 );
+    }
+
+    /*
+     * Has each module asked for by more students than it has seats keep
+     * those earliest in the lottery, lowering its cutoff to turn the rest
+     * away. Returns whether any student was turned away.
+     */
+    private boolean turnAway() {
+        int[] start = new int[modules.length];
+        int total = 0;
+        int over = 0;
+
+        for( int m = 0; m < modules.length; m++ ) {
+            if( asked.get( m ) > seats[m] ) {
+                start[m] = total;
+                total += asked.get( m );
+                over++;
+            }
+            else {
+                start[m] = -1;
+            }
+        }
+        if( over == 0 ) {
+            return false;
+        }
+        int[] overflowing = new int[over];
+        for( int m = 0, i = 0; m < modules.length; m++ ) {
+            if( start[m] >= 0 ) {
+                overflowing[i++] = m;
+            }
+        }
+
+        //gather the lottery places of the students asking for each overflowing module
+        final int[] places = new int[total];
+        final AtomicIntegerArray filled = new AtomicIntegerArray( modules.length );
+        parallelFor( students.length, s -> {
+            for( int k = 0; k < choices[s].length; k++ ) {
+                int m = choices[s][k];
+                if( held[s][k] && start[m] >= 0 ) {
+                    places[start[m] + filled.getAndIncrement( m )] = priority[s];
+                }
+            }
+        } );
+        parallelFor( over, i -> {
+            int m = overflowing[i];
+            Arrays.sort( places, start[m], start[m] + asked.get( m ) );
+            cutoff[m] = seats[m] > 0 ? places[start[m] + seats[m] - 1] : -1;
+        } );
+        return true;
+    }
+
+    /*
+     * Offers seats left free by students who dropped a module to the
+     * students it turned away, in lottery order.
+     */
+    private void fillSpareSeats() {
+        int[] spare = new int[modules.length];
+        boolean anySpare = false;
+
+        for( int m = 0; m < modules.length; m++ ) {
+            spare[m] = seats[m] - asked.get( m );
+            anySpare |= spare[m] > 0 && cutoff[m] != Integer.MAX_VALUE;
+        }
+        if( !anySpare ) {
+            return;
+        }
+        int[] byPlace = new int[students.length];
+        for( int s = 0; s < students.length; s++ ) {
+            byPlace[priority[s]] = s;
+        }
+        for( int s : byPlace ) {
+            int total = credits[s];
+            int lower = lowerStageCredits[s];
+            int taken = 0;
+
+            for( int k = 0; k < choices[s].length; k++ ) {
+                if( held[s][k] ) {
+                    taken++;
+                    total += moduleCredits[choices[s][k]];
+                    lower += moduleStage[choices[s][k]] != stage[s] ? moduleCredits[choices[s][k]] : 0;
+                }
+            }
+            for( int k = 0; k < choices[s].length; k++ ) {
+                int m = choices[s][k];
+                if( !held[s][k] && taken < limits[s] && spare[m] > 0 && fits( s, m, total, lower ) ) {
+                    held[s][k] = true;
+                    taken++;
+                    spare[m]--;
+                    total += moduleCredits[m];
+                    lower += moduleStage[m] != stage[s] ? moduleCredits[m] : 0;
+                }
+            }
+        }
+    }
+
+    /*
+     * Enrols every student on the modules they hold, as one batch.
+     */
+    private AllocationReport commit( String[] studentIDs, int rounds ) {
+        int rows = 0;
+        for( boolean[] holding : held ) {
+            for( boolean h : holding ) {
+                rows += h ? 1 : 0;
+            }
+        }
+        String[] rowStudents = new String[rows];
+        String[] rowModules = new String[rows];
+        int row = 0;
+
+        for( int s = 0; s < students.length; s++ ) {
+            for( int k = 0; k < choices[s].length; k++ ) {
+                if( held[s][k] ) {
+                    rowStudents[row] = studentIDs[s];
+                    rowModules[row] = modules[choices[s][k]].getCode();
+                    row++;
+                }
+            }
+        }
+        byte[] statuses = manager.enrolAll( rowStudents, rowModules );
+        return new AllocationReport( rowStudents, rowModules, statuses, rounds );
+    }
+
+    private void parallelFor( int count, IntConsumer body ) {
+        pool.submit( () -> IntStream.range( 0, count ).parallel().forEach( body ) ).join();
+    }
+}
@@ -0,0 +1,80 @@
+package university;
+
+import java.io.Serializable;
+
+/**
+ * Outcome of discontinuing a module with
+ * {@link UniversityAllocationManager#discontinueAndReplace}, recording the
+ * module each displaced student was moved to and the students for whom no
+ * alternative could be found. A student who held more than one place on the
+ * module is listed once for each place moved or not replaced.
+ */
+public class ReplacementReport implements Serializable
+{
+    private final String discontinuedCode;
+    private final String[] movedStudentIDs;
+    private final String[] movedToCodes;
+    private final String[] unplacedStudentIDs;
+
+    /**
+     * Constructor for ReplacementReport
+     *
+     * @param discontinuedCode code of the module discontinued
+     * @param movedStudentIDs students moved to another module
+     * @param movedToCodes module each moved student was moved to
+     * @param unplacedStudentIDs students who could not be moved
+     */
+    ReplacementReport( String discontinuedCode, String[] movedStudentIDs, String[] movedToCodes,
+                       String[] unplacedStudentIDs ) {
+        this.discontinuedCode = discontinuedCode;
+        this.movedStudentIDs = movedStudentIDs;
+        this.movedToCodes = movedToCodes;
+        this.unplacedStudentIDs = unplacedStudentIDs;
+    }
+
+    /**
+     * Returns the code of the module discontinued
+     *
+     * @return module code
+     */
+    public String getDiscontinuedCode() {
+        return discontinuedCode;
+    }
+
+    /**
+     * Returns the students moved to another module
+     *
+     * @return IDs of the students moved, in order of ID, once for each place moved
+     */
+    public String[] getMovedStudentIDs() {
+        return movedStudentIDs.clone();
+    }
+
+    /**
+     * Returns the module each moved student was moved to
+     *
+     * @return codes of the modules, matching getMovedStudentIDs
+     */
+    public String[] getMovedToCodes() {
+        return movedToCodes.clone();
+    }
+
+    /**
+     * Returns the students for whom no alternative module could be found
+     *
+     * @return IDs of the students not moved, in order of ID, once for each place not replaced
+     */
+    public String[] getUnplacedStudentIDs() {
+        return unplacedStudentIDs.clone();
+    }
+
+    /**
+     * Returns a one line summary of the replacement
+     *
+     * @return summary of the counts
+     */
+    public String toString() {
+        return discontinuedCode + " discontinued, " + movedStudentIDs.length + " places moved and "
+               + unplacedStudentIDs.length + " could not be placed";
+    }
+}
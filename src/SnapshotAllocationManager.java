@@ -0,0 +1,223 @@
+package university;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.stream.Stream;
+
+/**
+ * A read-only view of a UniversityAllocationManager, pinned to the version
+ * of its contents when {@link UniversityAllocationManager#snapshot} was
+ * called. Every read sees that version, however the manager has changed
+ * since, so a long read such as a report over every student is consistent
+ * without locking out enrolments. Methods which would change the manager
+ * throw UnsupportedOperationException.
+ * <p>
+ * The students, staff and modules returned are the manager's own objects.
+ * Their names, IDs, stages, credits and capacities never change, but their
+ * links and status are live, so the enrolments, teaching staff and
+ * discontinued status of the version should be read through the view.
+ * <p>
+ * The manager preserves what it changes for the view until the view is
+ * closed, so the view should be closed once it has been read.
+ */
+public class SnapshotAllocationManager implements AllocationManager, Closeable
+{
+    private final UniversityAllocationManager manager;
+    private final ManagerVersion version;
+
+    /**
+     * Constructor for SnapshotAllocationManager. Only the manager should
+     * call it, with a version it has opened.
+     *
+     * @param manager manager the version was taken of
+     * @param version version to read
+     */
+    SnapshotAllocationManager( UniversityAllocationManager manager, ManagerVersion version ) {
+        this.manager = manager;
+        this.version = version;
+    }
+
+    /**
+     * Returns the sequence number of the last journalled mutation included
+     * in the view, 0 if the manager is not journalled
+     *
+     * @return journal sequence number of the view
+     */
+    public long getSequence() {
+        return version.getSequence();
+    }
+
+    /**
+     * Returns whether a module was discontinued in the view
+     *
+     * @param moduleCode code of the module
+     * @return true if the module was discontinued
+     * @throws InvalidIDException if the module code is not valid
+     * @throws IDNotRecognisedException if the module was not on the system
+     */
+    public boolean isDiscontinued( String moduleCode ) throws InvalidIDException, IDNotRecognisedException {
+        return version.links( findModule( moduleCode ) ).discontinued;
+    }
+
+    /**
+     * Returns a stream of the students in the view in order of ID, which
+     * may be made parallel
+     *
+     * @return stream of the students
+     */
+    public Stream<Student> streamStudents() {
+        return UniversityAllocationManager.stream( version.getStudents() );
+    }
+
+    /**
+     * Returns a stream of the staff in the view in order of ID, which may
+     * be made parallel
+     *
+     * @return stream of the staff
+     */
+    public Stream<Staff> streamStaff() {
+        return UniversityAllocationManager.stream( version.getStaff() );
+    }
+
+    /**
+     * Returns a stream of the modules in the view in order of code, which
+     * may be made parallel
+     *
+     * @return stream of the modules
+     */
+    public Stream<Module> streamModules() {
+        return UniversityAllocationManager.stream( version.getModules() );
+    }
+
+    /**
+     * Stops the manager preserving changes for the view. The view should not
+     * be read afterwards.
+     */
+    public void close() {
+        manager.close( version );
+    }
+
+    private static UnsupportedOperationException readOnly() {
+        return new UnsupportedOperationException( "A snapshot of the allocation manager is read-only." );
+    }
+
+    private Module findModule( String moduleCode ) throws InvalidIDException, IDNotRecognisedException {
+        UniversityModule.checkValidCode( moduleCode );
+        Module module = (Module) version.getModules().get( moduleCode );
+
+        if( module == null ) {
+            throw new IDNotRecognisedException( "The module code " + moduleCode + " does not exist on the system." );
+        }
+        return module;
+    }
+
+    public String addStudent( String forename, String surname, byte stage ) {
+        throw readOnly();
+    }
+
+    public void addStudent( Student student ) {
+        throw readOnly();
+    }
+
+    public String addModule( String name, byte credits, byte stage, int capacity, Staff[] staff ) {
+        throw readOnly();
+    }
+
+    public void addModule( Module module ) {
+        throw readOnly();
+    }
+
+    public String addStaff( String forename, String surname ) {
+        throw readOnly();
+    }
+
+    public void addStaff( Staff staff ) {
+        throw readOnly();
+    }
+
+    public void discontinue( String moduleCode ) {
+        throw readOnly();
+    }
+
+    public void enrol( String studentID, String moduleCode ) {
+        throw readOnly();
+    }
+
+    public boolean unEnrol( String studentID, String moduleCode ) {
+        throw readOnly();
+    }
+
+    public void loadAllocationManager( String filename ) {
+        throw readOnly();
+    }
+
+    public void saveAllocationManager( String filename ) throws IOException {
+        throw readOnly();
+    }
+
+    public Module[] remove( Staff staff ) {
+        throw readOnly();
+    }
+
+    public void remove( Student student ) {
+        throw readOnly();
+    }
+
+    public int getNumberOfStaff() {
+        return version.getStaff().size();
+    }
+
+    public int getNumberOfStudents() {
+        return version.getStudents().size();
+    }
+
+    public int getNumberOfModules() {
+        return version.getModules().size();
+    }
+
+    public Staff[] getStaff() {
+        return (Staff[]) version.getStaff().contents( new Staff[version.getStaff().size()] );
+    }
+
+    public Staff[] getStaff( String moduleCode ) throws InvalidIDException, IDNotRecognisedException {
+        return version.links( findModule( moduleCode ) ).staff.clone();
+    }
+
+    public Student[] getStudents() {
+        return (Student[]) version.getStudents().contents( new Student[version.getStudents().size()] );
+    }
+
+    public Student[] getStudents( String moduleCode ) throws InvalidIDException, IDNotRecognisedException {
+        return version.links( findModule( moduleCode ) ).students.clone();
+    }
+
+    public Module[] getModules() {
+        return (Module[]) version.getModules().contents( new Module[version.getModules().size()] );
+    }
+
+    public Module[] getRunningModules() {
+        return (Module[]) version.getRunningModules().contents( new Module[version.getRunningModules().size()] );
+    }
+
+    public Module[] getAvailableModules() {
+        return (Module[]) version.getAvailableModules().contents( new Module[version.getAvailableModules().size()] );
+    }
+
+    public Module[] getModules( String studentID ) throws InvalidIDException, IDNotRecognisedException {
+        UniversityStudent.checkValidID( studentID );
+        Object student = version.getStudents().get( studentID );
+
+        if( student == null ) {
+            throw new IDNotRecognisedException( "The student ID " + studentID + " does not exist on the system." );
+        }
+        return version.links( student ).modules.clone();
+    }
+
+    public int getNumberOfFullyAllocatedStudents() {
+        return version.getFullyAllocatedStudents();
+    }
+
+    public int getNumberOfModulesAtCapacity() {
+        return version.getModulesAtCapacity();
+    }
+}
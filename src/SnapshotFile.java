@@ -0,0 +1,651 @@
+package university;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Reads and writes the binary snapshot files used to save a
+ * UniversityAllocationManager. A snapshot is laid out as
+ * <pre>
+ * header | student records | staff records | module records | links | strings | retired IDs
+ * </pre>
+ * Each record section holds fixed size records sorted by ID, with IDs
+ * stored as numbers. Names are offsets into the strings section, and the
+ * modules of a student or staff member, and the students and staff of a
+ * module, are offsets of ID lists in the links section. Links are stored
+ * from both sides, so either side can be read without the other.
+ * <p>
+ * The header starts with MAGIC and VERSION. Readers refuse versions newer
+ * than their own, so the layout can change by raising VERSION. Version 2
+ * added the number of fully allocated students to the header, so it can be
+ * answered without reading the records. Version 3 widened the link counts
+ * of every record from shorts to ints, growing the student record, and
+ * older layouts are still read through the record accessors below. Version
+ * 4 grew the header to add the number of modules at capacity. Version 5
+ * added the staff IDs and module codes retired by removals, so they are
+ * not handed out again after the snapshot is loaded.
+ */
+final class SnapshotFile
+{
+    static final int MAGIC = 0x554E4956;
+    static final short VERSION = 5;
+
+    static final int HEADER_SIZE = 80;
+    static final int STUDENT_RECORD = 28;
+    static final int STAFF_RECORD = 20;
+    static final int MODULE_RECORD = 32;
+
+    //header positions
+    static final int FLAGS = 6;
+    static final int FEISTEL_KEY = 8;
+    static final int FEISTEL_COUNTER = 16;
+    static final int STUDENT_COUNT = 24;
+    static final int STAFF_COUNT = 28;
+    static final int MODULE_COUNT = 32;
+    static final int FULLY_ALLOCATED = 36;
+    static final int LINKS_LENGTH = 40;
+    static final int STRINGS_LENGTH = 48;
+    static final int SEQUENCE = 56;
+    static final int MODULES_AT_CAPACITY = 64;
+    static final int RETIRED_STAFF_COUNT = 68;
+    static final int RETIRED_MODULE_COUNT = 72;
+
+    //set in FLAGS when the student allocator key and counter are stored
+    static final short FEISTEL_STUDENT_IDS = 1;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private SnapshotFile() {
+    }
+
+    /**
+     * Writes the view held by a checkpoint to a snapshot file. The snapshot
+     * is written beside the file and moved over it once complete, so a
+     * failed save leaves any earlier snapshot in place.
+     *
+     * @param checkpoint view of the manager to save
+     * @param filename name (including location) of the file to write
+     * @throws IOException if there is a problem experienced when writing
+     */
+    static void save( Checkpoint checkpoint, String filename ) throws IOException {
+        OrderedIndex students = checkpoint.getStudents();
+        OrderedIndex staff = checkpoint.getStaff();
+        OrderedIndex modules = checkpoint.getModules();
+        Path target = Paths.get( filename );
+        Path temporary = Paths.get( filename + ".tmp" );
+
+        FileChannel channel = FileChannel.open( temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                StandardOpenOption.TRUNCATE_EXISTING );
+        try {
+            ByteBuffer buffer = ByteBuffer.allocateDirect( BUFFER_SIZE );
+            channel.position( HEADER_SIZE );
+            long links = 0;
+            long strings = 0;
+
+            //records, working out where each list and name will go
+            for( Object entry : students ) {
+                Student student = (Student) entry;
+                int enrolled = checkpoint.links( student ).modules.length;
+                buffer = room( channel, buffer, STUDENT_RECORD );
+                buffer.putLong( UniversityStudent.parseID( student.getID() ) );
+                buffer.putInt( (int) strings );
+                strings += stringSize( student.getForename() );
+                buffer.putInt( (int) strings );
+                strings += stringSize( student.getSurname() );
+                buffer.putInt( (int) links );
+                links += 4L * enrolled;
+                buffer.putInt( enrolled );
+                buffer.put( student.getStage() );
+                buffer.put( (byte) 0 );
+                buffer.putShort( (short) 0 );
+            }
+            for( Object entry : staff ) {
+                Staff member = (Staff) entry;
+                int teaching = checkpoint.links( member ).modules.length;
+                buffer = room( channel, buffer, STAFF_RECORD );
+                buffer.putInt( UniversityStaff.parseID( member.getID() ) );
+                buffer.putInt( (int) strings );
+                strings += stringSize( member.getForename() );
+                buffer.putInt( (int) strings );
+                strings += stringSize( member.getSurname() );
+                buffer.putInt( (int) links );
+                links += 4L * teaching;
+                buffer.putInt( teaching );
+            }
+            for( Object entry : modules ) {
+                Module module = (Module) entry;
+                ManagerVersion.Links moduleLinks = checkpoint.links( module );
+                int enrolled = moduleLinks.students.length;
+                int teaching = moduleLinks.staff.length;
+                buffer = room( channel, buffer, MODULE_RECORD );
+                buffer.putInt( UniversityModule.parseCode( module.getCode() ) );
+                buffer.putInt( (int) strings );
+                strings += stringSize( module.getName() );
+                buffer.putInt( module.getCapacity() );
+                buffer.putInt( (int) links );
+                links += 8L * enrolled;
+                buffer.putInt( enrolled );
+                buffer.putInt( (int) links );
+                links += 4L * teaching;
+                buffer.putInt( teaching );
+                buffer.put( module.getCredits() );
+                buffer.put( module.getStage() );
+                buffer.put( (byte) ( moduleLinks.discontinued ? 1 : 0 ) );
+                buffer.put( (byte) 0 );
+            }
+            if( links > Integer.MAX_VALUE || strings > Integer.MAX_VALUE ) {
+                throw new IOException( "Too many links or names to fit in a snapshot." );
+            }
+
+            //links, in the same order as the records
+            for( Object student : students ) {
+                for( Module module : checkpoint.links( student ).modules ) {
+                    buffer = room( channel, buffer, 4 );
+                    buffer.putInt( UniversityModule.parseCode( module.getCode() ) );
+                }
+            }
+            for( Object member : staff ) {
+                for( Module module : checkpoint.links( member ).modules ) {
+                    buffer = room( channel, buffer, 4 );
+                    buffer.putInt( UniversityModule.parseCode( module.getCode() ) );
+                }
+            }
+            for( Object module : modules ) {
+                ManagerVersion.Links moduleLinks = checkpoint.links( module );
+                for( Student student : moduleLinks.students ) {
+                    buffer = room( channel, buffer, 8 );
+                    buffer.putLong( UniversityStudent.parseID( student.getID() ) );
+                }
+                for( Staff member : moduleLinks.staff ) {
+                    buffer = room( channel, buffer, 4 );
+                    buffer.putInt( UniversityStaff.parseID( member.getID() ) );
+                }
+            }
+
+            //names, in the same order as the records
+            for( Object entry : students ) {
+                Student student = (Student) entry;
+                buffer = putString( channel, buffer, student.getForename() );
+                buffer = putString( channel, buffer, student.getSurname() );
+            }
+            for( Object entry : staff ) {
+                Staff member = (Staff) entry;
+                buffer = putString( channel, buffer, member.getForename() );
+                buffer = putString( channel, buffer, member.getSurname() );
+            }
+            for( Object entry : modules ) {
+                buffer = putString( channel, buffer, ( (Module) entry ).getName() );
+            }
+
+            int[] retiredStaff = checkpoint.getRetiredStaffIDs();
+            int[] retiredModules = checkpoint.getRetiredModuleCodes();
+            for( int id : retiredStaff ) {
+                buffer = room( channel, buffer, 4 );
+                buffer.putInt( id );
+            }
+            for( int code : retiredModules ) {
+                buffer = room( channel, buffer, 4 );
+                buffer.putInt( code );
+            }
+            drain( channel, buffer );
+
+            ByteBuffer header = ByteBuffer.allocate( HEADER_SIZE );
+            header.putInt( MAGIC );
+            header.putShort( VERSION );
+            header.putShort( checkpoint.hasFeistelStudentIDs() ? FEISTEL_STUDENT_IDS : (short) 0 );
+            header.putLong( checkpoint.getFeistelKey() );
+            header.putLong( checkpoint.getFeistelCounter() );
+            header.putInt( students.size() );
+            header.putInt( staff.size() );
+            header.putInt( modules.size() );
+            header.putInt( checkpoint.getFullyAllocatedStudents() );
+            header.putLong( links );
+            header.putLong( strings );
+            header.putLong( checkpoint.getSequence() );
+            header.putInt( checkpoint.getModulesAtCapacity() );
+            header.putInt( retiredStaff.length );
+            header.putInt( retiredModules.length );
+            header.putInt( 0 );
+            header.flip();
+            while( header.hasRemaining() ) {
+                channel.write( header, header.position() );
+            }
+            channel.force( true );
+        }
+        finally {
+            channel.close();
+        }
+        Files.move( temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+    }
+
+    /**
+     * Reads a snapshot file into a new manager.
+     *
+     * @param filename name (including location) of the file to read
+     * @return manager holding the contents of the snapshot
+     * @throws IOException if the file cannot be read, or is not a snapshot this
+     *         version can read
+     */
+    static UniversityAllocationManager load( String filename ) throws IOException {
+        ByteBuffer buffer;
+        FileChannel channel = FileChannel.open( Paths.get( filename ), StandardOpenOption.READ );
+        try {
+            if( channel.size() > Integer.MAX_VALUE ) {
+                throw new IOException( "Snapshot " + filename + " is too large to load." );
+            }
+            buffer = ByteBuffer.allocate( (int) channel.size() );
+            while( buffer.hasRemaining() && channel.read( buffer ) >= 0 ) {
+            }
+            buffer.flip();
+        }
+        finally {
+            channel.close();
+        }
+        checkHeader( buffer, filename );
+        return decode( buffer );
+    }
+
+    /**
+     * Checks the buffer starts with a snapshot header of a readable version,
+     * and is long enough to hold the sections the header describes.
+     *
+     * @param buffer snapshot contents
+     * @param filename name of the file, for error messages
+     * @throws IOException if the buffer is not a readable snapshot
+     */
+    static void checkHeader( ByteBuffer buffer, String filename ) throws IOException {
+        if( buffer.limit() < 64 || buffer.getInt( 0 ) != MAGIC || buffer.limit() < headerSize( buffer ) ) {
+            throw new IOException( filename + " is not an allocation manager snapshot." );
+        }
+        if( buffer.getShort( 4 ) > VERSION ) {
+            throw new IOException( "Snapshot " + filename + " is version " + buffer.getShort( 4 )
+                                   + ", only up to version " + VERSION + " can be read." );
+        }
+        if( buffer.limit() < retiredStart( buffer ) + 4L * ( retiredStaffCount( buffer ) + retiredModuleCount( buffer ) ) ) {
+            throw new IOException( "Snapshot " + filename + " is truncated." );
+        }
+    }
+
+    /**
+     * Position of the first staff record.
+     */
+    static long staffStart( ByteBuffer buffer ) {
+        return headerSize( buffer ) + (long) studentRecord( buffer ) * buffer.getInt( STUDENT_COUNT );
+    }
+
+    /**
+     * Position of the first module record.
+     */
+    static long modulesStart( ByteBuffer buffer ) {
+        return staffStart( buffer ) + (long) STAFF_RECORD * buffer.getInt( STAFF_COUNT );
+    }
+
+    /**
+     * Position of the links section.
+     */
+    static long linksStart( ByteBuffer buffer ) {
+        return modulesStart( buffer ) + (long) MODULE_RECORD * buffer.getInt( MODULE_COUNT );
+    }
+
+    /**
+     * Position of the strings section.
+     */
+    static long stringsStart( ByteBuffer buffer ) {
+        return linksStart( buffer ) + buffer.getLong( LINKS_LENGTH );
+    }
+
+    /**
+     * Position of the retired IDs section.
+     */
+    static long retiredStart( ByteBuffer buffer ) {
+        return stringsStart( buffer ) + buffer.getLong( STRINGS_LENGTH );
+    }
+
+    /**
+     * Number of staff IDs retired, none being stored before version 5.
+     */
+    static int retiredStaffCount( ByteBuffer buffer ) {
+        return buffer.getShort( 4 ) < 5 ? 0 : buffer.getInt( RETIRED_STAFF_COUNT );
+    }
+
+    /**
+     * Number of module codes retired, none being stored before version 5.
+     */
+    static int retiredModuleCount( ByteBuffer buffer ) {
+        return buffer.getShort( 4 ) < 5 ? 0 : buffer.getInt( RETIRED_MODULE_COUNT );
+    }
+
+    /*
+     * Snapshots before version 3 hold link counts as shorts.
+     */
+    private static boolean shortCounts( ByteBuffer buffer ) {
+        return buffer.getShort( 4 ) < 3;
+    }
+
+    /**
+     * Size of the header, which grew in versions 4 and 5.
+     */
+    static int headerSize( ByteBuffer buffer ) {
+        short version = buffer.getShort( 4 );
+        return version < 4 ? 64 : version < 5 ? 72 : HEADER_SIZE;
+    }
+
+    /**
+     * Size of each student record.
+     */
+    static int studentRecord( ByteBuffer buffer ) {
+        return shortCounts( buffer ) ? 24 : STUDENT_RECORD;
+    }
+
+    /**
+     * Number of modules the student record at the given position links to.
+     */
+    static int studentModuleCount( ByteBuffer buffer, int record ) {
+        return shortCounts( buffer ) ? buffer.getShort( record + 20 ) : buffer.getInt( record + 20 );
+    }
+
+    /**
+     * Stage of the student record at the given position.
+     */
+    static byte studentStage( ByteBuffer buffer, int record ) {
+        return buffer.get( record + ( shortCounts( buffer ) ? 22 : 24 ) );
+    }
+
+    /**
+     * Number of modules the staff record at the given position links to.
+     */
+    static int staffModuleCount( ByteBuffer buffer, int record ) {
+        return shortCounts( buffer ) ? buffer.getShort( record + 16 ) : buffer.getInt( record + 16 );
+    }
+
+    /**
+     * Number of staff the module record at the given position links to.
+     */
+    static int moduleStaffCount( ByteBuffer buffer, int record ) {
+        return shortCounts( buffer ) ? buffer.getShort( record + 24 ) : buffer.getInt( record + 24 );
+    }
+
+    /**
+     * Credits of the module record at the given position.
+     */
+    static byte moduleCredits( ByteBuffer buffer, int record ) {
+        return buffer.get( record + ( shortCounts( buffer ) ? 26 : 28 ) );
+    }
+
+    /**
+     * Stage of the module record at the given position.
+     */
+    static byte moduleStage( ByteBuffer buffer, int record ) {
+        return buffer.get( record + ( shortCounts( buffer ) ? 27 : 29 ) );
+    }
+
+    /**
+     * Whether the module record at the given position is discontinued.
+     */
+    static boolean moduleDiscontinued( ByteBuffer buffer, int record ) {
+        return buffer.get( record + ( shortCounts( buffer ) ? 28 : 30 ) ) != 0;
+    }
+
+    /**
+     * Reads the name at the given offset of the strings section.
+     *
+     * @param buffer snapshot contents
+     * @param strings position of the strings section
+     * @param offset offset of the name in the section
+     * @return the name
+     */
+    static String getString( ByteBuffer buffer, int strings, int offset ) {
+        int position = strings + offset;
+        byte[] bytes = new byte[buffer.getInt( position )];
+        for( int i = 0; i < bytes.length; i++ ) {
+            bytes[i] = buffer.get( position + 4 + i );
+        }
+        return new String( bytes, StandardCharsets.UTF_8 );
+    }
+
+    /**
+     * Builds a manager from the snapshot contents, creating every entity and
+     * then linking them from the stored ID lists.
+     *
+     * @param buffer snapshot contents, with a header already checked
+     * @return manager holding the contents of the snapshot
+     * @throws IOException if the snapshot holds invalid entries or links
+     */
+    static UniversityAllocationManager decode( ByteBuffer buffer ) throws IOException {
+        int studentCount = buffer.getInt( STUDENT_COUNT );
+        int staffCount = buffer.getInt( STAFF_COUNT );
+        int moduleCount = buffer.getInt( MODULE_COUNT );
+        int staffStart = (int) staffStart( buffer );
+        int modulesStart = (int) modulesStart( buffer );
+        int links = (int) linksStart( buffer );
+        int strings = (int) stringsStart( buffer );
+
+        FeistelIDAllocator studentIDs = ( buffer.getShort( FLAGS ) & FEISTEL_STUDENT_IDS ) != 0
+            ? new FeistelIDAllocator( 100000, buffer.getLong( FEISTEL_KEY ), buffer.getLong( FEISTEL_COUNTER ) )
+            : new FeistelIDAllocator( 100000 );
+        IDAllocator moduleCodes = new BitmapIDAllocator( 1, 99999 );
+        IDAllocator staffIDs = new BitmapIDAllocator( 0, 0xffffe );
+        int retired = (int) retiredStart( buffer );
+        for( int i = 0; i < retiredStaffCount( buffer ); i++ ) {
+            staffIDs.retire( buffer.getInt( retired + 4 * i ) );
+        }
+        retired += 4 * retiredStaffCount( buffer );
+        for( int i = 0; i < retiredModuleCount( buffer ); i++ ) {
+            moduleCodes.retire( buffer.getInt( retired + 4 * i ) );
+        }
+        UniversityAllocationManager manager = new UniversityAllocationManager( studentIDs, moduleCodes, staffIDs );
+
+        long[] studentKeys = new long[studentCount];
+        int[] staffKeys = new int[staffCount];
+        int[] moduleKeys = new int[moduleCount];
+        UniversityStudent[] students = new UniversityStudent[studentCount];
+        UniversityStaff[] staff = new UniversityStaff[staffCount];
+        UniversityModule[] modules = new UniversityModule[moduleCount];
+
+        try {
+            for( int i = 0; i < staffCount; i++ ) {
+                int record = staffStart + i * STAFF_RECORD;
+                staffKeys[i] = buffer.getInt( record );
+                staff[i] = new UniversityStaff( getString( buffer, strings, buffer.getInt( record + 4 ) ),
+                                                getString( buffer, strings, buffer.getInt( record + 8 ) ),
+                                                UniversityStaff.formatID( staffKeys[i] ) );
+                staffIDs.reserve( staffKeys[i] );
+            }
+            for( int i = 0; i < moduleCount; i++ ) {
+                int record = modulesStart + i * MODULE_RECORD;
+                moduleKeys[i] = buffer.getInt( record );
+                modules[i] = new UniversityModule( getString( buffer, strings, buffer.getInt( record + 4 ) ),
+                                                   moduleCredits( buffer, record ), moduleStage( buffer, record ),
+                                                   buffer.getInt( record + 8 ), UniversityModule.formatCode( moduleKeys[i] ) );
+                moduleCodes.reserve( moduleKeys[i] );
+
+                int staffLinks = links + buffer.getInt( record + 20 );
+                for( int j = 0; j < moduleStaffCount( buffer, record ); j++ ) {
+                    modules[i].addStaff( staff[find( staffKeys, buffer.getInt( staffLinks + 4 * j ) )] );
+                }
+                if( moduleDiscontinued( buffer, record ) ) {
+                    modules[i].discontinue();
+                }
+            }
+            for( int i = 0; i < studentCount; i++ ) {
+                int record = headerSize( buffer ) + i * studentRecord( buffer );
+                studentKeys[i] = buffer.getLong( record );
+                students[i] = new UniversityStudent( getString( buffer, strings, buffer.getInt( record + 8 ) ),
+                                                     getString( buffer, strings, buffer.getInt( record + 12 ) ),
+                                                     studentStage( buffer, record ), UniversityStudent.formatID( studentKeys[i] ) );
+                studentIDs.reserve( studentKeys[i] );
+
+                int moduleLinks = links + buffer.getInt( record + 16 );
+                for( int j = 0; j < studentModuleCount( buffer, record ); j++ ) {
+                    students[i].assignModule( modules[find( moduleKeys, buffer.getInt( moduleLinks + 4 * j ) )] );
+                }
+            }
+        }
+        catch( InvalidStageException | InvalidCreditsException | InvalidIDException | IDAlreadySetException
+               | DuplicateStaffException | IDNotSetException | ModuleDiscontinuedException e ) {
+            throw new IOException( "Snapshot holds an invalid entry.", e );
+        }
+
+        //the other side of each link
+        for( int i = 0; i < staffCount; i++ ) {
+            int record = staffStart + i * STAFF_RECORD;
+            int moduleLinks = links + buffer.getInt( record + 12 );
+            for( int j = 0; j < staffModuleCount( buffer, record ); j++ ) {
+                staff[i].addTeachingModule( modules[find( moduleKeys, buffer.getInt( moduleLinks + 4 * j ) )] );
+            }
+        }
+        for( int i = 0; i < moduleCount; i++ ) {
+            int record = modulesStart + i * MODULE_RECORD;
+            int studentLinks = links + buffer.getInt( record + 12 );
+            for( int j = 0; j < buffer.getInt( record + 16 ); j++ ) {
+                modules[i].addStudent( students[find( studentKeys, buffer.getLong( studentLinks + 8 * j ) )] );
+            }
+        }
+
+        ObjectArrayList studentList = new ObjectArrayList();
+        ObjectArrayList staffList = new ObjectArrayList();
+        ObjectArrayList moduleList = new ObjectArrayList();
+        for( UniversityStaff member : staff ) {
+            manager.stageStaff( member );
+            staffList.add( member );
+        }
+        for( UniversityModule module : modules ) {
+            manager.stageModule( module );
+            moduleList.add( module );
+        }
+        for( UniversityStudent student : students ) {
+            manager.stageStudent( student );
+            studentList.add( student );
+        }
+        manager.indexStaged( studentList, staffList, moduleList );
+        manager.setSequence( buffer.getLong( SEQUENCE ) );
+        return manager;
+    }
+
+    /**
+     * Finds the record of a student by binary search of the student records.
+     *
+     * @param buffer snapshot contents
+     * @param id student ID
+     * @return position of the record, or -1 if the student is not held
+     */
+    static int findStudent( ByteBuffer buffer, long id ) {
+        int low = 0;
+        int high = buffer.getInt( STUDENT_COUNT ) - 1;
+
+        while( low <= high ) {
+            int middle = ( low + high ) >>> 1;
+            int record = headerSize( buffer ) + middle * studentRecord( buffer );
+            long key = buffer.getLong( record );
+            if( key < id ) {
+                low = middle + 1;
+            }
+            else if( key > id ) {
+                high = middle - 1;
+            }
+            else {
+                return record;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Finds the record of a staff member or module by binary search of the
+     * records starting at the given position.
+     *
+     * @param buffer snapshot contents
+     * @param start position of the first record
+     * @param size size of each record
+     * @param count number of records
+     * @param id staff ID or module code
+     * @return position of the record, or -1 if the ID is not held
+     */
+    static int findRecord( ByteBuffer buffer, int start, int size, int count, int id ) {
+        int low = 0;
+        int high = count - 1;
+
+        while( low <= high ) {
+            int middle = ( low + high ) >>> 1;
+            int record = start + middle * size;
+            int key = buffer.getInt( record );
+            if( key < id ) {
+                low = middle + 1;
+            }
+            else if( key > id ) {
+                high = middle - 1;
+            }
+            else {
+                return record;
+            }
+        }
+        return -1;
+    }
+
+    /*
+     * Finds the position of an ID in the sorted IDs of a section.
+     */
+    private static int find( long[] keys, long key ) throws IOException {
+        int index = Arrays.binarySearch( keys, key );
+        if( index < 0 ) {
+            throw new IOException( "Snapshot links to student " + key + " which it does not hold." );
+        }
+        return index;
+    }
+
+    private static int find( int[] keys, int key ) throws IOException {
+        int index = Arrays.binarySearch( keys, key );
+        if( index < 0 ) {
+            throw new IOException( "Snapshot links to ID " + key + " which it does not hold." );
+        }
+        return index;
+    }
+
+    private static int stringSize( String value ) {
+        return 4 + value.getBytes( StandardCharsets.UTF_8 ).length;
+    }
+
+    /*
+     * Writes a name as its length followed by its UTF-8 bytes.
+     */
+    private static ByteBuffer putString( FileChannel channel, ByteBuffer buffer, String value ) throws IOException {
+        byte[] bytes = value.getBytes( StandardCharsets.UTF_8 );
+        buffer = room( channel, buffer, 4 );
+        buffer.putInt( bytes.length );
+        int written = 0;
+        while( written < bytes.length ) {
+            buffer = room( channel, buffer, 1 );
+            int length = Math.min( buffer.remaining(), bytes.length - written );
+            buffer.put( bytes, written, length );
+            written += length;
+        }
+        return buffer;
+    }
+
+    /*
+     * Makes sure the buffer has room for the given number of bytes, writing
+     * out what it holds if not.
+     */
+    private static ByteBuffer room( FileChannel channel, ByteBuffer buffer, int bytes ) throws IOException {
+        if( buffer.remaining() < bytes ) {
+            drain( channel, buffer );
+        }
+        return buffer;
+    }
+
+    private static void drain( FileChannel channel, ByteBuffer buffer ) throws IOException {
+        buffer.flip();
+        while( buffer.hasRemaining() ) {
+            channel.write( buffer );
+        }
+        buffer.clear();
+    }
+}
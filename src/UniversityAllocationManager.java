@@ -2,10 +2,15 @@ package university;
 
 import java.io.Serializable;
 import java.io.IOException;
-import java.io.ObjectOutputStream;
-import java.io.FileOutputStream;
-import java.io.FileInputStream;
-import java.io.ObjectInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 
 /**
@@ -19,246 +24,562 @@ import java.io.ObjectInputStream;
 
 public class UniversityAllocationManager implements AllocationManager, Serializable
 {
-private ObjectArrayList students;
-private ObjectArrayList staff;
-private ObjectArrayList modules;
+private OrderedIndex students;
+private OrderedIndex staff;
+private OrderedIndex modules;
+private OrderedIndex runningModules;
+private OrderedIndex availableModules;
+private OrderedIndex[][] availableByStageAndCredits;
+private LongObjectHashMap studentsByID;
+private IntObjectHashMap staffByID;
+private IntObjectHashMap modulesByCode;
+private IDAllocator studentIDs;
+private IDAllocator moduleCodes;
+private IDAllocator staffIDs;
+private AtomicInteger fullyAllocatedStudents;
+private AtomicInteger modulesAtCapacity;
+private final Object indexLock = new Object();
+private MutationJournal journal;
+private Path snapshotFile;
+private long sequence;
+private volatile Checkpoint checkpoint;
+private volatile ManagerVersion[] versions = new ManagerVersion[0];
     
     /**
         * Constructor for the university allocation manager.
      */
     public UniversityAllocationManager() {
-        students = new ObjectArrayList();
-        staff = new ObjectArrayList();
-        modules = new ObjectArrayList();
+        this( new FeistelIDAllocator(100000), new BitmapIDAllocator(1, 99999), new BitmapIDAllocator(0, 0xffffe) );
     }
     
     /**
-        * Binary search current students stored via ID.
+        * Constructor for the university allocation manager, choosing how IDs are allocated.
+        * 
+        * @param studentIDs allocator of student IDs, from 0 to 9999999999
+        * @param moduleCodes allocator of module codes, from 1 to 99999
+        * @param staffIDs allocator of staff IDs, from 0 to 0xffffe
+     */
+    public UniversityAllocationManager( IDAllocator studentIDs, IDAllocator moduleCodes, IDAllocator staffIDs ) {
+        this.studentIDs = studentIDs;
+        this.moduleCodes = moduleCodes;
+        this.staffIDs = staffIDs;
+        students = new OrderedIndex();
+        staff = new OrderedIndex();
+        modules = new OrderedIndex();
+        runningModules = new OrderedIndex();
+        availableModules = new OrderedIndex();
+        availableByStageAndCredits = new OrderedIndex[5][121];
+        studentsByID = new LongObjectHashMap();
+        staffByID = new IntObjectHashMap();
+        modulesByCode = new IntObjectHashMap();
+        fullyAllocatedStudents = new AtomicInteger();
+        modulesAtCapacity = new AtomicInteger();
+    }
+    
+    /**
+        * Look up a student stored on the system via ID.
         * 
         * @param ID student ID to search
         * 
         * @returns UniversityStudent stored on system if existent, else null.
      */
-    private UniversityStudent binarySearchStudentID( String ID ){
-        int lowerBound = 0;
-        int upperBound = students.size() - 1;
-        String currentIndexValue;
-       
-        while (upperBound >= lowerBound){
-            int currentIndex = (lowerBound + upperBound) / 2;
-            currentIndexValue = (String)( (Student) students.get(currentIndex) ).getID();
-            
-            if( currentIndexValue.compareTo(ID) == 0 ){
-                return (UniversityStudent)students.get(currentIndex);
-            }
-            if( currentIndexValue.compareTo(ID) < 0){
-                lowerBound = currentIndex + 1;
-            }
-            if( currentIndexValue.compareTo(ID) > 0){
-                upperBound = currentIndex - 1;
-            }
-        }
-        return null;
+    UniversityStudent findStudent( String ID ){
+        return (UniversityStudent)studentsByID.get( UniversityStudent.parseID(ID) );
     }
     
     /**
-        * Binary search current staff stored via ID.
+        * Look up a staff member stored on the system via ID.
         * 
         * @param ID staff ID to search
         * 
         * @returns UniversityStaff stored on system if existent, else null.
      */
-    private UniversityStaff binarySearchStaffID( String ID ){
-        int lowerBound = 0;
-        int upperBound = staff.size() - 1;
-        String currentIndexValue;
-       
-        while (upperBound >= lowerBound){
-            int currentIndex = (lowerBound + upperBound) /2;
-            currentIndexValue = (String)( (Staff) staff.get(currentIndex) ).getID();
-            
-            if( currentIndexValue.compareTo(ID) == 0 ){
-                return (UniversityStaff)staff.get(currentIndex);
-            }
-            if( currentIndexValue.compareTo(ID) < 0){
-                lowerBound = currentIndex + 1;
-            }
-            if( currentIndexValue.compareTo(ID) > 0){
-                upperBound = currentIndex - 1;
-            }
-        }
-        return null;
+    UniversityStaff findStaff( String ID ){
+        return (UniversityStaff)staffByID.get( UniversityStaff.parseID(ID) );
     }
     
     /**
-        * Binary search current modules stored via code.
+        * Look up a module stored on the system via code.
         * 
         * @param code module code to search
         * 
         * @returns UniversityModule stored on system if existent, else null.
      */
-    private UniversityModule binarySearchModuleCode( String code ){
-        int lowerBound = 0;
-        int upperBound = modules.size() - 1;
-        String currentIndexValue;
-       
-        while (upperBound >= lowerBound){
-            int currentIndex = (lowerBound + upperBound) /2;
-            currentIndexValue = (String)( (Module) modules.get(currentIndex) ).getCode();
-            
-            if( currentIndexValue.compareTo(code) == 0 ){
-                return (UniversityModule)modules.get(currentIndex);
-            }
-            if( currentIndexValue.compareTo(code) < 0){
-                lowerBound = currentIndex + 1;
-            }
-            if( currentIndexValue.compareTo(code) > 0){
-                upperBound = currentIndex - 1;
-            }
+    UniversityModule findModule( String code ){
+        return (UniversityModule)modulesByCode.get( UniversityModule.parseCode(code) );
+    }
+    
+    /**
+        * Store a student on the system, indexed by ID.
+        * 
+        * @param student student to store
+     */
+    private void insertStudent( UniversityStudent student ) {
+        if( journal != null ) {
+            journal.addStudent( UniversityStudent.parseID(student.getID()), student.getStage(), student.getForename(), student.getSurname() );
+        }
+        students.insert( student.getID(), student );
+        studentsByID.put( UniversityStudent.parseID(student.getID()), student );
+    }
+    
+    /**
+        * Store a staff member on the system, indexed by ID.
+        * 
+        * @param staff staff to store
+     */
+    private void insertStaff( UniversityStaff staff ) {
+        if( journal != null ) {
+            journal.addStaff( UniversityStaff.parseID(staff.getID()), staff.getForename(), staff.getSurname() );
+        }
+        this.staff.insert( staff.getID(), staff );
+        staffByID.put( UniversityStaff.parseID(staff.getID()), staff );
+    }
+    
+    /**
+        * Store a module on the system, indexed by code.
+        * 
+        * @param module module to store
+     */
+    private void insertModule( UniversityModule module ) {
+        logModule( module );
+        modules.insert( module.getCode(), module );
+        modulesByCode.put( UniversityModule.parseCode(module.getCode()), module );
+        moduleChanged( module, false, false );
+    }
+    
+    /**
+        * Record a module being added in the journal, if there is one.
+        * 
+        * @param module module being added
+     */
+    private void logModule( UniversityModule module ) {
+        if( journal != null ) {
+            journal.addModule( UniversityModule.parseCode(module.getCode()), module.getName(), module.getCredits(), 
+                                          module.getStage(), module.getCapacity(), module.teachingStaffView() );
+        }
+    }
+    
+    /**
+        * Get the allocator of student IDs, so its state can be saved.
+        * 
+        * @returns allocator of student IDs
+     */
+    IDAllocator getStudentIDAllocator() {
+        return studentIDs;
+    }
+    
+    /**
+        * Get the sequence number of the last journalled mutation included in the contents.
+        * 
+        * @returns journal sequence number of the contents
+     */
+    long getSequence() {
+        return journal != null ? journal.getSequence() : sequence;
+    }
+    
+    /**
+        * Set the sequence number of the last journalled mutation included in the contents, as 
+        * when loading a snapshot or replaying a journal.
+        * 
+        * @param sequence journal sequence number of the contents
+     */
+    void setSequence( long sequence ) {
+        this.sequence = sequence;
+    }
+    
+    /**
+        * Get the journal mutations are recorded in, so it can be closed.
+        * 
+        * @returns the journal, or null if mutations are not being journalled
+     */
+    public MutationJournal getJournal() {
+        return journal;
+    }
+    
+    /**
+        * Wait for the mutations journalled so far, by any thread, to reach disk, before returning 
+        * to the caller.
+     */
+    void commit() {
+        if( journal != null ) {
+            journal.commit( journal.getSequence() );
         }
-        return null;
     }
     
     /**
-        * Binary insert a student into the manager in order of ID string lexographical ordering.
+        * Rebuild a manager from its last snapshot and the journal of the mutations made since, 
+        * as after a crash, then carry on recording mutations in the same journal. Each mutating 
+        * call returns once its journal record is on disk, with concurrent callers sharing the 
+        * writes as described by {@link MutationJournal}. Each time a snapshot is then saved or 
+        * checkpointed to the same snapshot file, the journal records it holds are dropped, so 
+        * the journal only grows with the mutations made since the last snapshot.
         * 
-        * @param student student to insert
+        * @param snapshotFile snapshot written by saveAllocationManager, which need not exist yet
+        * @param journalFile journal file, which need not exist yet
+        * @param commitInterval longest time in milliseconds a journal record waits for others to 
+        *        be written with it
+        * @param batchSize number of journal records which are written as soon as they are waiting
+        * @returns the rebuilt manager
+        * @throws IOException if the snapshot or journal cannot be read
      */
-    private void binaryInsertStudent( UniversityStudent student ) {
-     
-       if (students.size() == 0) {
-           students.add(student);
-           return;
-       }
-       int lowerBound = 0;
-       int upperBound = students.size() - 1;
-       int currentIndex = 0;
-       String currentIndexValue;
+    public static UniversityAllocationManager recover( String snapshotFile, String journalFile, long commitInterval, int batchSize ) 
+    throws IOException {
+        UniversityAllocationManager manager = new UniversityAllocationManager();
         
-       while (true) {
-            currentIndex = (upperBound + lowerBound) / 2;
-            currentIndexValue = (String)( (Student)students.get(currentIndex) ).getID();
-            if ( currentIndexValue.compareTo( student.getID() ) == 0 ) {
-                break;
-            } else if ( currentIndexValue.compareTo( student.getID() ) < 0 ) {
-                lowerBound = currentIndex + 1; 
-                if ( lowerBound > upperBound ) {
-                    currentIndex += 1;
-                    break;
-                }
-            } else {
-                upperBound = currentIndex - 1; 
-                if ( lowerBound > upperBound )
-                    break;
-            }
-       }
-   
-       ObjectArrayList newArray = new ObjectArrayList();
-       for( int i=0; i<currentIndex; i++ ) {
-           newArray.add( students.get(i) );
-       }
-       newArray.add( student );
-       for( int i=currentIndex; i<students.size(); i++ ) {
-           newArray.add( students.get(i) );
-       }
-   
-       students = newArray;
+        if( Files.exists(Paths.get(snapshotFile)) ) {
+            manager = SnapshotFile.load( snapshotFile );
+        }
+        MutationJournal.replay( journalFile, manager );
+        manager.journal = new MutationJournal( journalFile, commitInterval, batchSize );
+        manager.journal.advanceTo( manager.sequence );
+        manager.snapshotFile = Paths.get(snapshotFile).toAbsolutePath().normalize();
+        return manager;
+    }
+    
+    /**
+        * Drop the journal records held by a snapshot now on disk, if it is the snapshot the 
+        * manager is recovered from.
+        * 
+        * @param filename snapshot file written
+        * @param sequence journal sequence number of the snapshot
+        * @throws IOException if the journal cannot be rewritten
+     */
+    private void truncateJournal( String filename, long sequence ) throws IOException {
+        if( journal != null && Paths.get(filename).toAbsolutePath().normalize().equals( snapshotFile ) ) {
+            journal.truncateThrough( sequence );
+        }
+    }
+    
+    /**
+        * Add a student read back from the journal, keeping the ID it was given.
+        * 
+        * @param ID student ID, as a number
+        * @param forename forename of the student
+        * @param surname surname of the student
+        * @param stage stage of the student
+     */
+    void restoreStudent( long ID, String forename, String surname, byte stage ) 
+    throws InvalidStageException, InvalidIDException, IDAlreadySetException {
+        if( studentsByID.get(ID) != null ) {
+            throw new IDAlreadySetException( "Student ID: " + UniversityStudent.formatID(ID) + " is already in the system." );
+        }
+        UniversityStudent student = new UniversityStudent( forename, surname, stage, UniversityStudent.formatID(ID) );
+        studentIDs.reserve( ID );
+        insertStudent( student );
+    }
+    
+    /**
+        * Add a staff member read back from the journal, keeping the ID they were given.
+        * 
+        * @param ID staff ID, as a number
+        * @param forename forename of the staff member
+        * @param surname surname of the staff member
+     */
+    void restoreStaff( int ID, String forename, String surname ) throws InvalidIDException, IDAlreadySetException {
+        if( staffByID.get(ID) != null ) {
+            throw new IDAlreadySetException( "Staff ID: " + UniversityStaff.formatID(ID) + " is already in the system." );
+        }
+        UniversityStaff staff = new UniversityStaff( forename, surname, UniversityStaff.formatID(ID) );
+        staffIDs.reserve( ID );
+        insertStaff( staff );
     }
     
     /**
-        * Binary insert a module into the manager in order of code string lexographical ordering.
+        * Add a module read back from the journal, keeping the code it was given and linking it 
+        * with its teaching staff.
         * 
-        * @param module module to insert
+        * @param code module code, as a number
+        * @param name module name
+        * @param credits credits of the module
+        * @param stage stage of the module
+        * @param capacity capacity of the module
+        * @param staffIDs IDs of the teaching staff, as numbers
      */
-    private void binaryInsertModule( UniversityModule module ) {
-     
-       if ( modules.size() == 0 ) {
-           modules.add(module);
-           return;
-       }
-       int lowerBound = 0;
-       int upperBound = modules.size() - 1;
-       int currentIndex = 0;
-       String currentIndexValue;
+    void restoreModule( int code, String name, byte credits, byte stage, int capacity, int[] staffIDs ) 
+    throws InvalidStageException, InvalidCreditsException, InvalidCapacityException, 
+    DuplicateStaffException, StaffNotInSystemException, IDAlreadySetException {
+        if( modulesByCode.get(code) != null ) {
+            throw new IDAlreadySetException( "Module code: " + UniversityModule.formatCode(code) + " is already in the system." );
+        }
+        Staff[] staff = new Staff[staffIDs.length];
         
-       while (true) {
-            currentIndex = (upperBound + lowerBound) / 2;
-            currentIndexValue = (String)( (Module)modules.get(currentIndex) ).getCode();
-            if ( currentIndexValue.compareTo( module.getCode() ) == 0 ) {
-                break;
-            } else if ( currentIndexValue.compareTo( module.getCode() ) < 0 ) {
-                lowerBound = currentIndex + 1; 
-                if ( lowerBound > upperBound ) {
-                    currentIndex += 1;
-                    break;
-                }
-            } else {
-                upperBound = currentIndex - 1; 
-                if ( lowerBound > upperBound )
-                    break;
+        for( int i=0; i<staffIDs.length; i++ ) {
+            staff[i] = (Staff)staffByID.get( staffIDs[i] );
+            if( staff[i] == null ) {
+                throw new StaffNotInSystemException( "Staff ID: " + UniversityStaff.formatID(staffIDs[i]) + " of module " + name + " is not in the system." );
             }
-       }
-   
-       ObjectArrayList newArray = new ObjectArrayList();
-       for( int i=0; i<currentIndex; i++ ) {
-           newArray.add( modules.get(i) );
-       }
-       newArray.add( module );
-       for( int i=currentIndex; i<modules.size(); i++ ) {
-           newArray.add( modules.get(i) );
-       }
-   
-       modules = newArray;
+        }
+        UniversityModule module = createModule( name, credits, stage, capacity, staff, UniversityModule.formatCode(code) );
+        moduleCodes.reserve( code );
+        insertModule( module );
+    }
+    
+    /**
+        * Make a student being bulk imported findable by ID, ahead of it being added to the 
+        * ordered index by indexStaged.
+        * 
+        * @param student student to stage
+     */
+    void stageStudent( UniversityStudent student ) {
+        if( journal != null ) {
+            journal.addStudent( UniversityStudent.parseID(student.getID()), student.getStage(), student.getForename(), student.getSurname() );
+        }
+        studentsByID.put( UniversityStudent.parseID(student.getID()), student );
+        studentChanged( student, false );
+    }
+    
+    /**
+        * Make a staff member being bulk imported findable by ID, ahead of it being added to the 
+        * ordered index by indexStaged.
+        * 
+        * @param staff staff to stage
+     */
+    void stageStaff( UniversityStaff staff ) {
+        if( journal != null ) {
+            journal.addStaff( UniversityStaff.parseID(staff.getID()), staff.getForename(), staff.getSurname() );
+        }
+        staffByID.put( UniversityStaff.parseID(staff.getID()), staff );
+    }
+    
+    /**
+        * Make a module being bulk imported findable by code, ahead of it being added to the 
+        * ordered index by indexStaged.
+        * 
+        * @param module module to stage
+     */
+    void stageModule( UniversityModule module ) {
+        logModule( module );
+        modulesByCode.put( UniversityModule.parseCode(module.getCode()), module );
+        moduleChanged( module, false, false );
+    }
+    
+    /**
+        * Add staged students, staff and modules to the ordered indexes, sorting each batch and 
+        * merging it in with a single rebuild of each index.
+        * 
+        * @param students staged students
+        * @param staff staged staff
+        * @param modules staged modules
+     */
+    void indexStaged( ObjectArrayList students, ObjectArrayList staff, ObjectArrayList modules ) {
+        Object[] batch = students.contents();
+        Arrays.sort( batch, (a, b) -> ((Student)a).getID().compareTo( ((Student)b).getID() ) );
+        String[] keys = new String[batch.length];
+        for( int i=0; i<batch.length; i++ ) {
+            keys[i] = ((Student)batch[i]).getID();
+        }
+        this.students.insertAll( keys, batch );
+        
+        batch = staff.contents();
+        Arrays.sort( batch, (a, b) -> ((Staff)a).getID().compareTo( ((Staff)b).getID() ) );
+        keys = new String[batch.length];
+        for( int i=0; i<batch.length; i++ ) {
+            keys[i] = ((Staff)batch[i]).getID();
+        }
+        this.staff.insertAll( keys, batch );
+        
+        batch = modules.contents();
+        Arrays.sort( batch, (a, b) -> ((Module)a).getCode().compareTo( ((Module)b).getCode() ) );
+        keys = new String[batch.length];
+        for( int i=0; i<batch.length; i++ ) {
+            keys[i] = ((Module)batch[i]).getCode();
+        }
+        this.modules.insertAll( keys, batch );
+    }
+    
+    /**
+        * Link a student to a module on which a seat has been claimed, keeping the counts of full 
+        * students and modules up to date.
+        * 
+        * @param student student to enrol
+        * @param module module to enrol the student on
+        * @param seats number of seats taken on the module once the seat was claimed
+     */
+    private void link( UniversityStudent student, UniversityModule module, int seats ) {
+        preserve( student );
+        preserve( module );
+        boolean studentWasFull = student.getTotalCredits() == 120;
+        
+        student.assignModule( module );
+        module.addToRoster( student );
+        //however the student got the seat, they no longer need to wait for one
+        if( module.getWaitlistLength() > 0 ) {
+            module.leaveWaitlist( student );
+        }
+        studentChanged( student, studentWasFull );
+        //only the claim which took the last seat fills the module
+        if( seats == module.getCapacity() ) {
+            capacityChanged( module, true );
+        }
+    }
+    
+    /**
+        * Unlink a student from a module, keeping the counts of full students and modules up to date.
+        * 
+        * @param student student to unenrol
+        * @param module module to unenrol the student from
+     */
+    private void unlink( UniversityStudent student, UniversityModule module ) {
+        preserve( student );
+        preserve( module );
+        boolean studentWasFull = student.getTotalCredits() == 120;
+        
+        module.removeFromRoster( student );
+        student.removeModule( module );
+        studentChanged( student, studentWasFull );
+        if( module.releaseSeat() + 1 == module.getCapacity() ) {
+            capacityChanged( module, false );
+        }
+    }
+    
+    /**
+        * Keep the links of an entity as they are for each open version (the snapshots being 
+        * read and the checkpoint being written), before they are changed.
+        * 
+        * @param entity student, staff or module about to change
+     */
+    private void preserve( Object entity ) {
+        for( ManagerVersion version : versions ) {
+            version.preserve( entity );
+        }
+    }
+    
+    /**
+        * Start preserving links for a version just taken, before anything else changes.
+        * 
+        * @param version version just taken
+     */
+    private synchronized void open( ManagerVersion version ) {
+        ManagerVersion[] opened = Arrays.copyOf( versions, versions.length + 1 );
+        opened[versions.length] = version;
+        versions = opened;
     }
     
     /**
-        * Binary insert a staff member into the manager in order of ID string lexographical ordering.
+        * Stop preserving links for a version which is no longer read.
         * 
-        * @param staff staff to insert
+        * @param version version to close
      */
-    private void binaryInsertStaff( UniversityStaff staff ) {
-     
-       if (this.staff.size() == 0) {
-           this.staff.add(staff);
-           return;
-       }
-       int lowerBound = 0;
-       int upperBound = this.staff.size() - 1;
-       int currentIndex;
-       String currentIndexValue;
+    synchronized void close( ManagerVersion version ) {
+        ManagerVersion[] open = versions;
         
-       while (true) {
-            currentIndex = (upperBound + lowerBound) / 2;
-            currentIndexValue = (String)( (Staff)this.staff.get(currentIndex) ).getID();
-            if ( currentIndexValue.compareTo( staff.getID() ) == 0 ) {
+        for( int i=0; i<open.length; i++ ) {
+            if( open[i] == version ) {
+                ManagerVersion[] remaining = Arrays.copyOf( open, open.length - 1 );
+                System.arraycopy( open, i + 1, remaining, i, open.length - i - 1 );
+                versions = remaining;
                 break;
-            } else if ( currentIndexValue.compareTo( staff.getID() ) < 0 ) {
-                lowerBound = currentIndex + 1; 
-                if ( lowerBound > upperBound ) {
-                    currentIndex += 1;
-                    break;
-                }
-            } else {
-                upperBound = currentIndex - 1; 
-                if ( lowerBound > upperBound )
-                    break;
             }
-       }
-   
-       ObjectArrayList newArray = new ObjectArrayList();
-       for( int i=0; i<currentIndex; i++ ) {
-           newArray.add( this.staff.get(i) );
-       }
-       newArray.add( staff );
-       for( int i=currentIndex; i<this.staff.size(); i++ ) {
-           newArray.add( this.staff.get(i) );
-       }
-   
-       this.staff = newArray;
+        }
+        version.retire();
+    }
+    
+    /**
+        * Freeze the indexes and counts of the contents as they are now. Running and available 
+        * modules are frozen under the index lock, so no enrolment is changing them.
+        * 
+        * @returns the frozen version, which preserves no links until it is opened
+     */
+    private Checkpoint capture() {
+        synchronized( indexLock ) {
+            return new Checkpoint( students, staff, modules, runningModules, availableModules, getSequence(), 
+                                   fullyAllocatedStudents.get(), modulesAtCapacity.get(), studentIDs, staffIDs, moduleCodes );
+        }
+    }
+    
+    /**
+        * Update the count of fully allocated students after a student's credits have changed.
+        * 
+        * @param student student whose credits have changed
+        * @param wasFull whether the student had 120 credits before the change
+     */
+    private void studentChanged( UniversityStudent student, boolean wasFull ) {
+        boolean isFull = student.getTotalCredits() == 120;
+        
+        if( isFull != wasFull ) {
+            fullyAllocatedStudents.addAndGet( isFull ? 1 : -1 );
+        }
     }
     
+    /**
+        * Update the count of modules at capacity, and the running and available module indexes 
+        * (including the available modules bucketed by stage and credits), after a module's 
+        * enrolments or status have changed.
+        * 
+        * @param module module which has changed
+        * @param wasFull whether the module was at capacity before the change
+        * @param wasRunning whether the module was not discontinued before the change
+     */
+    private void moduleChanged( UniversityModule module, boolean wasFull, boolean wasRunning ) {
+        boolean isFull = module.isAtCapacity();
+        boolean isRunning = !module.isDiscontinued();
+        
+        if( isFull != wasFull ) {
+            modulesAtCapacity.addAndGet( isFull ? 1 : -1 );
+        }
+        if( isRunning != wasRunning || isRunning && isFull != wasFull ) {
+            reindex( module );
+        }
+    }
     
+    /**
+        * Update the count of modules at capacity and the module indexes after a seat claim has 
+        * filled a module, or a seat release has freed a full one.
+        * 
+        * @param module module which has filled or freed up
+        * @param isFull whether the module is now at capacity
+     */
+    private void capacityChanged( UniversityModule module, boolean isFull ) {
+        modulesAtCapacity.addAndGet( isFull ? 1 : -1 );
+        if( !module.isDiscontinued() ) {
+            reindex( module );
+        }
+    }
     
+    /**
+        * Make the running and available module indexes, and the bucket of available modules of 
+        * the module's stage and credits, agree with whether the module is running and available 
+        * now. Seats on a module are claimed and released without a lock, so a thread which 
+        * fills a module may get here after one which has freed it again. Whichever thread comes 
+        * last, it indexes the module as it is by then.
+        * 
+        * @param module module to reindex
+     */
+    private void reindex( UniversityModule module ) {
+        //enrolments on different modules may get here at once, so the shared indexes are locked
+        synchronized( indexLock ) {
+            String code = module.getCode();
+            boolean isRunning = !module.isDiscontinued();
+            boolean isAvailable = isRunning && !module.isAtCapacity();
+            boolean wasRunning = runningModules.get( code ) != null;
+            boolean wasAvailable = availableModules.get( code ) != null;
+            
+            if( isRunning != wasRunning ) {
+                if( isRunning ) {
+                    runningModules.insert( code, module );
+                }
+                else {
+                    runningModules.remove( code );
+                }
+            }
+            if( isAvailable != wasAvailable ) {
+                OrderedIndex bucket = availableByStageAndCredits[module.getStage()][module.getCredits()];
+                
+                if( isAvailable ) {
+                    availableModules.insert( code, module );
+                    if( bucket == null ) {
+                        bucket = new OrderedIndex();
+                        availableByStageAndCredits[module.getStage()][module.getCredits()] = bucket;
+                    }
+                    bucket.insert( code, module );
+                }
+                else {
+                    availableModules.remove( code );
+                    bucket.remove( code );
+                }
+            }
+        }
+    }
     
     /**
         * @inheritDoc
@@ -278,7 +599,8 @@ private ObjectArrayList modules;
             e.printStackTrace();
         }
 
-        binaryInsertStudent( student );
+        insertStudent( student );
+        commit();
         return student.getID();
     }
     
@@ -309,7 +631,8 @@ private ObjectArrayList modules;
             throw new IDAlreadySetException( "Student already has ID: " + student.getID() + " and so cannot be added to the system." );
         }
         
-        binaryInsertStudent( uniStudent );
+        insertStudent( uniStudent );
+        commit();
     }
     
     
@@ -319,23 +642,41 @@ private ObjectArrayList modules;
         * @returns random student ID
      */
     private String generateStudentID() {
-        String num1 = Integer.toString((int)(Math.random() * 99999 + 0));
-        String num2 = Integer.toString((int)(Math.random() * 99999 + 1));
-        String ID = num1 + num2;
+        long ID = studentIDs.allocate();
         
-        int zeros = 10 - ID.length();
-        while( zeros > 0 ) {
-            ID = "0" + ID;
-            zeros--;
+        while( studentsByID.get(ID) != null ) {
+            //only possible if IDs were loaded from elsewhere, so try the next
+            ID = studentIDs.allocate();
         }
+        return UniversityStudent.formatID( ID );
+    }
+    
+    /**
+        * Generate a block of random student IDs at once, such as for a bulk import.
+        * 
+        * @param count number of IDs to generate
+        * @returns block of unused student IDs
+     */
+    String[] generateStudentIDs( int count ) {
+        long[] IDs = studentIDs.allocate( count );
+        String[] block = new String[count];
         
-        if( binarySearchStudentID(ID) != null ) {
-            //try again if the random ID generated was already an existent in manager
-            return generateStudentID();
+        for( int i=0; i<count; i++ ) {
+            while( studentsByID.get(IDs[i]) != null ) {
+                IDs[i] = studentIDs.allocate();
+            }
+            block[i] = UniversityStudent.formatID( IDs[i] );
         }
-        
-        assert ID != null;
-        return ID;
+        return block;
+    }
+    
+    /**
+        * Return a generated student ID which has not been used.
+        * 
+        * @param ID student ID to release
+     */
+    void releaseStudentID( String ID ) {
+        studentIDs.release( UniversityStudent.parseID(ID) );
     }
     
     /**
@@ -343,6 +684,23 @@ private ObjectArrayList modules;
      */
     public String addModule(String name, byte credits, byte stage, int capacity, Staff[] staff) 
     throws InvalidStageException, InvalidCreditsException, InvalidCapacityException, 
+    DuplicateStaffException, StaffNotInSystemException { 
+        
+        UniversityModule module = createModule( name, credits, stage, capacity, staff, null );
+        insertModule( module );
+        commit();
+        return module.getCode();
+    }
+    
+    /**
+        * Validate and build a module as addModule does, linking it with its teaching staff, 
+        * without storing it on the system.
+        * 
+        * @param code code to give the module, or null to generate one once the module is valid
+        * @returns the module built
+     */
+    UniversityModule createModule(String name, byte credits, byte stage, int capacity, Staff[] staff, String code) 
+    throws InvalidStageException, InvalidCreditsException, InvalidCapacityException, 
     DuplicateStaffException, StaffNotInSystemException { 
    
         if( capacity < 1 ) {
@@ -358,18 +716,17 @@ private ObjectArrayList modules;
         }
 
 
-        UniversityModule module = null;
-        String moduleCode = generateModuleCode();
-         
         for( Staff staffToAdd : staff ) {
-            if( binarySearchStaffID(staffToAdd.getID()) == null )  {
+            if( findStaff(staffToAdd.getID()) == null )  {
                 throw new StaffNotInSystemException( "Attempted to add staff member '" + staffToAdd.getForename() + " " + staffToAdd.getSurname() + 
                                                      "' who does not exist in the system onto module: " + name );
             }
         }
         
+        //only take a code once the module is known to be valid, so none is used up on failure
+        UniversityModule module = new UniversityModule( name, credits, stage, capacity );
         try {
-            module = new UniversityModule( name, credits, stage, capacity, moduleCode );
+            module.setCode( code != null ? code : generateModuleCode() );
         }
         catch( InvalidIDException e ) {
             e.printStackTrace();
@@ -380,7 +737,7 @@ private ObjectArrayList modules;
         
         
         for( Staff staffToAdd : staff ) {
-            UniversityStaff staffInSystem = binarySearchStaffID( staffToAdd.getID() );
+            UniversityStaff staffInSystem = findStaff( staffToAdd.getID() );
             try {
                 module.addStaff( staffInSystem );
             }
@@ -390,11 +747,10 @@ private ObjectArrayList modules;
             catch( ModuleDiscontinuedException e ) {
                 e.printStackTrace();
             }
+            preserve( staffInSystem );
             staffInSystem.addTeachingModule( module );
         }
-                
-        binaryInsertModule( module );
-        return module.getCode();
+        return module;
     }
     
     /**
@@ -426,7 +782,8 @@ private ObjectArrayList modules;
             throw new IDAlreadySetException( "Module already has code: " + module.getCode() + " and so cannot be added to the system." );
         }
         
-        binaryInsertModule( uniModule );
+        insertModule( uniModule );
+        commit();
     }
     
     /**
@@ -435,21 +792,40 @@ private ObjectArrayList modules;
         * @returns random module code
      */
     public String generateModuleCode() {
-        String code = Integer.toString((int)(Math.random() * 99999 + 1));
+        int code = (int)moduleCodes.allocate();
         
-        int zeros = 5 - code.length();
-        while( zeros > 0 ) {
-            code = "0" + code;
-            zeros--;
+        while( modulesByCode.get(code) != null ) {
+            code = (int)moduleCodes.allocate();
         }
+        return UniversityModule.formatCode( code );
+    }
+    
+    /**
+        * Generate a block of random module codes at once, such as for a bulk import.
+        * 
+        * @param count number of codes to generate
+        * @returns block of unused module codes
+     */
+    String[] generateModuleCodes( int count ) {
+        long[] codes = moduleCodes.allocate( count );
+        String[] block = new String[count];
         
-        if( binarySearchModuleCode(code) != null ) {
-            //try again
-            return generateModuleCode();
+        for( int i=0; i<count; i++ ) {
+            while( modulesByCode.get((int)codes[i]) != null ) {
+                codes[i] = moduleCodes.allocate();
+            }
+            block[i] = UniversityModule.formatCode( (int)codes[i] );
         }
-        
-        assert code != null;
-        return code;
+        return block;
+    }
+    
+    /**
+        * Return a generated module code which has not been used.
+        * 
+        * @param code module code to release
+     */
+    void releaseModuleCode( String code ) {
+        moduleCodes.release( UniversityModule.parseCode(code) );
     }
     
     /**
@@ -469,7 +845,8 @@ private ObjectArrayList modules;
             e.printStackTrace();
         }
 
-        binaryInsertStaff( staff );
+        insertStaff( staff );
+        commit();
         return staff.getID();
     }
     
@@ -494,7 +871,8 @@ private ObjectArrayList modules;
             throw new IDAlreadySetException( "Staff member already has ID: " + staff.getID() + " and so cannot be added to the system." );
         }
         
-        binaryInsertStaff( uniStaff );
+        insertStaff( uniStaff );
+        commit();
     }
     
     /**
@@ -503,21 +881,40 @@ private ObjectArrayList modules;
         * @returns random staff ID
      */
     public String generateStaffID(){
-        String ID = Integer.toHexString((int)(Math.random() * 1048575 + 0));
+        int ID = (int)staffIDs.allocate();
         
-        int zeros = 5 - ID.length();
-        while( zeros > 0 ) {
-            ID = "0" + ID;
-            zeros--;
+        while( staffByID.get(ID) != null ){
+            ID = (int)staffIDs.allocate();
         }
+        return UniversityStaff.formatID( ID );
+    }
+    
+    /**
+        * Generate a block of random staff IDs at once, such as for a bulk import.
+        * 
+        * @param count number of IDs to generate
+        * @returns block of unused staff IDs
+     */
+    String[] generateStaffIDs( int count ) {
+        long[] IDs = staffIDs.allocate( count );
+        String[] block = new String[count];
         
-        if( binarySearchStaffID(ID) != null ){
-            //try again
-            return generateStaffID();
+        for( int i=0; i<count; i++ ) {
+            while( staffByID.get((int)IDs[i]) != null ) {
+                IDs[i] = staffIDs.allocate();
+            }
+            block[i] = UniversityStaff.formatID( (int)IDs[i] );
         }
-        
-        assert ID != null;
-        return ID;
+        return block;
+    }
+    
+    /**
+        * Return a generated staff ID which has not been used.
+        * 
+        * @param ID staff ID to release
+     */
+    void releaseStaffID( String ID ) {
+        staffIDs.release( UniversityStaff.parseID(ID) );
     }
     
     /**
@@ -526,84 +923,669 @@ private ObjectArrayList modules;
     public void discontinue(String moduleCode) throws InvalidIDException, 
     IDNotRecognisedException {
         UniversityModule.checkValidCode(moduleCode);
-        UniversityModule module = binarySearchModuleCode(moduleCode);
+        UniversityModule module = findModule(moduleCode);
         
         if( module == null ) {
             throw new IDNotRecognisedException( "Module code: " + moduleCode + " not found in the system." );
         }
-        Student[] students = module.getStudents();
+        discontinue( module );
+        commit();
+    }
+    
+    /**
+        * Discontinue a module, journalling it without waiting for the journal to reach disk.
+        * 
+        * @param module module to discontinue
+     */
+    private void discontinue( UniversityModule module ) {
+        if( journal != null ) {
+            journal.discontinue( UniversityModule.parseCode(module.getCode()) );
+        }
+        //the roster is only replaced once every student has been unlinked, so it is read in place
+        preserve( module );
         
-        for( int i=0; i<students.length; i++ ) {
-            UniversityStudent student = ( (UniversityStudent) students[i] );
+        for( Student enrolled : module.studentsView() ) {
+            UniversityStudent student = (UniversityStudent) enrolled;
+            preserve( student );
+            boolean studentWasFull = student.getTotalCredits() == 120;
             student.removeModule( module );
+            studentChanged( student, studentWasFull );
         }   
         
-        Staff[] staff = module.getTeachingStaff();
-        for( Staff staffMember : staff ) {
+        for( Staff staffMember : module.teachingStaffView() ) {
+            preserve( staffMember );
             ( (UniversityStaff) staffMember ).removeTeachingModule( module );
         }
+        boolean moduleWasFull = module.isAtCapacity();
+        boolean moduleWasRunning = !module.isDiscontinued();
         module.discontinue();
+        moduleChanged( module, moduleWasFull, moduleWasRunning );
     }
     
     /**
-        * @inheritDoc
+        * Discontinue the module matching the moduleCode as discontinue does, then move the students 
+        * displaced from it onto alternative modules of the same credit value, so they are not left 
+        * short of credits. The alternatives are the available modules of that credit value, which 
+        * students rank with those at the stage of the module first, as they stand in for it most 
+        * closely, and then by free seats, most first. A student is given at most as many as the 
+        * places they held on the module, by the deferred acceptance of {@link PreferenceAllocator}, 
+        * with a lottery seeded by the module code choosing between students for the last seats. 
+        * Alternatives a student is already on, or could not take under the rules of enrol, such as 
+        * a module at a higher stage than theirs, are skipped. The discontinue 
+        * and the moves are journalled as one batch through enrolAll, with a single commit at 
+        * the end. The journal gives no atomicity across records though: its flusher may write 
+        * the discontinue to disk before the moves, so after a crash before the commit, recovery 
+        * may replay the discontinue with only some or none of the moves, leaving students short 
+        * of credits as plain discontinue does.
+        * 
+        * @param moduleCode module code of the module to discontinue
+        * @returns report of the module each displaced student was moved to, and who could not be placed
+        * @throws InvalidIDException if the module code is not valid
+        * @throws IDNotRecognisedException if the module code does not exist on the system
      */
-    public void enrol(String studentID, String moduleCode) throws InvalidIDException, 
-    IDNotRecognisedException, ModuleAtCapacityException, 
-    InsufficientAvailableCreditsException, ModuleDiscontinuedException,
-    ModuleStageTooHighException, EnrollingWouldPreventHonoursException { 
+    public ReplacementReport discontinueAndReplace(String moduleCode) throws InvalidIDException, 
+    IDNotRecognisedException {
+        UniversityModule.checkValidCode(moduleCode);
+        UniversityModule module = findModule(moduleCode);
         
-        UniversityStudent.checkValidID( studentID );
-        UniversityModule.checkValidCode( moduleCode );
-
-        UniversityStudent student = binarySearchStudentID(studentID);
-        UniversityModule module = binarySearchModuleCode(moduleCode);
+        if( module == null ) {
+            throw new IDNotRecognisedException( "Module code: " + moduleCode + " not found in the system." );
+        }
+        //the roster is in order of ID, so a student holding more than one place is listed together
+        Student[] roster = module.getStudents();
+        String[] displaced = new String[roster.length];
+        int[] lost = new int[roster.length];
+        int count = 0;
+        for( int i=0; i<roster.length; i++ ) {
+            if( i == 0 || roster[i] != roster[i-1] ) {
+                displaced[count++] = roster[i].getID();
+            }
+            lost[count-1]++;
+        }
+        displaced = Arrays.copyOf( displaced, count );
+        lost = Arrays.copyOf( lost, count );
+        //committed along with the moves by enrolAll, or on the way out if the allocation fails
+        discontinue( module );
+        
+        Module[] alternatives = new Module[0];
+        synchronized( indexLock ) {
+            for( OrderedIndex[] byCredits : availableByStageAndCredits ) {
+                OrderedIndex bucket = byCredits[module.getCredits()];
+                if( bucket != null && bucket.size() > 0 ) {
+                    int from = alternatives.length;
+                    alternatives = Arrays.copyOf( alternatives, from + bucket.size() );
+                    System.arraycopy( (Module[])bucket.contents( new Module[bucket.size()] ), 0, alternatives, from, bucket.size() );
+                }
+            }
+        }
+        //the sort is stable, so modules at the same stage with as many free seats stay in order of stage and code
+        int stage = module.getStage();
+        Arrays.sort( alternatives, ( a, b ) -> a.getStage() == stage ^ b.getStage() == stage ? ( a.getStage() == stage ? -1 : 1 )
+                                               : Integer.compare( freeSeats( b ), freeSeats( a ) ) );
+        String[] ranked = new String[alternatives.length];
+        for( int i=0; i<alternatives.length; i++ ) {
+            ranked[i] = alternatives[i].getCode();
+        }
+        String[][] preferences = new String[count][];
+        Arrays.fill( preferences, ranked );
+        
+        AllocationReport allocation;
+        try {
+            allocation = new PreferenceAllocator( this, 1, UniversityModule.parseCode(moduleCode), 1 )
+                .allocate( displaced, preferences, lost );
+        }
+        catch( RuntimeException | InvalidIDException | IDNotRecognisedException e ) {
+            commit();
+            throw e;
+        }
+        
+        String[] movedStudents = allocation.getStudentIDs();
+        String[] movedTo = allocation.getModuleCodes();
+        byte[] statuses = allocation.getStatuses();
+        String[] moved = new String[roster.length];
+        String[] codes = new String[roster.length];
+        int movedCount = 0;
+        for( int i=0; i<statuses.length; i++ ) {
+            if( statuses[i] == EnrolmentStatus.ENROLLED ) {
+                moved[movedCount] = movedStudents[i];
+                codes[movedCount++] = movedTo[i];
+            }
+        }
+        //both lists are in order of ID, so the places not replaced are found in one pass
+        String[] unplaced = new String[roster.length - movedCount];
+        int unplacedCount = 0;
+        for( int i=0, j=0; i<count; i++ ) {
+            int replaced = 0;
+            while( j < movedCount && moved[j].equals( displaced[i] ) ) {
+                j++;
+                replaced++;
+            }
+            for( ; replaced < lost[i]; replaced++ ) {
+                unplaced[unplacedCount++] = displaced[i];
+            }
+        }
+        return new ReplacementReport( moduleCode, Arrays.copyOf( moved, movedCount ), Arrays.copyOf( codes, movedCount ), 
+                                      Arrays.copyOf( unplaced, unplacedCount ) );
+    }
+    
+    private static int freeSeats( Module module ) {
+        return module.getCapacity() - ( (UniversityModule)module ).studentsView().size();
+    }
+    
+    /**
+        * @inheritDoc
+     */
+    public void enrol(String studentID, String moduleCode) throws InvalidIDException, 
+    IDNotRecognisedException, ModuleAtCapacityException, 
+    InsufficientAvailableCreditsException, ModuleDiscontinuedException,
+    ModuleStageTooHighException, EnrollingWouldPreventHonoursException { 
+        
+        throwFor( tryEnrol( studentID, moduleCode ), studentID, moduleCode );
+    }
+    
+    /**
+        * Throw the exception enrol declares for an {@link EnrolmentStatus} code, if any.
+        * 
+        * @param status outcome of enrolling the student on the module
+        * @param studentID ID of student enrolled
+        * @param moduleCode module code of module enrolled on
+     */
+    static void throwFor( byte status, String studentID, String moduleCode ) throws InvalidIDException, 
+    IDNotRecognisedException, ModuleAtCapacityException, 
+    InsufficientAvailableCreditsException, ModuleDiscontinuedException,
+    ModuleStageTooHighException, EnrollingWouldPreventHonoursException { 
+        
+        switch( status ) {
+            case EnrolmentStatus.INVALID_ID:
+                UniversityStudent.checkValidID( studentID );
+                UniversityModule.checkValidCode( moduleCode );
+                break;
+            case EnrolmentStatus.ID_NOT_RECOGNISED:
+                throw new IDNotRecognisedException( "The student ID : " + studentID + " or the module code: " + moduleCode + 
+                " does not reference a student or module on the system.");
+            case EnrolmentStatus.MODULE_AT_CAPACITY:
+                throw new ModuleAtCapacityException( "The module with code: " + moduleCode + " is at capacity and cannot enrol students" );
+            case EnrolmentStatus.INSUFFICIENT_AVAILABLE_CREDITS:
+                throw new InsufficientAvailableCreditsException( "The student with ID: " + studentID + " does not have enough credits left to enrol onto module with code : " 
+                + moduleCode );
+            case EnrolmentStatus.MODULE_DISCONTINUED:
+                throw new ModuleDiscontinuedException( "The module with code: " + moduleCode + " is discontinued and so cannot enrol students" );
+            case EnrolmentStatus.MODULE_STAGE_TOO_HIGH:
+                throw new ModuleStageTooHighException( "The module with code: " + moduleCode + " is of a higher stage than student with ID: " + studentID );
+            case EnrolmentStatus.ENROLLING_WOULD_PREVENT_HONOURS:
+                throw new EnrollingWouldPreventHonoursException( "Enrolling student with ID: " + studentID + " to module with code: " + moduleCode
+                + "would give the student more than 30 credits at a lower stage, preventing honours.");
+        }
+    }
+    
+    /**
+        * Enrol the student matching the studentID on the module matching the moduleCode, checking 
+        * the same rules as enrol in the same order. Instead of throwing, the outcome is returned 
+        * as an {@link EnrolmentStatus} code, and nothing is allocated when the enrolment is rejected.
+        * 
+        * @param studentID ID of student to be enrolled
+        * @param moduleCode module code of module the student is to be enrolled on
+        * @returns ENROLLED if the student was enrolled, otherwise the EnrolmentStatus code of the 
+        *          first rule broken, the manager being left unchanged
+     */
+    public byte tryEnrol( String studentID, String moduleCode ) {
+        byte status = enrolRow( studentID, moduleCode );
+        commit();
+        return status;
+    }
+    
+    /**
+        * Enrol as tryEnrol does, without waiting for the journal to reach disk.
+        * 
+        * @param studentID ID of student to be enrolled
+        * @param moduleCode module code of module the student is to be enrolled on
+        * @returns ENROLLED if the student was enrolled, otherwise the EnrolmentStatus code of the 
+        *          first rule broken
+     */
+    byte enrolRow( String studentID, String moduleCode ) {
+        long studentKey = UniversityStudent.parseID( studentID );
+        int moduleKey = UniversityModule.parseCode( moduleCode );
+        
+        if( studentKey < 0 || moduleKey < 0 ) {
+            return EnrolmentStatus.INVALID_ID;
+        }
+        UniversityStudent student = (UniversityStudent)studentsByID.get( studentKey );
+        UniversityModule module = (UniversityModule)modulesByCode.get( moduleKey );
         
         if( student == null || module == null ) {
-            throw new IDNotRecognisedException( "The student ID : " + studentID + " or the module code: " + moduleCode + 
-            " does not reference a student or module on the system.");
+            return EnrolmentStatus.ID_NOT_RECOGNISED;
         }
+        byte status = checkEnrol( student, module );
         
-        if( module.isAtCapacity() ) {
-            throw new ModuleAtCapacityException( "The module with code: " + moduleCode + " is at capacity and cannot enrol students" );
+        if( status != EnrolmentStatus.ENROLLED ) {
+            return status;
+        }
+        //a seat freed while students are waiting belongs to the waitlist, however briefly it is 
+        //free before promote fills it
+        if( module.getWaitlistLength() > 0 ) {
+            return EnrolmentStatus.MODULE_AT_CAPACITY;
+        }
+        //the rules on the student's side cannot change under the caller, but other students may 
+        //take the last seat on the module since it was checked
+        return admit( student, module, studentKey, moduleKey, module.claimSeat() );
+    }
+    
+    /**
+        * Enrol a student on a module in a seat claimed for them, journalling the enrolment.
+        * 
+        * @param student student to be enrolled, who has passed the rules of enrol
+        * @param module module the student is to be enrolled on
+        * @param studentKey numeric ID of the student
+        * @param moduleKey numeric code of the module
+        * @param seats result of claimSeat on the module
+        * @returns ENROLLED if the student was enrolled, MODULE_AT_CAPACITY if no seat was claimed
+     */
+    private byte admit( UniversityStudent student, UniversityModule module, long studentKey, int moduleKey, int seats ) {
+        if( seats < 0 ) {
+            return EnrolmentStatus.MODULE_AT_CAPACITY;
         }
+        if( journal != null ) {
+            try {
+                journal.enrol( studentKey, moduleKey );
+            }
+            catch( RuntimeException e ) {
+                module.releaseSeat();
+                throw e;
+            }
+        }
+        link( student, module, seats );
+        return EnrolmentStatus.ENROLLED;
+    }
+    
+    /**
+        * Enrol the student matching the studentID on the module matching the moduleCode, or if 
+        * the module is at capacity, put the student at the back of the module's waitlist instead 
+        * of turning them away. A student already waiting for the module keeps their place rather 
+        * than joining again. Waiting students are offered seats in the order they joined as 
+        * seats are freed by unEnrol or remove(Student), skipping any who can no longer take the 
+        * module. Waitlists are kept in memory only: promotions are journalled as enrolments, but 
+        * the waitlists themselves are not saved in snapshots or the journal.
+        * 
+        * @param studentID ID of student to be enrolled
+        * @param moduleCode module code of module the student is to be enrolled on
+        * @returns true if the student was enrolled, false if they were put on the waitlist
+     */
+    public boolean enrolOrWaitlist(String studentID, String moduleCode) throws InvalidIDException, 
+    IDNotRecognisedException, InsufficientAvailableCreditsException, ModuleDiscontinuedException,
+    ModuleStageTooHighException, EnrollingWouldPreventHonoursException { 
         
-        if( student.getTotalCredits() + module.getCredits() > 120 ) {
-            throw new InsufficientAvailableCreditsException( "The student with ID: " + studentID + " does not have enough credits left to enrol onto module with code : " 
-            + moduleCode );
+        byte status = enrolOrWaitlistRow( studentID, moduleCode );
+        commit();
+        return waitlisted( status, studentID, moduleCode );
+    }
+    
+    /**
+        * Throw the exception enrolOrWaitlist declares for an {@link EnrolmentStatus} code, if any.
+        * 
+        * @param status outcome of enrolling the student on the module
+        * @param studentID ID of student enrolled
+        * @param moduleCode module code of module enrolled on
+        * @returns true if the student was enrolled, false if they were put on the waitlist
+     */
+    static boolean waitlisted( byte status, String studentID, String moduleCode ) throws InvalidIDException, 
+    IDNotRecognisedException, InsufficientAvailableCreditsException, ModuleDiscontinuedException,
+    ModuleStageTooHighException, EnrollingWouldPreventHonoursException { 
+        
+        if( status == EnrolmentStatus.WAITLISTED ) {
+            return false;
+        }
+        try {
+            throwFor( status, studentID, moduleCode );
+        }
+        catch( ModuleAtCapacityException e ) {
+            throw new IllegalStateException( "A student turned away by a full module should have been waitlisted.", e );
         }
+        return true;
+    }
+    
+    /**
+        * Enrol or waitlist as enrolOrWaitlist does, without waiting for the journal to reach disk.
+        * 
+        * @param studentID ID of student to be enrolled
+        * @param moduleCode module code of module the student is to be enrolled on
+        * @returns ENROLLED or WAITLISTED, otherwise the EnrolmentStatus code of the first rule broken
+     */
+    byte enrolOrWaitlistRow( String studentID, String moduleCode ) {
+        byte status = enrolRow( studentID, moduleCode );
         
-        if( module.isDiscontinued() ) {
-            throw new ModuleDiscontinuedException( "The module with code: " + moduleCode + " is discontinued and so cannot enrol students" );
+        if( status == EnrolmentStatus.MODULE_AT_CAPACITY ) {
+            findModule( moduleCode ).addToWaitlist( findStudent( studentID ) );
+            status = EnrolmentStatus.WAITLISTED;
+        }
+        return status;
+    }
+    
+    /**
+        * Offer the free seats on a module to its waitlist in order, taking off the list anyone 
+        * no longer allowed to take the module. Each student is taken off the front in O(1) 
+        * time, and the roster is never scanned.
+        * 
+        * @param module module which may have free seats
+     */
+    private void promote( UniversityModule module ) {
+        UniversityStudent student;
+        
+        while( !module.isAtCapacity() && ( student = module.peekWaitlist() ) != null ) {
+            promote( module, student );
         }
+    }
+    
+    /**
+        * Offer a free seat on a module to the student at the front of its waitlist, if they still 
+        * are, taking them off the list if they are no longer allowed to take the module. Only 
+        * the student need be held by the caller: the seat is claimed by compare-and-set as 
+        * enrol claims one, and the waitlist is guarded by the module's own monitor.
+        * 
+        * @param module module which may have a free seat
+        * @param student student at the front of the module's waitlist
+     */
+    void promote( UniversityModule module, UniversityStudent student ) {
+        if( module.peekWaitlist() != student ) {
+            return;
+        }
+        if( checkRules( student, module ) != EnrolmentStatus.ENROLLED ) {
+            module.leaveWaitlist( student );
+            return;
+        }
+        admit( student, module, UniversityStudent.parseID(student.getID()), 
+            UniversityModule.parseCode(module.getCode()), module.claimSeatFromWaitlist( student ) );
+    }
+    
+    /**
+        * Get the students waiting for a seat on the module matching the moduleCode, in the order 
+        * they will be offered seats.
+        * 
+        * @param moduleCode module code of module
+        * @returns students on the module's waitlist
+        * @throws InvalidIDException if the module code is not valid
+        * @throws IDNotRecognisedException if the module code does not exist on the system
+     */
+    public Student[] getWaitlist(String moduleCode) throws InvalidIDException, IDNotRecognisedException { 
+        UniversityModule.checkValidCode( moduleCode );
+        UniversityModule module = findModule(moduleCode);
         
+        if( module == null ) {
+            throw new IDNotRecognisedException( "The module code " + moduleCode + " does not exist on the system.");
+        }
+        return module.getWaitlist();
+    }
+    
+    /**
+        * Check whether a student may be enrolled on a module, applying the rules of enrol in order.
+        * 
+        * @param student student to be enrolled
+        * @param module module the student is to be enrolled on
+        * @returns ENROLLED if the student may be enrolled, otherwise the {@link EnrolmentStatus} 
+        *          of the first rule broken
+     */
+    private byte checkEnrol( UniversityStudent student, UniversityModule module ) {
+        if( module.isAtCapacity() ) {
+            return EnrolmentStatus.MODULE_AT_CAPACITY;
+        }
+        return checkRules( student, module );
+    }
+    
+    /**
+        * Check the rules of enrol after capacity, for a student offered a seat from a waitlist.
+        * 
+        * @param student student to be enrolled
+        * @param module module the student is to be enrolled on
+        * @returns ENROLLED if the student may be enrolled, otherwise the {@link EnrolmentStatus} 
+        *          of the first rule broken
+     */
+    private byte checkRules( UniversityStudent student, UniversityModule module ) {
+        if( student.getTotalCredits() + module.getCredits() > 120 ) {
+            return EnrolmentStatus.INSUFFICIENT_AVAILABLE_CREDITS;
+        }
+        if( module.isDiscontinued() ) {
+            return EnrolmentStatus.MODULE_DISCONTINUED;
+        }
         if( module.getStage() > student.getStage() ) {
-            throw new ModuleStageTooHighException( "The module with code: " + moduleCode + " is of a higher stage than student with ID: " + studentID );
+            return EnrolmentStatus.MODULE_STAGE_TOO_HIGH;
+        }
+        if( module.getStage() != student.getStage() && module.getCredits() + student.getLowerStageCredits() > 30 ) {
+            return EnrolmentStatus.ENROLLING_WOULD_PREVENT_HONOURS;
         }
+        return EnrolmentStatus.ENROLLED;
+    }
     
-        if( module.getStage() != student.getStage() ) {
-            if( module.getCredits() + student.getLowerStageCredits() > 30 ) {
-                throw new EnrollingWouldPreventHonoursException( "Enrolling student with ID: " + studentID + " to module with code: " + moduleCode
-                + "would give the student more than 30 credits at a lower stage, preventing honours.");
+    /**
+        * Enrol a batch of students on modules, where row i pairs studentIDs[i] with moduleCodes[i]. 
+        * Rows are checked against the rules of enrol, in the same order, and grouped by module, 
+        * so the seats each module needs are claimed in one step and the enrolments on it are 
+        * journalled as one record. The modules are taken in order of code, and the rows for each 
+        * module in the order given, so where a module has fewer free seats than rows for it, the 
+        * rows given first get the seats, as they would calling enrol for each row in turn. A 
+        * student whose rows would take them past their credits keeps the modules with the lowest 
+        * codes rather than those given first. Instead of throwing, the result of each row is 
+        * reported as an {@link EnrolmentStatus} code, and failed rows leave the manager unchanged.
+        * 
+        * @param studentIDs IDs of students to be enrolled
+        * @param moduleCodes codes of the modules to enrol each student on
+        * @returns the EnrolmentStatus code of each row
+     */
+    public byte[] enrolAll( String[] studentIDs, String[] moduleCodes ) {
+        byte[] results = new byte[studentIDs.length];
+        long[] studentKeys = new long[studentIDs.length];
+        long[] rows = groupByModule( studentIDs, moduleCodes, studentKeys, results );
+        
+        for( int from=0, to; from<rows.length; from=to ) {
+            to = endOfGroup( rows, from );
+            enrolGroup( rows, from, to, studentKeys, results );
+        }
+        //the whole batch goes to disk together
+        commit();
+        return results;
+    }
+    
+    /**
+        * Parse the IDs of a batch of enrolments, marking rows with invalid IDs as INVALID_ID, and 
+        * order the other rows by module code, keeping the order given within each module. Each 
+        * row is returned as its module code in the high half of a long and its index in the low.
+        * 
+        * @param studentIDs IDs of students to be enrolled
+        * @param moduleCodes codes of the modules to enrol each student on
+        * @param studentKeys filled with the numeric ID of each row's student
+        * @param results filled with INVALID_ID for each row with an invalid ID
+        * @returns the valid rows, grouped by module
+     */
+    static long[] groupByModule( String[] studentIDs, String[] moduleCodes, long[] studentKeys, byte[] results ) {
+        if( studentIDs.length != moduleCodes.length ) {
+            throw new IllegalArgumentException( studentIDs.length + " student IDs given for " + moduleCodes.length + " module codes." );
+        }
+        long[] rows = new long[studentIDs.length];
+        int count = 0;
+        
+        for( int i=0; i<studentIDs.length; i++ ) {
+            studentKeys[i] = UniversityStudent.parseID( studentIDs[i] );
+            int moduleKey = UniversityModule.parseCode( moduleCodes[i] );
+            
+            if( studentKeys[i] < 0 || moduleKey < 0 ) {
+                results[i] = EnrolmentStatus.INVALID_ID;
+            }
+            else {
+                rows[count++] = (long)moduleKey << 32 | i;
             }
         }
+        //the index in the low half keeps the sort stable
+        rows = Arrays.copyOf( rows, count );
+        Arrays.sort( rows );
+        return rows;
+    }
+    
+    /**
+        * Find the end of the group of rows for the same module starting at from.
+        * 
+        * @param rows rows returned by groupByModule
+        * @param from first row of the group
+        * @returns the index after the last row of the group
+     */
+    static int endOfGroup( long[] rows, int from ) {
+        int to = from + 1;
+        while( to < rows.length && rows[to] >>> 32 == rows[from] >>> 32 ) {
+            to++;
+        }
+        return to;
+    }
+    
+    /**
+        * Enrol the rows of a batch for one module, claiming the seats they need at once and 
+        * journalling the enrolments as one record, without waiting for the journal to reach disk.
+        * 
+        * @param rows rows returned by groupByModule
+        * @param from first row for the module
+        * @param to index after the last row for the module
+        * @param studentKeys numeric ID of each row's student
+        * @param results filled with the EnrolmentStatus code of each row
+     */
+    void enrolGroup( long[] rows, int from, int to, long[] studentKeys, byte[] results ) {
+        int moduleKey = (int)( rows[from] >>> 32 );
+        UniversityModule module = (UniversityModule)modulesByCode.get( moduleKey );
+        UniversityStudent[] students = new UniversityStudent[to - from];
+        int wanted = 0;
         
-        student.assignModule( module );
-        module.addStudent( student );
+        for( int i=from; i<to; i++ ) {
+            int row = (int)rows[i];
+            students[i - from] = (UniversityStudent)studentsByID.get( studentKeys[row] );
+            
+            if( students[i - from] == null || module == null ) {
+                students[i - from] = null;
+                results[row] = EnrolmentStatus.ID_NOT_RECOGNISED;
+            }
+            else if( module.getWaitlistLength() > 0 ) {
+                //as in enrolRow, a free seat belongs to the waitlist
+                results[row] = checkEnrol( students[i - from], module );
+                if( results[row] == EnrolmentStatus.ENROLLED ) {
+                    results[row] = EnrolmentStatus.MODULE_AT_CAPACITY;
+                }
+                students[i - from] = null;
+            }
+            else if( checkRules( students[i - from], module ) == EnrolmentStatus.ENROLLED ) {
+                wanted++;
+            }
+        }
+        //earlier rows of the group can only take a student's credits up, so no more seats than 
+        //these are needed
+        int before = wanted > 0 ? module.claimSeats( wanted ) : 0;
+        int claimed = wanted > 0 ? Math.max( 0, Math.min( wanted, module.getCapacity() - before ) ) : 0;
+        boolean full = wanted > 0 ? claimed < wanted : module != null && module.isAtCapacity();
+        long[] enrolled = new long[claimed];
+        int linked = 0;
+        
+        for( int i=from; i<to; i++ ) {
+            int row = (int)rows[i];
+            UniversityStudent student = students[i - from];
+            
+            if( student == null ) {
+                continue;
+            }
+            //once the seats claimed run out the module is full, which enrol checks first
+            if( linked == claimed && full ) {
+                results[row] = EnrolmentStatus.MODULE_AT_CAPACITY;
+                continue;
+            }
+            results[row] = checkRules( student, module );
+            if( results[row] == EnrolmentStatus.ENROLLED ) {
+                //the seats are counted once the group is linked
+                link( student, module, 0 );
+                enrolled[linked++] = studentKeys[row];
+            }
+        }
+        if( linked < claimed ) {
+            module.releaseSeats( claimed - linked );
+        }
+        else if( claimed > 0 && before + claimed == module.getCapacity() ) {
+            capacityChanged( module, true );
+        }
+        if( journal != null && linked > 0 ) {
+            try {
+                journal.enrolAll( moduleKey, enrolled, linked );
+            }
+            catch( RuntimeException e ) {
+                for( int i=from; i<to; i++ ) {
+                    if( students[i - from] != null && results[(int)rows[i]] == EnrolmentStatus.ENROLLED ) {
+                        unlink( students[i - from], module );
+                    }
+                }
+                throw e;
+            }
+        }
+    }
+    
+    /**
+        * Add the students, staff and modules listed in a CSV file, streaming through the file 
+        * so only the entities themselves are kept in memory. IDs are generated in blocks, and 
+        * the new entries are merged into the ordered indexes once at the end. Rows which cannot 
+        * be added are reported rather than aborting the import. See {@link CSVImporter} for the 
+        * file format.
+        * 
+        * @param filename name (including location) of the CSV file
+        * @returns report of how many entries were added and of each row which failed
+        * @throws IOException if there is a problem experienced when reading the file
+     */
+    public ImportReport importCSV( String filename ) throws IOException {
+        try {
+            return new CSVImporter( this ).importFile( filename );
+        }
+        finally {
+            commit();
+        }
     }
     
     /**
+        * Allocate students to modules from ranked preferences collected from all of them, instead 
+        * of enrolling them in the order the preferences arrived. Students are placed in a random 
+        * lottery, and seats are allocated by deferred acceptance across the given number of 
+        * threads as described by {@link PreferenceAllocator}, keeping to each module's capacity, 
+        * the 120 credit limit and the honours rule. Preferences for modules a student could 
+        * never take are ignored. The allocation is committed as one batch through enrolAll.
+        * 
+        * @param studentIDs IDs of the students to allocate, each given once
+        * @param preferences codes of the modules each student wants, most wanted first
+        * @param threads number of threads to make the allocation with
+        * @param seed seed of the lottery, the same seed giving the same allocation
+        * @returns report of the enrolments made
+        * @throws InvalidIDException if a student ID or module code is not valid
+        * @throws IDNotRecognisedException if a student or module is not on the system
+     */
+    public AllocationReport allocate( String[] studentIDs, String[][] preferences, int threads, long seed ) throws 
+    InvalidIDException, IDNotRecognisedException {
+        return new PreferenceAllocator( this, threads, seed, Integer.MAX_VALUE ).allocate( studentIDs, preferences );
+    }
+    
+    /**
+        * Replaces the contents with those of a binary snapshot written by saveAllocationManager. 
+        * If the file cannot be read the contents are left unchanged.
+        * 
         * @inheritDoc
      */
     public void loadAllocationManager(String filename) throws IOException, 
     ClassNotFoundException { 
-        UniversityAllocationManager manager = null ;
-        FileInputStream fileInput = null ;
-        ObjectInputStream objectInput = null ;
-        fileInput = new FileInputStream ( filename );
-        objectInput = new ObjectInputStream ( fileInput );
-        manager = (UniversityAllocationManager)objectInput.readObject();
-        objectInput.close ();
+        if( journal != null ) {
+            throw new IllegalStateException( "Cannot load over a journalled manager, as the journal would no longer match its contents." );
+        }
+        UniversityAllocationManager manager = SnapshotFile.load( filename );
+        
+        students = manager.students;
+        staff = manager.staff;
+        modules = manager.modules;
+        runningModules = manager.runningModules;
+        availableModules = manager.availableModules;
+        availableByStageAndCredits = manager.availableByStageAndCredits;
+        studentsByID = manager.studentsByID;
+        staffByID = manager.staffByID;
+        modulesByCode = manager.modulesByCode;
+        studentIDs = manager.studentIDs;
+        moduleCodes = manager.moduleCodes;
+        staffIDs = manager.staffIDs;
+        fullyAllocatedStudents = manager.fullyAllocatedStudents;
+        modulesAtCapacity = manager.modulesAtCapacity;
+        sequence = manager.sequence;
     }
 
     /**
@@ -631,12 +1613,7 @@ private ObjectArrayList modules;
         * @inheritDoc
      */
     public Staff[] getStaff()  {
-        Staff[] staff = new Staff[this.staff.size()];
-        
-        for( int i=0; i<this.staff.size(); i++ ) {
-            staff[i] = (Staff)this.staff.get(i);
-        }
-        return staff;
+        return (Staff[])this.staff.contents( new Staff[this.staff.size()] );
     }
     
     /**
@@ -646,7 +1623,7 @@ private ObjectArrayList modules;
     IDNotRecognisedException  { 
         
         UniversityModule.checkValidCode( moduleCode );
-        UniversityModule module = binarySearchModuleCode(moduleCode);
+        UniversityModule module = findModule(moduleCode);
         
         if( module == null ) {
             throw new IDNotRecognisedException( "The module code " + moduleCode + " does not exist on the system.");
@@ -658,12 +1635,7 @@ private ObjectArrayList modules;
         * @inheritDoc
      */
     public Student[] getStudents() { 
-        Student[] students = new Student[this.students.size()];
-        
-        for( int i=0; i<this.students.size(); i++ ) {
-            students[i] = (Student)this.students.get(i);
-        }
-        return students;
+        return (Student[])this.students.contents( new Student[this.students.size()] );
     }
     
     /**
@@ -673,7 +1645,7 @@ private ObjectArrayList modules;
     IDNotRecognisedException { 
         
         UniversityModule.checkValidCode( moduleCode );
-        UniversityModule module = binarySearchModuleCode(moduleCode);
+        UniversityModule module = findModule(moduleCode);
         
         if( module == null ) {
             throw new IDNotRecognisedException( "The module code " + moduleCode + " does not exist on the system.");
@@ -682,58 +1654,224 @@ private ObjectArrayList modules;
     }
     
     /**
-        * @inheritDoc
+        * Get a page of the students on the system in order of ID. The page is read by seeking 
+        * straight to the first student after the cursor, so a listing can be paged through 
+        * without ever copying the whole registry, and students added or removed between pages 
+        * never cause one to be skipped or repeated.
+        * 
+        * @param after ID of the last student of the previous page, or null for the first page
+        * @param pageSize the most students to return
+        * @returns up to pageSize students with IDs after the cursor, fewer only on the last page
+        * @throws IllegalArgumentException if the page size is not positive
      */
-    public Module[] getModules() { 
-        Module[] modules = new Module[this.modules.size()];
+    public Student[] getStudents(String after, int pageSize) { 
+        checkPageSize( pageSize );
+        return (Student[])this.students.contentsAfter( after, new Student[pageSize] );
+    }
+    
+    /**
+        * Get a page of the students enrolled on a module in order of ID, as for getStudents(after, pageSize). 
+        * A student holding more than one place is listed once for each, and the cursor moves past all 
+        * of them, so places cut off at the end of a page are not listed again on the next.
+        * 
+        * @param moduleCode code of the module
+        * @param after ID of the last student of the previous page, or null for the first page
+        * @param pageSize the most students to return
+        * @returns up to pageSize students on the module with IDs after the cursor
+        * @throws IllegalArgumentException if the page size is not positive
+        * @throws InvalidIDException if the module code is not valid
+        * @throws IDNotRecognisedException if the module code does not exist on the system
+     */
+    public Student[] getStudents(String moduleCode, String after, int pageSize) throws InvalidIDException, 
+    IDNotRecognisedException { 
         
-        for( int i=0; i<this.modules.size(); i++ ) {
-            modules[i] = (Module)this.modules.get(i);
+        checkPageSize( pageSize );
+        UniversityModule.checkValidCode( moduleCode );
+        UniversityModule module = findModule(moduleCode);
+        
+        if( module == null ) {
+            throw new IDNotRecognisedException( "The module code " + moduleCode + " does not exist on the system.");
+        }
+        return module.getStudents( after, pageSize );
+    }
+    
+    static void checkPageSize( int pageSize ) {
+        if( pageSize < 1 ) {
+            throw new IllegalArgumentException( "The page size must be at least 1, not " + pageSize + "." );
         }
-        return modules;
     }
     
     /**
         * @inheritDoc
      */
-    public Module[] getRunningModules() { 
+    public Module[] getModules() { 
+        return (Module[])this.modules.contents( new Module[this.modules.size()] );
+    }
     
-        ObjectArrayList modules = new ObjectArrayList();
-        
-        for( int i=0; i<this.modules.size(); i++ ) {
-            Module module = (Module)this.modules.get(i);
-            
-            if( !module.isDiscontinued() ) {
-                modules.add( module );
-            }
+    /**
+        * Get the students on the system in order of ID, without copying them. The view is live, 
+        * so the manager must not change while it is read.
+        * 
+        * @returns read-only view of the students
+     */
+    public ListView<Student> studentsView() {
+        return students.view();
+    }
+    
+    /**
+        * Get the staff on the system in order of ID, without copying them. The view is live, 
+        * so the manager must not change while it is read.
+        * 
+        * @returns read-only view of the staff
+     */
+    public ListView<Staff> staffView() {
+        return staff.view();
+    }
+    
+    /**
+        * Get the modules on the system in order of code, without copying them. The view is live, 
+        * so the manager must not change while it is read.
+        * 
+        * @returns read-only view of the modules
+     */
+    public ListView<Module> modulesView() {
+        return modules.view();
+    }
+    
+    /**
+        * Stream the students on the system in order of ID, without copying them. The stream reads 
+        * a frozen copy of the index of students taken in O(1) time, so it may be made parallel 
+        * and students may be added or removed while it is read, but the enrolments it sees on 
+        * each student are live.
+        * 
+        * @returns sequential stream of the students, which parallel() splits evenly
+     */
+    public Stream<Student> streamStudents() {
+        return stream( students.snapshot() );
+    }
+    
+    /**
+        * Stream the staff on the system in order of ID, without copying them, as for 
+        * streamStudents.
+        * 
+        * @returns sequential stream of the staff, which parallel() splits evenly
+     */
+    public Stream<Staff> streamStaff() {
+        return stream( staff.snapshot() );
+    }
+    
+    /**
+        * Stream the modules on the system in order of code, without copying them, as for 
+        * streamStudents.
+        * 
+        * @returns sequential stream of the modules, which parallel() splits evenly
+     */
+    public Stream<Module> streamModules() {
+        return stream( modules.snapshot() );
+    }
+    
+    /*
+     * Streams the contents of an index, which must not change while it is read.
+     */
+    @SuppressWarnings( "unchecked" )
+    static <T> Stream<T> stream( OrderedIndex index ) {
+        Spliterator<?> spliterator = index.spliterator();
+        return StreamSupport.stream( (Spliterator<T>) spliterator, false );
+    }
+    
+    /**
+        * @inheritDoc
+     */
+    public Module[] getRunningModules() { 
+        synchronized( indexLock ) {
+            return (Module[])runningModules.contents( new Module[runningModules.size()] );
         }
-        Module[] runningModules = new Module[modules.size()];
-        
-        for( int i=0; i<modules.size(); i++ ) {
-            runningModules[i] = (Module)modules.get(i);
+    }
+    
+    /**
+        * Iterate over the modules which are not discontinued, in code order, without copying them.
+        * The iterator walks a snapshot of the index, so later changes to the manager are not seen.
+        * 
+        * @returns iterator over the running modules
+     */
+    @SuppressWarnings("unchecked")
+    public Iterator<Module> iterateRunningModules() {
+        synchronized( indexLock ) {
+            return (Iterator<Module>)(Iterator<?>)runningModules.snapshot().iterator();
         }
-        return runningModules;
     }
     
     /**
         * @inheritDoc
      */
     public Module[] getAvailableModules()  { 
-        ObjectArrayList modules = new ObjectArrayList();
+        synchronized( indexLock ) {
+            return (Module[])availableModules.contents( new Module[availableModules.size()] );
+        }
+    }
+    
+    /**
+        * Iterate over the modules which are neither discontinued nor at capacity, in code order, 
+        * without copying them. The iterator walks a snapshot of the index, so later changes to 
+        * the manager are not seen.
+        * 
+        * @returns iterator over the available modules
+     */
+    @SuppressWarnings("unchecked")
+    public Iterator<Module> iterateAvailableModules() {
+        synchronized( indexLock ) {
+            return (Iterator<Module>)(Iterator<?>)availableModules.snapshot().iterator();
+        }
+    }
+    
+    /**
+        * Find the modules the student matching the argument ID could currently enrol on, being
+        * those the student is not already on which would pass every rule checked by enrol. 
+        * Only the buckets of available modules at stages and credit values the student can 
+        * take are looked at, so the cost is in the number of modules returned.
+        * 
+        * @param studentID a 10-digit student ID matching a student on the system
+        * @returns modules the student is eligible for, ordered by stage, then credits, then code
+        * @throws InvalidIDException if the studentID is not 10-digits
+        * @throws IDNotRecognisedException if the studentID is not in the system
+     */
+    public Module[] getEligibleModules(String studentID) throws InvalidIDException, 
+    IDNotRecognisedException {
+        
+        UniversityStudent.checkValidID( studentID );
+        UniversityStudent student = findStudent(studentID);
         
-        for( int i=0; i<this.modules.size(); i++ ) {
-            UniversityModule module = (UniversityModule)this.modules.get(i);
+        if( student == null ) {
+            throw new IDNotRecognisedException( "The student ID : " + studentID + " does not exist on the system.");
+        }
+        int freeCredits = 120 - student.getTotalCredits();
+        int freeLowerStageCredits = 30 - student.getLowerStageCredits();
+        ObjectArrayList eligible = new ObjectArrayList();
+        
+        for( int stage = 1; stage <= student.getStage(); stage++ ) {
+            //modules below the student's stage must also leave room for honours
+            int maxCredits = stage == student.getStage() ? freeCredits : Math.min( freeCredits, freeLowerStageCredits );
             
-            if( !module.isDiscontinued() && !module.isAtCapacity() ) {
-                modules.add( module );
+            synchronized( indexLock ) {
+                for( int credits = 0; credits <= maxCredits; credits++ ) {
+                    OrderedIndex bucket = availableByStageAndCredits[stage][credits];
+                    if( bucket == null ) {
+                        continue;
+                    }
+                    for( Object module : bucket ) {
+                        if( !student.isEnrolledOn( (Module)module ) ) {
+                            eligible.add( module );
+                        }
+                    }
+                }
             }
         }
-        Module[] avaliableModules = new Module[modules.size()];
+        Module[] eligibleModules = new Module[eligible.size()];
         
-        for( int i=0; i<modules.size(); i++ ) {
-            avaliableModules[i] = (Module)modules.get(i);
+        for( int i=0; i<eligible.size(); i++ ) {
+            eligibleModules[i] = (Module)eligible.get(i);
         }
-        return avaliableModules;
+        return eligibleModules;
     }
     
     /**
@@ -743,7 +1881,7 @@ private ObjectArrayList modules;
     IDNotRecognisedException  { 
         
         UniversityStudent.checkValidID( studentID );
-        UniversityStudent student = binarySearchStudentID(studentID);
+        UniversityStudent student = findStudent(studentID);
         
         if( student == null ) {
             throw new IDNotRecognisedException( "The student ID : " + studentID + " does not exist on the system.");
@@ -756,32 +1894,14 @@ private ObjectArrayList modules;
         * @inheritDoc
      */
     public int getNumberOfFullyAllocatedStudents()  { 
-        int numberFullStudents = 0;
-        
-        for( int i=0; i<students.size(); i++ ) {
-            UniversityStudent student = (UniversityStudent)students.get(i);
-            
-            if( student.getTotalCredits() == 120 ) {
-                numberFullStudents++;
-            }
-        }
-        return numberFullStudents;
+        return fullyAllocatedStudents.get();
     }
     
     /**
         * @inheritDoc
      */
     public int getNumberOfModulesAtCapacity() { 
-        int numberFullModules = 0;
-        
-        for( int i=0; i<modules.size(); i++ ) {
-            UniversityModule module = (UniversityModule)modules.get(i);
-            
-            if( module.isAtCapacity() ) {
-                numberFullModules++;
-            }
-        }
-        return numberFullModules;
+        return modulesAtCapacity.get();
     }
     
     
@@ -796,10 +1916,17 @@ private ObjectArrayList modules;
         }
         UniversityStaff.checkValidID( staff.getID() );
         
-        UniversityStaff staffToRemove = binarySearchStaffID( staff.getID() );
+        UniversityStaff staffToRemove = findStaff( staff.getID() );
+        if( staffToRemove == null ) {
+            throw new IDNotRecognisedException( "The staff ID : " + staff.getID() + " does not exist on the system." );
+        }
+        if( journal != null ) {
+            journal.removeStaff( UniversityStaff.parseID(staffToRemove.getID()) );
+        }
         ObjectArrayList nowNoStaff = new ObjectArrayList();
       
-        for( Module module : staffToRemove.getTeachingModules() ) {
+        for( Module module : staffToRemove.teachingModulesView() ) {
+            preserve( module );
             try {
                 module.removeStaff( staffToRemove );
             }
@@ -807,7 +1934,7 @@ private ObjectArrayList modules;
                 e.printStackTrace();
             }
             
-            if( ((UniversityModule)module).getTeachingStaff().length == 0 ) {
+            if( ((UniversityModule)module).teachingStaffView().size() == 0 ) {
                 nowNoStaff.add( module );
             }
         }
@@ -816,7 +1943,10 @@ private ObjectArrayList modules;
         for( int i=0; i<nowNoStaff.size(); i++ ) {
             noStaff[i] = (Module)nowNoStaff.get(i);
         }
-        this.staff.remove( staffToRemove );
+        this.staff.remove( staffToRemove.getID() );
+        staffByID.remove( UniversityStaff.parseID(staffToRemove.getID()) );
+        staffIDs.retire( UniversityStaff.parseID(staffToRemove.getID()) );
+        commit();
         return noStaff;
     }
     
@@ -830,28 +1960,110 @@ private ObjectArrayList modules;
             throw new IDNotSetException( "Student with name " + student.getForename() + student.getSurname() + " has no ID set, and so cannot be removed." );
         }
         
-        UniversityStudent studentToRemove = binarySearchStudentID( student.getID() );
+        UniversityStudent studentToRemove = findStudent( student.getID() );
         if( studentToRemove == null ) {
-            throw new IDNotRecognisedException( "The student ID : " + studentToRemove.getID() + " does not exist on the system." );
+            throw new IDNotRecognisedException( "The student ID : " + student.getID() + " does not exist on the system." );
         }
         
-        for( Module module : studentToRemove.getEnrolledModules() ) {
-            unEnrol( studentToRemove.getID(), module.getCode() );
+        if( journal != null ) {
+            journal.removeStudent( UniversityStudent.parseID(studentToRemove.getID()) );
+        }
+        ListView<Module> waitingFor = studentToRemove.waitingForView();
+        for( int i = waitingFor.size() - 1; i >= 0; i-- ) {
+            ( (UniversityModule)waitingFor.get(i) ).leaveWaitlist( studentToRemove );
+        }
+        //unlinking shrinks the view from the back, and only modules with a waitlist to promote 
+        //from are kept, so most removals copy nothing
+        ListView<Module> enrolled = studentToRemove.enrolledModulesView();
+        ObjectArrayList freed = null;
+        while( enrolled.size() > 0 ) {
+            UniversityModule module = (UniversityModule)enrolled.get( enrolled.size() - 1 );
+            unlink( studentToRemove, module );
+            if( module.getWaitlistLength() > 0 ) {
+                if( freed == null ) {
+                    freed = new ObjectArrayList();
+                }
+                freed.add( module );
+            }
         }
         
-        students.remove( studentToRemove );
+        students.remove( studentToRemove.getID() );
+        studentsByID.remove( UniversityStudent.parseID(studentToRemove.getID()) );
+        studentIDs.retire( UniversityStudent.parseID(studentToRemove.getID()) );
+        for( int i = 0; freed != null && i < freed.size(); i++ ) {
+            promote( (UniversityModule)freed.get(i) );
+        }
+        commit();
     }
     
     /**
+        * Writes the contents as a binary snapshot, laid out as described by {@link SnapshotFile}.
+        * 
         * @inheritDoc
      */
     public void saveAllocationManager(String filename) throws IOException {
-        FileOutputStream fileOutput = null;
-        ObjectOutputStream objectOutput = null;
-        fileOutput = new FileOutputStream(filename);
-        objectOutput = new ObjectOutputStream(fileOutput);
-        objectOutput.writeObject(this);
-        objectOutput.close ();
+        Checkpoint view = capture();
+        SnapshotFile.save( view, filename );
+        truncateJournal( filename, view.getSequence() );
+    }
+    
+    /**
+        * Write a snapshot of the contents as they are now in a background thread, while the 
+        * manager carries on changing. The view is taken in O(1) time, with later changes 
+        * copied on write as described by {@link Checkpoint}, so the snapshot is consistent 
+        * without holding up mutations. The returned checkpoint reports the journal sequence 
+        * number and time of the view, and can be waited on until the snapshot is written.
+        * 
+        * @param filename name (including location) of the snapshot file to write
+        * @returns the checkpoint being written
+        * @throws IllegalStateException if a checkpoint is still being written
+     */
+    public Checkpoint checkpoint( final String filename ) {
+        if( checkpoint != null && !checkpoint.isDone() ) {
+            throw new IllegalStateException( "A checkpoint is still being written." );
+        }
+        final Checkpoint running = capture();
+        open( running );
+        checkpoint = running;
+        
+        Thread writer = new Thread( () -> {
+            IOException failure = null;
+            try {
+                SnapshotFile.save( running, filename );
+                truncateJournal( filename, running.getSequence() );
+            }
+            catch( IOException e ) {
+                failure = e;
+            }
+            catch( RuntimeException e ) {
+                failure = new IOException( "Checkpoint could not be written.", e );
+            }
+            close( running );
+            running.finish( failure );
+        }, "checkpoint-writer" );
+        writer.start();
+        return running;
+    }
+    
+    /**
+        * Take a read-only view of the contents as they are now, which stays the same while the 
+        * manager carries on changing, so long reads such as a report over every student see 
+        * one consistent state. The view is taken in O(1) time, and mutations preserve what they 
+        * change copy-on-write as described by {@link ManagerVersion}, so they never wait for 
+        * the view's readers. Each open view costs mutations a little, and holds on to the links 
+        * they replace, so the view should be closed once it has been read.
+        * 
+        * @returns the read-only view
+     */
+    public SnapshotAllocationManager snapshot() {
+        ManagerVersion version;
+        
+        synchronized( indexLock ) {
+            version = new ManagerVersion( students, staff, modules, runningModules, availableModules, getSequence(), 
+                                          fullyAllocatedStudents.get(), modulesAtCapacity.get() );
+        }
+        open( version );
+        return new SnapshotAllocationManager( this, version );
     }
     
     /**
@@ -860,25 +2072,81 @@ private ObjectArrayList modules;
     public boolean unEnrol(String studentID, String moduleCode) throws 
     InvalidIDException, IDNotRecognisedException { 
         
-        UniversityStudent.checkValidID(studentID);
-        UniversityModule.checkValidCode(moduleCode);
+        return unEnrolled( tryUnEnrol( studentID, moduleCode ), studentID, moduleCode );
+    }
+    
+    /**
+        * Throw the exception unEnrol declares for an {@link EnrolmentStatus} code, if any.
+        * 
+        * @param status outcome of unenrolling the student from the module
+        * @param studentID ID of student unenrolled
+        * @param moduleCode module code of module unenrolled from
+        * @returns true if the student was unenrolled, false if they were not enrolled
+     */
+    static boolean unEnrolled( byte status, String studentID, String moduleCode ) throws 
+    InvalidIDException, IDNotRecognisedException { 
         
-        UniversityStudent student = binarySearchStudentID(studentID);
-        UniversityModule module = binarySearchModuleCode(moduleCode);
+        switch( status ) {
+            case EnrolmentStatus.INVALID_ID:
+                UniversityStudent.checkValidID( studentID );
+                UniversityModule.checkValidCode( moduleCode );
+                break;
+            case EnrolmentStatus.ID_NOT_RECOGNISED:
+                throw new IDNotRecognisedException( "The student ID : " + studentID + " or the module code: " + moduleCode + 
+                " does not reference a student or module on the system.");
+            case EnrolmentStatus.NOT_ENROLLED:
+                return false;
+        }
+        return true;
+    }
+    
+    /**
+        * Remove the student matching the studentID from the module matching the moduleCode. 
+        * Instead of throwing, the outcome is returned as an {@link EnrolmentStatus} code, and 
+        * nothing is allocated when the student cannot be unenrolled.
+        * 
+        * @param studentID ID of student to be unenrolled
+        * @param moduleCode module code of module the student is to be unenrolled from
+        * @returns UNENROLLED if the student was unenrolled, NOT_ENROLLED if the student was not 
+        *          on the module, otherwise INVALID_ID or ID_NOT_RECOGNISED
+     */
+    public byte tryUnEnrol( String studentID, String moduleCode ) {
+        byte status = unEnrolRow( studentID, moduleCode );
         
-        if( student == null || module == null ) {
-            throw new IDNotRecognisedException( "The student ID : " + studentID + " or the module code: " + moduleCode + 
-            " does not reference a student or module on the system.");
+        if( status == EnrolmentStatus.UNENROLLED ) {
+            promote( findModule( moduleCode ) );
         }
+        commit();
+        return status;
+    }
+    
+    /**
+        * Unenrol as tryUnEnrol does, without waiting for the journal to reach disk.
+        * 
+        * @param studentID ID of student to be unenrolled
+        * @param moduleCode module code of module the student is to be unenrolled from
+        * @returns the EnrolmentStatus code of the outcome
+     */
+    byte unEnrolRow( String studentID, String moduleCode ) {
+        long studentKey = UniversityStudent.parseID( studentID );
+        int moduleKey = UniversityModule.parseCode( moduleCode );
         
-        for( Module enrolledModule : student.getEnrolledModules() ) {
-            
-            if( enrolledModule.getCode().equals(module.getCode()) ) {
-                ((UniversityModule)enrolledModule).removeStudent( student );
-                student.removeModule( (UniversityModule)enrolledModule );
-                return true;
-            }
+        if( studentKey < 0 || moduleKey < 0 ) {
+            return EnrolmentStatus.INVALID_ID;
+        }
+        UniversityStudent student = (UniversityStudent)studentsByID.get( studentKey );
+        UniversityModule module = (UniversityModule)modulesByCode.get( moduleKey );
+        
+        if( student == null || module == null ) {
+            return EnrolmentStatus.ID_NOT_RECOGNISED;
+        }
+        if( !student.isEnrolledOn( module ) ) {
+            return EnrolmentStatus.NOT_ENROLLED;
+        }
+        if( journal != null ) {
+            journal.unEnrol( studentKey, moduleKey );
         }
-        return false;
+        unlink( student, module );
+        return EnrolmentStatus.UNENROLLED;
     }
 }
@@ -1,5 +1,9 @@
 package university;
 
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.function.Supplier;
+
 /**
  * 
  * 
@@ -13,11 +17,20 @@ public class UniversityModule implements Module
     private byte credits;
     private byte stage;
     private ObjectArrayList teachingStaff;
-    private ObjectArrayList students;
+    private OrderedIndex students;
+    private ListView<Staff> teachingStaffView;
+    private ListView<Student> studentsView;
+    private ObjectQueue waitlist;
+    private LongObjectHashMap waiting;
+    private volatile int waitlistLength;
     private int capacity;
-    private int enrolled;
+    private volatile int enrolled;
     private boolean discontinued;
     
+    //seats are claimed by compare-and-set on enrolled, so enrolments need not lock the module
+    private static final AtomicIntegerFieldUpdater<UniversityModule> ENROLLED = 
+        AtomicIntegerFieldUpdater.newUpdater( UniversityModule.class, "enrolled" );
+    
     /**
      * Constructor for UniversityModule without module code
      * 
@@ -31,7 +44,7 @@ public class UniversityModule implements Module
         setCredits( credits );
         setStage( stage );
         teachingStaff = new ObjectArrayList();
-        students = new ObjectArrayList();
+        students = new OrderedIndex();
         this.capacity = capacity;
         discontinued = false;
     }
@@ -51,7 +64,7 @@ public class UniversityModule implements Module
         setCredits( credits );
         setStage( stage );
         teachingStaff = new ObjectArrayList();
-        students = new ObjectArrayList();
+        students = new OrderedIndex();
         this.capacity = capacity;
         discontinued = false;
         setCode( code );
@@ -64,22 +77,49 @@ public class UniversityModule implements Module
      * @return true if the module code is valid, else false
      */
     public static boolean checkValidCode( String code ) throws InvalidIDException {
-        boolean valid = true;
-        
-        //if the code isn't 5 characters
-        if( code.length() != 5 ) valid = false;
-        
-        //if the code passes as an integer
-        try {
-            Integer.parseInt( code );
+        //if the code isn't 5 digits
+        if( parseCode( code ) < 0 ) {
+            throw new InvalidIDException("Module code provided must be 5 digits.");
         }
-        catch( NumberFormatException e ) {
-            valid = false;
+        return true;
+    }
+    
+    /**
+     * Converts a module code to the number it holds, without throwing
+     * 
+     * @param code The module code to convert
+     * @return the 5-digit number held by the code, or -1 if the code is invalid
+     */
+    public static int parseCode( String code ) {
+        if( code == null || code.length() != 5 ) {
+            return -1;
         }
-        if( !valid ) {
-            throw new InvalidIDException("Module code provided must be 5 digits.");
+        int value = 0;
+        
+        for( int i = 0; i < 5; i++ ) {
+            int digit = code.charAt(i) - '0';
+            if( digit < 0 || digit > 9 ) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+    
+    /**
+     * Converts a number to the 5-digit module code holding it
+     * 
+     * @param value number from 0 to 99999
+     * @return the number as a zero padded 5-digit String
+     */
+    public static String formatCode( int value ) {
+        char[] digits = new char[5];
+        
+        for( int i = 4; i >= 0; i-- ) {
+            digits[i] = (char)( '0' + value % 10 );
+            value /= 10;
         }
-        return valid;
+        return new String( digits );
     }
     
     /**
@@ -170,6 +210,19 @@ public class UniversityModule implements Module
         return teachingStaff;
     }
     
+    /**
+     * Gets the teaching staff of the module without copying them. The 
+     * staff must not change while the view is read.
+     * 
+     * @return read-only view of the teaching staff
+     */
+    public ListView<Staff> teachingStaffView() {
+        if( teachingStaffView == null ) {
+            teachingStaffView = follow( () -> teachingStaff.view() );
+        }
+        return teachingStaffView;
+    }
+    
     /**
      * @inheritDoc
      */
@@ -183,19 +236,90 @@ public class UniversityModule implements Module
      * @return true if module is at maximum capacity, false otherwise
      */
     public boolean isAtCapacity() {
-        if( enrolled == capacity ){
+        if( enrolled >= capacity ){
             return true;
         } else {
             return false;
         }
     }
     
+    /**
+     * Claims a seat on the module with an atomic compare-and-set, so any
+     * number of threads can enrol on the module at once without taking a lock.
+     * The student must then be added with addToRoster, or the seat given
+     * back with releaseSeat.
+     * 
+     * @return the number of seats taken including the one claimed, or -1 if 
+     *         the module is at capacity
+     */
+    public int claimSeat() {
+        while( true ) {
+            int seats = enrolled;
+            
+            if( seats >= capacity ) {
+                return -1;
+            }
+            if( ENROLLED.compareAndSet( this, seats, seats + 1 ) ) {
+                return seats + 1;
+            }
+        }
+    }
+    
+    /**
+     * Claims up to the given number of seats on the module with a single
+     * compare-and-set, as claimSeat does for one, taking as many of them as
+     * are free. Each seat must then be filled with addToRoster, or given 
+     * back with releaseSeats.
+     * 
+     * @param wanted number of seats to claim
+     * @return the number of seats taken before the claim, so the seats
+     *         claimed are the lesser of wanted and the capacity less this
+     */
+    public int claimSeats( int wanted ) {
+        while( true ) {
+            int seats = enrolled;
+            
+            if( seats >= capacity ) {
+                return seats;
+            }
+            if( ENROLLED.compareAndSet( this, seats, seats + Math.min( wanted, capacity - seats ) ) ) {
+                return seats;
+            }
+        }
+    }
+    
+    /**
+     * Gives back a seat claimed with claimSeat, or held by a student taken 
+     * off the roster with removeFromRoster.
+     * 
+     * @return the number of seats taken after the release
+     */
+    public int releaseSeat() {
+        return ENROLLED.decrementAndGet( this );
+    }
+    
+    /**
+     * Gives back a number of seats claimed with claimSeats and not filled.
+     * 
+     * @param count number of seats to give back
+     * @return the number of seats taken after the release
+     */
+    public int releaseSeats( int count ) {
+        return ENROLLED.addAndGet( this, -count );
+    }
+    
     /**
      * Discontinue the module, removing all links.
      */
-    public void discontinue(){
+    public synchronized void discontinue(){
+        for( Student student : getWaitlist() ) {
+            ( (UniversityStudent)student ).stopWaitingFor( this );
+        }
         teachingStaff = new ObjectArrayList();
-        students = new ObjectArrayList();
+        students = new OrderedIndex();
+        waitlist = null;
+        waiting = null;
+        waitlistLength = 0;
         enrolled = 0;
         discontinued = true;
     }
@@ -269,8 +393,8 @@ public class UniversityModule implements Module
      * @param student Student object to add to module
      */
     public void addStudent( UniversityStudent student ) {
-        students.add( student );
-        enrolled++;
+        addToRoster( student );
+        ENROLLED.incrementAndGet( this );
     }
     
     /**
@@ -279,23 +403,261 @@ public class UniversityModule implements Module
      * @param student Student to remove from module
      */
     public void removeStudent( UniversityStudent student ) {
-        students.remove( student );
-        enrolled--;
+        removeFromRoster( student );
+        releaseSeat();
     }
     
     /**
-     * Gets all the students enrolled onto the module
+     * Adds a student to the roster, in a seat already claimed with claimSeat
+     * 
+     * @param student Student object to add to module
+     */
+    public synchronized void addToRoster( UniversityStudent student ) {
+        String key = student.getID();
+        
+        //a student may take the module more than once, each place is held against ID#n
+        for( int place = 1; !students.insert( key, student ); place++ ) {
+            key = student.getID() + "#" + place;
+        }
+    }
+    
+    /**
+     * Removes a student from the roster, leaving their seat to be given back 
+     * with releaseSeat
+     * 
+     * @param student Student to remove from module
+     */
+    public synchronized void removeFromRoster( UniversityStudent student ) {
+        String key = student.getID();
+        
+        //places are always numbered without gaps, so take the last one
+        for( int place = 1; students.get( student.getID() + "#" + place ) != null; place++ ) {
+            key = student.getID() + "#" + place;
+        }
+        students.remove( key );
+    }
+    
+    /**
+     * Gets all the students enrolled onto the module, in order of ID
      * 
      * @return all students enrolled onto the module as a student array
      */
-    public Student[] getStudents() {
-        Student[] students = new Student[this.students.size()];
+    public synchronized Student[] getStudents() {
+        return (Student[])students.contents( new Student[students.size()] );
+    }
+    
+    /**
+     * Gets a page of the students enrolled onto the module, in order of ID, 
+     * seeking straight to the first student after the cursor. A student 
+     * holding more than one place is listed once for each place, and the 
+     * cursor moves past all of them, so places cut off at the end of a page 
+     * are not listed again on the next.
+     * 
+     * @param after ID of the last student of the previous page, or null for the first page
+     * @param pageSize The most students to return
+     * @return up to pageSize students with IDs after the cursor, fewer only on the last page
+     */
+    public synchronized Student[] getStudents( String after, int pageSize ) {
+        //extra places are keyed ID#n, and '$' sorts after '#' but before any digit of the next ID
+        return (Student[])students.contentsAfter( after == null ? null : after + "$", new Student[pageSize] );
+    }
+    
+    /**
+     * Adds a student to the back of the module's waitlist, which is only 
+     * created once a student first waits for a seat. A student already 
+     * waiting keeps their place rather than joining again.
+     * 
+     * @param student Student waiting for a seat
+     * @return true if the student joined the waitlist, false if they were already on it
+     */
+    public synchronized boolean addToWaitlist( UniversityStudent student ) {
+        if( waitlist == null ) {
+            waitlist = new ObjectQueue();
+            waiting = new LongObjectHashMap();
+        }
+        long key = UniversityStudent.parseID( student.getID() );
+        
+        if( waiting.get( key ) != null ) {
+            return false;
+        }
+        Place place = new Place( student );
+        waiting.put( key, place );
+        waitlist.add( place );
+        waitlistLength = waiting.size();
+        student.waitFor( this );
+        return true;
+    }
+    
+    /**
+     * Takes a student off the waitlist wherever they are on it, in O(1) 
+     * time. Their place is left in the queue, and dropped once it reaches 
+     * the front, or along with all other places left once they come to 
+     * outnumber the students waiting.
+     * 
+     * @param student Student to stop waiting for a seat
+     * @return true if the student was on the waitlist
+     */
+    public synchronized boolean leaveWaitlist( UniversityStudent student ) {
+        if( waiting == null ) {
+            return false;
+        }
+        long key = UniversityStudent.parseID( student.getID() );
+        Place place = (Place)waiting.get( key );
+        
+        if( place == null || place.student != student ) {
+            return false;
+        }
+        waiting.remove( key );
+        waitlistLength = waiting.size();
+        student.stopWaitingFor( this );
+        if( waitlist.size() > 2 * waiting.size() + 8 ) {
+            ObjectQueue kept = new ObjectQueue();
+            
+            for( int i = 0; i < waitlist.size(); i++ ) {
+                if( isWaiting( (Place)waitlist.get(i) ) ) {
+                    kept.add( waitlist.get(i) );
+                }
+            }
+            waitlist = kept;
+        }
+        return true;
+    }
+    
+    /**
+     * Gets the student at the front of the waitlist, without taking them off it
+     * 
+     * @return the student who has waited longest, or null if none are waiting
+     */
+    public synchronized UniversityStudent peekWaitlist() {
+        if( waitlist == null ) {
+            return null;
+        }
+        while( waitlist.size() > 0 && !isWaiting( (Place)waitlist.get(0) ) ) {
+            waitlist.poll();
+        }
+        return waitlist.size() == 0 ? null : ( (Place)waitlist.get(0) ).student;
+    }
+    
+    /**
+     * Takes the student at the front of the waitlist off it, if they are 
+     * the student given
+     * 
+     * @param student Student expected at the front of the waitlist
+     * @return true if the student was at the front and has been taken off
+     */
+    public synchronized boolean pollWaitlist( UniversityStudent student ) {
+        if( student == null || peekWaitlist() != student ) {
+            return false;
+        }
+        waitlist.poll();
+        return leaveWaitlist( student );
+    }
+    
+    /**
+     * Claims a seat for the student at the front of the waitlist and takes 
+     * them off it in one step, so a seat is never claimed for a student 
+     * another caller has already taken off. The seat is claimed by 
+     * compare-and-set as claimSeat does, and must be given back with 
+     * releaseSeat if the student is not then added with addToRoster.
+     * 
+     * @param student Student expected at the front of the waitlist
+     * @return the number of seats taken including the one claimed, or -1 if 
+     *         the module is at capacity or the student is not at the front
+     */
+    public synchronized int claimSeatFromWaitlist( UniversityStudent student ) {
+        if( student == null || peekWaitlist() != student ) {
+            return -1;
+        }
+        int seats = claimSeat();
+        
+        if( seats >= 0 ) {
+            pollWaitlist( student );
+        }
+        return seats;
+    }
+    
+    /*
+     * A place on the waitlist is still held while the student's ID maps to 
+     * it, so a student who leaves and joins again does not take back their 
+     * old place
+     */
+    private boolean isWaiting( Place place ) {
+        return waiting.get( UniversityStudent.parseID( place.student.getID() ) ) == place;
+    }
+    
+    /**
+     * Gets the number of students on the waitlist, without locking the 
+     * module, so enrolments can check it on every call
+     * 
+     * @return number of students waiting for a seat
+     */
+    public int getWaitlistLength() {
+        return waitlistLength;
+    }
+    
+    /**
+     * Gets the students on the waitlist, in the order they will be offered seats
+     * 
+     * @return students waiting for a seat as a student array
+     */
+    public synchronized Student[] getWaitlist() {
+        Student[] waiting = new Student[getWaitlistLength()];
+        int count = 0;
+        
+        for( int i = 0; waitlist != null && i < waitlist.size(); i++ ) {
+            Place place = (Place)waitlist.get(i);
+            
+            if( isWaiting( place ) ) {
+                waiting[count++] = place.student;
+            }
+        }
+        return waiting;
+    }
+    
+    /**
+     * Gets the students enrolled onto the module in order of ID without 
+     * copying them. The roster must not change while the view is read. The 
+     * view stays live when discontinue replaces the roster, showing it empty.
+     * 
+     * @return read-only view of the students enrolled onto the module
+     */
+    public ListView<Student> studentsView() {
+        if( studentsView == null ) {
+            studentsView = follow( () -> students.view() );
+        }
+        return studentsView;
+    }
+    
+    /*
+     * Views the list a field holds each time it is read, so a view taken 
+     * before discontinue replaces the list shows the new, empty one
+     */
+    private static <T> ListView<T> follow( Supplier<ListView<T>> field ) {
+        return new ListView<T>() {
+            public int size() {
+                return field.get().size();
+            }
+            
+            public T get( int index ) {
+                return field.get().get( index );
+            }
+            
+            public Iterator<T> iterator() {
+                return field.get().iterator();
+            }
+        };
+    }
+    
+    /*
+     * A student's place on the waitlist
+     */
+    private static class Place
+    {
+        private final UniversityStudent student;
         
-        //convert students stored by module to a Student array
-        for( int i = 0; i < this.students.size(); i++ ) {
-            students[i] = (Student)this.students.get(i);
+        private Place( UniversityStudent student ) {
+            this.student = student;
         }
-        return students;
     }
 }
 
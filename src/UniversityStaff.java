@@ -47,22 +47,48 @@ public class UniversityStaff implements Staff
      * @throws InvalidIDException if id is invalid
      */
     public static void checkValidID( String id ) throws InvalidIDException {
-        boolean valid = true;
-        
-        //length of id must be 5 characters
-        if( id.length() != 5 ) valid = false;
-        
-        //if the id can pass as a hex value
-        try {
-            Integer.parseInt( id, 16 );
+        //id must be 5 hex characters
+        if( parseID( id ) < 0 ) {
+            throw new InvalidIDException( "ID provided must be 5 hex characters." );
         }
-        catch( NumberFormatException e ) {
-            valid = false;
+    }
+    
+    /**
+     * Converts an id to the number it holds, without throwing
+     * 
+     * @param id id to convert
+     * @return the 5-character hex number held by the id, or -1 if id is invalid
+     */
+    public static int parseID( String id ) {
+        if( id == null || id.length() != 5 ) {
+            return -1;
         }
+        int value = 0;
         
-        if( !valid ) {
-            throw new InvalidIDException( "ID provided must be 5 hex characters." );
+        for( int i = 0; i < 5; i++ ) {
+            int digit = Character.digit( id.charAt(i), 16 );
+            if( digit < 0 ) {
+                return -1;
+            }
+            value = ( value << 4 ) | digit;
         }
+        return value;
+    }
+    
+    /**
+     * Converts a number to the 5-character hex id holding it
+     * 
+     * @param value number from 0 to 0xfffff
+     * @return the number as a zero padded 5-character lower case hex String
+     */
+    public static String formatID( int value ) {
+        char[] digits = new char[5];
+        
+        for( int i = 4; i >= 0; i-- ) {
+            digits[i] = Character.forDigit( value & 0xf, 16 );
+            value >>>= 4;
+        }
+        return new String( digits );
     }
     
     /**
@@ -130,4 +156,14 @@ public class UniversityStaff implements Staff
         }
         return modules;
     }
+    
+    /**
+     * Get all modules the staff is teaching on without copying them. The 
+     * staff member's modules must not change while the view is read.
+     * 
+     * @returns read-only view of the modules linked
+     */
+    public ListView<Module> teachingModulesView() {
+        return teachingModules.view();
+    }
 }
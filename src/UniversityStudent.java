@@ -15,6 +15,7 @@ public class UniversityStudent implements Student
     private String surname;
     private byte stage;
     private ObjectArrayList modules;
+    private ObjectArrayList waitingFor;
     private byte sameStageCredits;
     private byte lowerStageCredits;
     private byte totalCredits;
@@ -59,20 +60,47 @@ public class UniversityStudent implements Student
      * @throws InvalidIDException if the ID is of incorrect form
      */
     public static void checkValidID(String id) throws InvalidIDException{
-        boolean valid = true;
-        
-        if( id.length() != 10 ) valid = false;
-        
-        try {
-            Long.parseLong( id );
+        if( parseID( id ) < 0 ) {
+            throw new InvalidIDException("Student ID provided must be 10 digits.");
         }
-        catch( NumberFormatException e ) {
-            valid = false;
+    }
+    
+    /**
+     * Convert a student ID to the number it holds, without throwing.
+     * 
+     * @param id id to be converted
+     * @return the 10-digit number held by the ID, or -1 if the ID is of incorrect form
+     */
+    public static long parseID(String id) {
+        if( id == null || id.length() != 10 ) {
+            return -1;
         }
+        long value = 0;
         
-        if( !valid ) {
-            throw new InvalidIDException("Student ID provided must be 10 digits.");
+        for( int i = 0; i < 10; i++ ) {
+            int digit = id.charAt(i) - '0';
+            if( digit < 0 || digit > 9 ) {
+                return -1;
+            }
+            value = value * 10 + digit;
         }
+        return value;
+    }
+    
+    /**
+     * Convert a number to the 10-digit student ID holding it.
+     * 
+     * @param value number from 0 to 9999999999
+     * @return the number as a zero padded 10-digit String
+     */
+    public static String formatID(long value) {
+        char[] digits = new char[10];
+        
+        for( int i = 9; i >= 0; i-- ) {
+            digits[i] = (char)( '0' + value % 10 );
+            value /= 10;
+        }
+        return new String( digits );
     }
     
     /**
@@ -172,6 +200,67 @@ public class UniversityStudent implements Student
         return modules;
     }
     
+    /**
+        * Return the modules this student is currently enrolled on without copying them. The 
+        * student's enrolments must not change while the view is read.
+        * 
+        * @returns read-only view of the modules enrolled
+     */
+    public ListView<Module> enrolledModulesView() {
+        return modules.view();
+    }
+    
+    /**
+        * Return the modules whose waitlists this student is on without copying them. The 
+        * waitlists must not change while the view is read.
+        * 
+        * @returns read-only view of the modules waited for
+     */
+    public ListView<Module> waitingForView() {
+        if( waitingFor == null ) {
+            waitingFor = new ObjectArrayList();
+        }
+        return waitingFor.view();
+    }
+    
+    /**
+        * Record that the student has joined a module's waitlist, called by the module.
+        * 
+        * @param module module waited for
+     */
+    void waitFor( UniversityModule module ) {
+        if( waitingFor == null ) {
+            waitingFor = new ObjectArrayList();
+        }
+        waitingFor.add( module );
+    }
+    
+    /**
+        * Record that the student has left a module's waitlist, called by the module.
+        * 
+        * @param module module no longer waited for
+     */
+    void stopWaitingFor( UniversityModule module ) {
+        if( waitingFor != null ) {
+            waitingFor.remove( module );
+        }
+    }
+    
+    /**
+        * Check whether the student is currently enrolled on a module.
+        * 
+        * @param module module to check
+        * @returns true if the student is enrolled on the module
+     */
+    public boolean isEnrolledOn( Module module ) {
+        for( int i = 0; i < modules.size(); i++ ) {
+            if( modules.get(i) == module ) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
     /**
         * Assigns and links the student to a module.
         * 
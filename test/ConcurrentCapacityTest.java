@@ -0,0 +1,107 @@
+package university;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Stresses a ConcurrentAllocationManager with threads enrolling and
+ * unenrolling at random on a few small modules, singly, in batches and
+ * through waitlists, while another thread keeps reading the rosters. No
+ * roster may ever hold more students than the module's capacity, no
+ * student may go past 120 credits, and once the threads finish the counts
+ * of full students and modules at capacity must match the contents.
+ */
+public class ConcurrentCapacityTest
+{
+    private static final int THREADS = 8;
+    private static final int OPERATIONS = 20000;
+
+    public static void main( String[] args ) throws Exception {
+        ConcurrentAllocationManager manager = new ConcurrentAllocationManager();
+        String[] modules = new String[12];
+        int[] capacities = new int[modules.length];
+        for( int i = 0; i < modules.length; i++ ) {
+            capacities[i] = 1 + i * 3;
+            modules[i] = manager.addModule( "Module " + i, (byte) ( i % 2 == 0 ? 20 : 40 ), (byte) 1, capacities[i],
+                                            new Staff[0] );
+        }
+        String[] students = new String[400];
+        for( int i = 0; i < students.length; i++ ) {
+            students[i] = manager.addStudent( "Student", "Number " + i, (byte) 1 );
+        }
+
+        AtomicBoolean running = new AtomicBoolean( true );
+        ExecutorService threads = Executors.newFixedThreadPool( THREADS + 1 );
+        List<Future<?>> work = new ArrayList<Future<?>>();
+        for( int t = 0; t < THREADS; t++ ) {
+            final Random random = new Random( t );
+            work.add( threads.submit( () -> {
+                for( int i = 0; i < OPERATIONS; i++ ) {
+                    String student = students[random.nextInt( students.length )];
+                    String module = modules[random.nextInt( modules.length )];
+                    switch( random.nextInt( 4 ) ) {
+                        case 0:
+                            manager.tryEnrol( student, module );
+                            break;
+                        case 1:
+                            manager.tryUnEnrol( student, module );
+                            break;
+                        case 2:
+                            manager.enrolAll( new String[] { student, students[random.nextInt( students.length )] },
+                                              new String[] { module, modules[random.nextInt( modules.length )] } );
+                            break;
+                        default:
+                            try {
+                                manager.enrolOrWaitlist( student, module );
+                            }
+                            catch( InsufficientAvailableCreditsException e ) {
+                                //the student is full, which the test allows
+                            }
+                    }
+                }
+                return null;
+            } ) );
+        }
+        Future<?> reader = threads.submit( () -> {
+            while( running.get() ) {
+                for( int i = 0; i < modules.length; i++ ) {
+                    int enrolled = manager.getStudents( modules[i] ).length;
+                    TestSupport.check( enrolled <= capacities[i], modules[i] + " holds " + enrolled + " of " + capacities[i] );
+                }
+            }
+            return null;
+        } );
+        for( Future<?> future : work ) {
+            future.get();
+        }
+        running.set( false );
+        reader.get();
+        threads.shutdown();
+
+        int atCapacity = 0;
+        for( int i = 0; i < modules.length; i++ ) {
+            int enrolled = manager.getStudents( modules[i] ).length;
+            TestSupport.check( enrolled <= capacities[i], modules[i] + " holds " + enrolled + " of " + capacities[i] );
+            atCapacity += enrolled == capacities[i] ? 1 : 0;
+        }
+        int full = 0;
+        for( String student : students ) {
+            int credits = 0;
+            for( Module module : manager.getModules( student ) ) {
+                credits += module.getCredits();
+            }
+            TestSupport.check( credits <= 120, student + " holds " + credits + " credits" );
+            full += credits == 120 ? 1 : 0;
+        }
+        TestSupport.check( atCapacity == manager.getNumberOfModulesAtCapacity(),
+                           "counted " + manager.getNumberOfModulesAtCapacity() + " modules at capacity, found " + atCapacity );
+        TestSupport.check( full == manager.getNumberOfFullyAllocatedStudents(),
+                           "counted " + manager.getNumberOfFullyAllocatedStudents() + " full students, found " + full );
+        System.out.println( "ConcurrentCapacityTest passed" );
+    }
+}
@@ -0,0 +1,87 @@
+package university;
+
+import java.io.FileOutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Checks that a journalled manager recovers to exactly the contents it had
+ * when it crashed: every kind of mutation is made, some before and some
+ * after a snapshot, the journal is left open with a torn record at its end
+ * as a crash would leave it, and the manager recovered from the snapshot
+ * and journal must hold the same contents. Mutations made after recovering
+ * must survive a second recovery as well.
+ */
+public class JournalReplayTest
+{
+    public static void main( String[] args ) throws Exception {
+        Path directory = Files.createTempDirectory( "journal-replay" );
+        String snapshot = directory.resolve( "manager.snap" ).toString();
+        String journal = directory.resolve( "manager.journal" ).toString();
+        Random random = new Random( 12 );
+
+        UniversityAllocationManager manager = UniversityAllocationManager.recover( snapshot, journal, 0, 64 );
+        for( int i = 0; i < 20; i++ ) {
+            manager.addStaff( "Staff", "Member" + i );
+        }
+        Staff[] staff = manager.getStaff();
+        String[] modules = new String[40];
+        for( int i = 0; i < modules.length; i++ ) {
+            modules[i] = manager.addModule( "Module " + i, (byte) ( 10 * ( 1 + random.nextInt( 3 ) ) ),
+                                            (byte) ( 1 + random.nextInt( 3 ) ), 1 + random.nextInt( 20 ),
+                                            new Staff[] { staff[i % staff.length] } );
+        }
+        String[] students = new String[500];
+        for( int i = 0; i < students.length; i++ ) {
+            students[i] = manager.addStudent( "Student", "N\u00fcmber " + i, (byte) ( 1 + random.nextInt( 4 ) ) );
+        }
+        for( int i = 0; i < 1500; i++ ) {
+            manager.tryEnrol( students[random.nextInt( students.length )], modules[random.nextInt( modules.length )] );
+        }
+        manager.saveAllocationManager( snapshot );
+
+        //every kind of record, after the snapshot
+        String[] batchStudents = new String[1000];
+        String[] batchModules = new String[1000];
+        for( int i = 0; i < batchStudents.length; i++ ) {
+            batchStudents[i] = students[random.nextInt( students.length )];
+            batchModules[i] = modules[random.nextInt( modules.length )];
+        }
+        manager.enrolAll( batchStudents, batchModules );
+        for( int i = 0; i < 500; i++ ) {
+            manager.tryUnEnrol( students[random.nextInt( students.length )], modules[random.nextInt( modules.length )] );
+        }
+        manager.discontinue( modules[3] );
+        manager.remove( manager.getStudents()[7] );
+        manager.remove( staff[5] );
+        manager.addStudent( "Late", "Arrival", (byte) 2 );
+        manager.addModule( "Late Module", (byte) 20, (byte) 1, 4, new Staff[] { staff[6] } );
+        String expected = TestSupport.contents( manager );
+
+        //a crash: the journal is not closed, and a record was cut short
+        try( FileOutputStream out = new FileOutputStream( journal, true ) ) {
+            out.write( new byte[] { 0, 0, 0, 40, 1, 2, 3 } );
+        }
+        UniversityAllocationManager recovered = UniversityAllocationManager.recover( snapshot, journal, 0, 64 );
+        TestSupport.check( expected.equals( TestSupport.contents( recovered ) ), "recovered contents differ" );
+        TestSupport.check( recovered.getSequence() == manager.getSequence(), "recovered sequence differs" );
+
+        recovered.tryEnrol( recovered.getStudents()[0].getID(), modules[10] );
+        recovered.addStaff( "After", "Recovery" );
+        expected = TestSupport.contents( recovered );
+        recovered.getJournal().close();
+        UniversityAllocationManager again = UniversityAllocationManager.recover( snapshot, journal, 0, 64 );
+        TestSupport.check( expected.equals( TestSupport.contents( again ) ), "contents after a second recovery differ" );
+        again.getJournal().close();
+        manager.getJournal().close();
+        try( DirectoryStream<Path> files = Files.newDirectoryStream( directory ) ) {
+            for( Path file : files ) {
+                Files.delete( file );
+            }
+        }
+        Files.delete( directory );
+        System.out.println( "JournalReplayTest passed" );
+    }
+}
@@ -0,0 +1,73 @@
+package university;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks that deferred-acceptance allocation with a fixed seed gives the
+ * same enrolments however the students and their preferences are ordered
+ * in the input, and however many threads it runs on. Each run starts from
+ * a copy of the same manager, loaded from one snapshot so the IDs match.
+ */
+public class PreferenceOrderTest
+{
+    private static final long SEED = 77;
+
+    public static void main( String[] args ) throws Exception {
+        Random random = new Random( 1 );
+        UniversityAllocationManager original = new UniversityAllocationManager();
+        String[] modules = new String[30];
+        for( int i = 0; i < modules.length; i++ ) {
+            modules[i] = original.addModule( "Module " + i, (byte) ( 10 * ( 1 + random.nextInt( 3 ) ) ),
+                                             (byte) ( 1 + random.nextInt( 2 ) ), 1 + random.nextInt( 8 ), new Staff[0] );
+        }
+        String[] students = new String[300];
+        String[][] preferences = new String[students.length][];
+        for( int i = 0; i < students.length; i++ ) {
+            students[i] = original.addStudent( "Student", "Number " + i, (byte) ( 1 + random.nextInt( 3 ) ) );
+            preferences[i] = new String[6];
+            for( int k = 0; k < preferences[i].length; k++ ) {
+                preferences[i][k] = modules[random.nextInt( modules.length )];
+            }
+        }
+        //some students already hold a module, which the allocation must work around
+        for( int i = 0; i < 40; i++ ) {
+            original.tryEnrol( students[random.nextInt( students.length )], modules[random.nextInt( modules.length )] );
+        }
+        Path snapshot = Files.createTempFile( "preference-order", ".snap" );
+        original.saveAllocationManager( snapshot.toString() );
+
+        String expected = null;
+        for( int run = 0; run < 6; run++ ) {
+            UniversityAllocationManager manager = new UniversityAllocationManager();
+            manager.loadAllocationManager( snapshot.toString() );
+
+            Integer[] order = new Integer[students.length];
+            for( int i = 0; i < order.length; i++ ) {
+                order[i] = i;
+            }
+            List<Integer> shuffled = Arrays.asList( order );
+            Collections.shuffle( shuffled, new Random( run ) );
+            String[] runStudents = new String[students.length];
+            String[][] runPreferences = new String[students.length][];
+            for( int i = 0; i < order.length; i++ ) {
+                runStudents[i] = students[order[i]];
+                runPreferences[i] = preferences[order[i]];
+            }
+            AllocationReport report = manager.allocate( runStudents, runPreferences, 1 + run % 3, SEED );
+            TestSupport.check( report.getStudentIDs().length > 0, "nothing was allocated" );
+
+            String contents = TestSupport.contents( manager );
+            if( expected == null ) {
+                expected = contents;
+            }
+            TestSupport.check( expected.equals( contents ), "run " + run + " allocated differently in another input order" );
+        }
+        Files.delete( snapshot );
+        System.out.println( "PreferenceOrderTest passed" );
+    }
+}
@@ -0,0 +1,22 @@
+package university;
+
+/**
+ * Runs every test in turn, stopping at the first failure. The tests use no
+ * framework: each is a class whose main method throws if a check fails.
+ * <p>
+ * Compile and run from the root of the repository with
+ * <pre>
+ * javac -d out src/*.java test/*.java
+ * java -ea -cp out university.RunTests
+ * </pre>
+ */
+public class RunTests
+{
+    public static void main( String[] args ) throws Exception {
+        JournalReplayTest.main( args );
+        ConcurrentCapacityTest.main( args );
+        SnapshotIsolationTest.main( args );
+        PreferenceOrderTest.main( args );
+        System.out.println( "All tests passed" );
+    }
+}
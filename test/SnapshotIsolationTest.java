@@ -0,0 +1,129 @@
+package university;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Checks that a snapshot of a ConcurrentAllocationManager keeps showing the
+ * contents as they were when it was taken while writers enrol, unenrol,
+ * discontinue, remove and add entities, and that a snapshot taken in the
+ * middle of the writes is consistent in itself: its counts agree with its
+ * students' modules and its modules' rosters.
+ */
+public class SnapshotIsolationTest
+{
+    public static void main( String[] args ) throws Exception {
+        ConcurrentAllocationManager manager = new ConcurrentAllocationManager();
+        Random random = new Random( 5 );
+        for( int i = 0; i < 30; i++ ) {
+            manager.addStaff( "Staff", "Member" + i );
+        }
+        Staff[] staff = manager.getStaff();
+        String[] modules = new String[60];
+        for( int i = 0; i < modules.length; i++ ) {
+            modules[i] = manager.addModule( "Module " + i, (byte) 20, (byte) 1, 5 + random.nextInt( 30 ),
+                                            new Staff[] { staff[i % staff.length] } );
+        }
+        String[] students = new String[2000];
+        for( int i = 0; i < students.length; i++ ) {
+            students[i] = manager.addStudent( "Student", "Number " + i, (byte) 1 );
+        }
+        for( int i = 0; i < 8000; i++ ) {
+            manager.tryEnrol( students[random.nextInt( students.length )], modules[random.nextInt( modules.length )] );
+        }
+
+        String before = TestSupport.contents( manager );
+        SnapshotAllocationManager first = manager.snapshot();
+        TestSupport.check( before.equals( TestSupport.contents( first ) ), "snapshot differs from the manager it was taken of" );
+
+        AtomicBoolean writing = new AtomicBoolean( true );
+        ExecutorService threads = Executors.newFixedThreadPool( 6 );
+        List<Future<?>> writers = new ArrayList<Future<?>>();
+        for( int t = 0; t < 4; t++ ) {
+            final Random writes = new Random( t );
+            writers.add( threads.submit( () -> {
+                for( int i = 0; i < 30000; i++ ) {
+                    String student = students[writes.nextInt( students.length )];
+                    String module = modules[writes.nextInt( modules.length )];
+                    if( writes.nextBoolean() ) {
+                        manager.tryEnrol( student, module );
+                    }
+                    else {
+                        manager.tryUnEnrol( student, module );
+                    }
+                }
+                return null;
+            } ) );
+        }
+        writers.add( threads.submit( () -> {
+            for( int i = 0; i < 10; i++ ) {
+                manager.discontinue( modules[i * 5] );
+                manager.remove( new UniversityStudent( "", "", (byte) 1, students[i] ) );
+                manager.remove( staff[i + 10] );
+                manager.addStudent( "New", "Student", (byte) 1 );
+            }
+            return null;
+        } ) );
+        Future<?> reader = threads.submit( () -> {
+            while( writing.get() ) {
+                TestSupport.check( before.equals( TestSupport.contents( first ) ), "snapshot changed while being read" );
+            }
+            return null;
+        } );
+
+        Thread.sleep( 20 );
+        SnapshotAllocationManager middle = manager.snapshot();
+        String middleContents = TestSupport.contents( middle );
+        for( Future<?> writer : writers ) {
+            writer.get();
+        }
+        writing.set( false );
+        reader.get();
+        threads.shutdown();
+
+        TestSupport.check( before.equals( TestSupport.contents( first ) ), "first snapshot changed" );
+        TestSupport.check( middleContents.equals( TestSupport.contents( middle ) ), "middle snapshot changed" );
+        TestSupport.check( !before.equals( TestSupport.contents( manager ) ), "the writers changed nothing" );
+        checkConsistent( middle );
+        first.close();
+        middle.close();
+        System.out.println( "SnapshotIsolationTest passed" );
+    }
+
+    /*
+     * Checks each link of a view is held from both sides, and its counts
+     * match its contents.
+     */
+    private static void checkConsistent( SnapshotAllocationManager view ) throws Exception {
+        int full = 0;
+        int links = 0;
+        for( Student student : view.getStudents() ) {
+            int credits = 0;
+            for( Module module : view.getModules( student.getID() ) ) {
+                credits += module.getCredits();
+                links++;
+                boolean listed = false;
+                for( Student enrolled : view.getStudents( module.getCode() ) ) {
+                    listed |= enrolled.getID().equals( student.getID() );
+                }
+                TestSupport.check( listed, student.getID() + " is missing from the roster of " + module.getCode() );
+            }
+            full += credits == 120 ? 1 : 0;
+        }
+        int atCapacity = 0;
+        int enrolments = 0;
+        for( Module module : view.getModules() ) {
+            int enrolled = view.getStudents( module.getCode() ).length;
+            enrolments += enrolled;
+            atCapacity += enrolled == module.getCapacity() && !view.isDiscontinued( module.getCode() ) ? 1 : 0;
+        }
+        TestSupport.check( links == enrolments, links + " student links but " + enrolments + " roster entries" );
+        TestSupport.check( full == view.getNumberOfFullyAllocatedStudents(), "full student count differs in the snapshot" );
+        TestSupport.check( atCapacity == view.getNumberOfModulesAtCapacity(), "at capacity count differs in the snapshot" );
+    }
+}
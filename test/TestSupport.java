@@ -0,0 +1,70 @@
+package university;
+
+/**
+ * Helpers shared by the tests: a check which fails the test with a message,
+ * and a text form of everything an AllocationManager holds, so two managers
+ * or two points in time can be compared as strings.
+ */
+final class TestSupport
+{
+    private TestSupport() {
+    }
+
+    /**
+     * Fails the test with the given message unless the condition holds.
+     *
+     * @param condition condition which must hold
+     * @param message description of the failure
+     */
+    static void check( boolean condition, String message ) {
+        if( !condition ) {
+            throw new AssertionError( message );
+        }
+    }
+
+    /**
+     * Describes every student, staff member and module of a manager with
+     * their links, the running and available modules and the counts.
+     *
+     * @param manager manager to describe
+     * @return text which is equal for managers with equal contents
+     * @throws Exception if the manager cannot find an entity it listed
+     */
+    static String contents( AllocationManager manager ) throws Exception {
+        StringBuilder text = new StringBuilder();
+        text.append( manager.getNumberOfStudents() ).append( ' ' ).append( manager.getNumberOfStaff() ).append( ' ' )
+            .append( manager.getNumberOfModules() ).append( ' ' ).append( manager.getNumberOfFullyAllocatedStudents() )
+            .append( ' ' ).append( manager.getNumberOfModulesAtCapacity() ).append( '\n' );
+        for( Student student : manager.getStudents() ) {
+            text.append( student.getID() ).append( ' ' ).append( student.getStage() );
+            for( Module module : manager.getModules( student.getID() ) ) {
+                text.append( ' ' ).append( module.getCode() );
+            }
+            text.append( '\n' );
+        }
+        for( Module module : manager.getModules() ) {
+            //the module objects are shared with the live manager, so a view is asked whether it had discontinued them
+            boolean discontinued = manager instanceof SnapshotAllocationManager
+                ? ( (SnapshotAllocationManager) manager ).isDiscontinued( module.getCode() ) : module.isDiscontinued();
+            text.append( module.getCode() ).append( discontinued ? " discontinued" : " running" );
+            for( Student student : manager.getStudents( module.getCode() ) ) {
+                text.append( ' ' ).append( student.getID() );
+            }
+            text.append( " |" );
+            for( Staff member : manager.getStaff( module.getCode() ) ) {
+                text.append( ' ' ).append( member.getID() );
+            }
+            text.append( '\n' );
+        }
+        for( Staff member : manager.getStaff() ) {
+            text.append( member.getID() ).append( '\n' );
+        }
+        for( Module module : manager.getRunningModules() ) {
+            text.append( "running " ).append( module.getCode() ).append( '\n' );
+        }
+        for( Module module : manager.getAvailableModules() ) {
+            text.append( "available " ).append( module.getCode() ).append( '\n' );
+        }
+        return text.toString();
+    }
+}